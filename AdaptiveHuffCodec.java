@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codes a stream with an adaptive Huffman code (the FGK algorithm), so the
+ * input is read only once and nothing about it is stored in a header.
+ * The encoder and the decoder start with a tree holding only the
+ * not-yet-transmitted (NYT) leaf and update it the same way after every
+ * value, so the code always matches the counts of the values seen so far.
+ * <P>
+ * A value seen before is written as the code of its leaf. A new value is
+ * written as the code of the NYT leaf followed by the value in
+ * <code>BITS_PER_WORD + 1</code> bits, and gets its own leaf. The stream
+ * ends with PSEUDO_EOF, which is always new.
+ * <P>
+ * The tree is kept in arrays indexed by the node's position in the
+ * sibling property order: the root is at 0, weights never increase with
+ * the position and the children of an internal node are at two
+ * consecutive positions. Moving a subtree is then swapping the contents of
+ * two positions.
+ */
+public class AdaptiveHuffCodec implements IHuffCodec {
+
+    // Leaves for every value, PSEUDO_EOF and the NYT leaf
+    private static final int NYT = ALPH_SIZE + 1;
+    private static final int NUM_LEAVES = ALPH_SIZE + 2;
+    private static final int MAX_NODES = 2 * NUM_LEAVES - 1;
+
+    // Bits used to write a value the first time it appears
+    private static final int NEW_VALUE_BITS = BITS_PER_WORD + 1;
+
+    // Number of bytes read from the input at a time
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The contents of every position. Internal nodes have a value of -1 and
+    // their children at firstChild and firstChild + 1. Leaves have a value
+    // and no children.
+    private long[] weight;
+    private int[] value;
+    private int[] firstChild;
+    // The parent of every position, fixed once the position is used
+    private int[] parent;
+    // The position of the leaf of every value, -1 if the value is new
+    private int[] leaf;
+    // Bits of a code, gathered from the leaf up to the root
+    private int[] path;
+
+    public int getHeaderFormat() {
+        return STORE_ADAPTIVE;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        initialize();
+        int bitsWritten = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int numRead = in.read(buffer);
+        while (numRead != -1) {
+            for (int k = 0; k < numRead; k++) {
+                bitsWritten += encodeValue(buffer[k] & 0xff, out);
+            }
+            numRead = in.read(buffer);
+        }
+        return bitsWritten + encodeValue(PSEUDO_EOF, out);
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        initialize();
+        int bitsWritten = 0;
+        int decoded = decodeValue(in);
+        while (decoded != PSEUDO_EOF) {
+            out.write(decoded);
+            bitsWritten += BITS_PER_WORD;
+            decoded = decodeValue(in);
+        }
+        return bitsWritten;
+    }
+
+    // Start with a tree that is only the NYT leaf.
+    private void initialize() {
+        weight = new long[MAX_NODES];
+        value = new int[MAX_NODES];
+        firstChild = new int[MAX_NODES];
+        parent = new int[MAX_NODES];
+        leaf = new int[NUM_LEAVES];
+        path = new int[MAX_NODES];
+        java.util.Arrays.fill(leaf, -1);
+        value[0] = NYT;
+        parent[0] = -1;
+        leaf[NYT] = 0;
+    }
+
+    // Write the code for val and update the tree, return the bits written.
+    private int encodeValue(int val, BitOutputStream out) {
+        int bitsWritten;
+        if (leaf[val] == -1) {
+            bitsWritten = writeCode(leaf[NYT], out);
+            out.writeBits(NEW_VALUE_BITS, val);
+            bitsWritten += NEW_VALUE_BITS;
+        } else {
+            bitsWritten = writeCode(leaf[val], out);
+        }
+        update(val);
+        return bitsWritten;
+    }
+
+    // Write the code of the node at a position, return its length.
+    private int writeCode(int position, BitOutputStream out) {
+        int length = 0;
+        while (position != 0) {
+            int up = parent[position];
+            path[length++] = position - firstChild[up];
+            position = up;
+        }
+        // path holds the code from its last bit to its first
+        int remaining = length;
+        while (remaining > 0) {
+            int chunk = Math.min(remaining, BITS_PER_INT - 1);
+            int bits = 0;
+            for (int k = 0; k < chunk; k++) {
+                bits = (bits << 1) | path[--remaining];
+            }
+            out.writeBits(chunk, bits);
+        }
+        return length;
+    }
+
+    // Read one code and update the tree, return the value it stands for.
+    private int decodeValue(BitInputStream in) throws IOException {
+        int position = 0;
+        while (value[position] == -1) {
+            int bit = in.readBits(1);
+            if (bit == -1) {
+                throw new IOException("compressed data ended before PSEUDO_EOF");
+            }
+            position = firstChild[position] + bit;
+        }
+        int val = value[position];
+        if (val == NYT) {
+            val = in.readBits(NEW_VALUE_BITS);
+            if (val < 0 || val > PSEUDO_EOF) {
+                throw new IOException("compressed data ended in the middle of a new value");
+            }
+            if (leaf[val] != -1) {
+                throw new IOException("compressed data sends value " + val + " as new twice");
+            }
+        }
+        update(val);
+        return val;
+    }
+
+    // Add one to the weight of val, restoring the sibling property as the
+    // weights of the leaf and its ancestors go up.
+    private void update(int val) {
+        int position = leaf[val];
+        if (position == -1) {
+            // The NYT leaf becomes an internal node with the new leaf and
+            // the NYT leaf as its children
+            int nyt = leaf[NYT];
+            value[nyt] = -1;
+            firstChild[nyt] = nyt + 1;
+            setLeaf(nyt + 1, val, nyt);
+            setLeaf(nyt + 2, NYT, nyt);
+            position = nyt + 1;
+        }
+        while (position != 0) {
+            int leader = leader(position);
+            if (leader != position) {
+                swap(position, leader);
+                position = leader;
+            }
+            weight[position]++;
+            position = parent[position];
+        }
+        weight[0]++;
+    }
+
+    // Return the first position with the same weight as the node at a
+    // position, the one it can move to without breaking the order. Its
+    // parent has the same weight only when the other child is the NYT leaf,
+    // and a node can't move to its parent.
+    private int leader(int position) {
+        long w = weight[position];
+        int first = position;
+        while (first > 0 && weight[first - 1] == w) {
+            first--;
+        }
+        if (first == parent[position]) {
+            first++;
+        }
+        return first;
+    }
+
+    // Put a leaf at a position.
+    private void setLeaf(int position, int val, int up) {
+        weight[position] = 0;
+        value[position] = val;
+        parent[position] = up;
+        leaf[val] = position;
+    }
+
+    // Exchange the subtrees at two positions, which have the same weight.
+    private void swap(int a, int b) {
+        int tempValue = value[a];
+        value[a] = value[b];
+        value[b] = tempValue;
+        int tempChild = firstChild[a];
+        firstChild[a] = firstChild[b];
+        firstChild[b] = tempChild;
+        attach(a);
+        attach(b);
+    }
+
+    // Point the leaf table or the children of the node at a position back to it.
+    private void attach(int position) {
+        if (value[position] == -1) {
+            parent[firstChild[position]] = position;
+            parent[firstChild[position] + 1] = position;
+        } else {
+            leaf[value[position]] = position;
+        }
+    }
+}
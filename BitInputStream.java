@@ -1,18 +1,24 @@
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 
 /**
  * Reads bits-at-a-time where the number of bits is between 1 and 32.
+ * Bits can also be looked at with <code>peekBits</code> before they are
+ * consumed with <code>skipBits</code>, and <code>bitsAvailable</code> tells
+ * how many bits can be looked at, which is how the end of the stream is found
+ * without reading past it.
  * Updated for version 2.0 to extend java.io.InputStream. This class
  * can be used together with <code>BitOutputStream</code> to facilitate
  * reading and writing data several bits-at-a-time. BitInputStream objects
  * that are constructed from a File support <code>reset()</code>. However,
  * if constructed from an <code>InputStream</code> an object cannot be reset.
  * <P>
+ * Bytes are read from the underlying stream into an internal buffer and
+ * moved from there into a 64 bit window, up to 57 bits at a time, so most
+ * calls only shift and mask the window.
+ * <P>
  * Any exceptions generated are rethrown as <code>RuntimeException</code> objects
  * so client code does not have to catch or rethrow them. (Unless the extension
  * of <code>InputStream</code> requires throwing as another type of exception, e.g.,
@@ -26,44 +32,45 @@ import java.io.InputStream;
 public class BitInputStream extends InputStream {
 
     private InputStream     myInput;
-    private int             myBitCount;
-    private int             myBuffer;
     private File            myFile;
-    
-    private static final int bmask[] = {
-        0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff,
-        0x1ff,0x3ff,0x7ff,0xfff,0x1fff,0x3fff,0x7fff,0xffff,
-        0x1ffff,0x3ffff,0x7ffff,0xfffff,0x1fffff,0x3fffff,
-        0x7fffff,0xffffff,0x1ffffff,0x3ffffff,0x7ffffff,
-        0xfffffff,0x1fffffff,0x3fffffff,0x7fffffff,0xffffffff
-    };
+    // The next bits of the stream, the last myBitCount bits of myBits
+    private long            myBits;
+    private int             myBitCount;
+    // Bytes read from myInput but not yet moved to myBits
+    private byte[]          myBytes;
+    private int             myBytePos;
+    private int             myByteLimit;
+    private boolean         myInputEnded;
 
     private static final int BITS_PER_BYTE = 8;
-    
+    // The most bits the window holds after a refill
+    private static final int WINDOW_BITS = 57;
+    private static final int BUFFER_SIZE = 1 << 13;
+
     /**
      * Construct a bit-at-a-time input stream from a file whose
-     * name is supplied. 
+     * name is supplied.
      * @param filename is the name of the file that will be read.
      * @throws RuntimeException if filename cannot be opened.
      */
     public BitInputStream(String filename) {
         this(new File(filename));
     }
-    
+
     /**
      * Construct a bit-at-a-time input stream from <code>file</code>.
      * @param file is the File that is the source of the input
      * @throws RuntimeExceptoin if file cannot be opened.
      */
     public BitInputStream(File file) {
-        myFile = file;  
+        myFile = file;
         try {
             reset();
         } catch (IOException e) {
             throw new RuntimeException("could not open file for reading bits "+e);
         }
     }
-    
+
     /**
      * Open a bit-at-a-time stream that reads from supplied InputStream. If this
      * constructor is used the BitInputStream is not reset-able.
@@ -72,8 +79,18 @@ public class BitInputStream extends InputStream {
     public BitInputStream(InputStream in) {
         myInput = in;
         myFile = null;
+        initialize();
+    }
+
+    private void initialize() {
+        myBits = 0;
+        myBitCount = 0;
+        myBytes = new byte[BUFFER_SIZE];
+        myBytePos = 0;
+        myByteLimit = 0;
+        myInputEnded = myInput == null;
     }
-    
+
     /**
      * Return true if the stream has been initialized from a File and
      * is thus reset-able. If constructed from an InputStream it is not reset-able.
@@ -87,18 +104,18 @@ public class BitInputStream extends InputStream {
      * Reset stream to beginning. The implementation creates a new
      * stream.
      * @throws IOException if not reset-able (e.g., constructed from InputStream).
-     */   
+     */
     public void reset() throws IOException {
         if (!markSupported()){
             throw new IOException("not resettable");
         } try {
             close();
-            myInput = new BufferedInputStream(new FileInputStream(myFile));
-        } catch (FileNotFoundException fnf){
-            System.err.println("error opening " + myFile.getName() + " " + fnf);
+            myInput = new FileInputStream(myFile);
+        } catch (IOException e){
+            System.err.println("error opening " + myFile.getName() + " " + e);
         }
-        myBuffer = myBitCount = 0;
-    } 
+        initialize();
+    }
 
     /**
      * Closes the input stream.
@@ -125,30 +142,77 @@ public class BitInputStream extends InputStream {
      */
 
     public int readBits(int howManyBits) throws IOException {
-        int retval = 0;
-        if (myInput == null){
-            return -1;
-        }
-        
-        while (howManyBits > myBitCount){
-            retval |= ( myBuffer << (howManyBits - myBitCount) );
-            howManyBits -= myBitCount;
-            try {
-                if ( (myBuffer = myInput.read()) == -1) {
-                    return -1;
+        if (howManyBits > myBitCount) {
+            refill();
+            if (howManyBits > myBitCount) {
+                return -1;
+            }
+        }
+        myBitCount -= howManyBits;
+        return (int) ((myBits >>> myBitCount) & mask(howManyBits));
+    }
+
+    /**
+     * Returns the next <code>howManyBits</code> bits as rightmost bits in the
+     * returned value without consuming them. If fewer bits are left in the
+     * stream the missing bits are returned as zeros at the right.
+     *
+     * @param howManyBits is the number of bits to look at, between 0 and 32
+     * @return the value of the next bits, returns -1 if no bits are left
+     */
+    public int peekBits(int howManyBits) throws IOException {
+        if (howManyBits > myBitCount) {
+            refill();
+            if (howManyBits > myBitCount) {
+                if (myBitCount == 0) {
+                    return howManyBits == 0 ? 0 : -1;
                 }
-            } catch (IOException ioe) {
-                throw new IOException("bitreading trouble "+ioe);
+                return (int) ((myBits << (howManyBits - myBitCount)) & mask(howManyBits));
             }
-            myBitCount = BITS_PER_BYTE;
         }
+        return (int) ((myBits >>> (myBitCount - howManyBits)) & mask(howManyBits));
+    }
 
-        if (howManyBits > 0) {
-            retval |= myBuffer >> (myBitCount - howManyBits);
-            myBuffer &= bmask[myBitCount - howManyBits];
+    /**
+     * Consumes the next <code>howManyBits</code> bits of the stream.
+     *
+     * @param howManyBits is the number of bits to skip
+     * @return the number of bits skipped, less than <code>howManyBits</code>
+     * only if the stream ended first
+     */
+    public int skipBits(int howManyBits) throws IOException {
+        if (howManyBits <= myBitCount) {
             myBitCount -= howManyBits;
+            return howManyBits;
+        }
+        int skipped = 0;
+        while (skipped < howManyBits) {
+            if (myBitCount == 0) {
+                refill();
+                if (myBitCount == 0) {
+                    break;
+                }
+            }
+            int step = Math.min(myBitCount, howManyBits - skipped);
+            myBitCount -= step;
+            skipped += step;
         }
-        return retval;
+        return skipped;
+    }
+
+    /**
+     * Returns the number of bits that can be looked at with
+     * <code>peekBits</code> before more are read from the underlying stream,
+     * after reading as many as fit. The result is less than 32 only near the
+     * end of the stream and 0 once every bit has been read.
+     *
+     * @return the number of bits ready to be read, up to 64
+     */
+    public int bitsAvailable() throws IOException {
+        if (myBitCount < WINDOW_BITS) {
+            refill();
+        }
+        return myBitCount;
     }
 
     /**
@@ -159,6 +223,88 @@ public class BitInputStream extends InputStream {
     public int read() throws IOException {
         return readBits(BITS_PER_BYTE);
     }
+
+    /**
+     * Reads up to len bytes, 8 bits each, into b. When the stream is on a
+     * byte boundary the bytes are copied as they are.
+     * @param b is where the bytes are stored
+     * @param off is the index in b of the first byte
+     * @param len is the most bytes to read
+     * @return the number of bytes read, -1 if no whole byte is left
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int count = 0;
+        // Bytes in the window first, which is every byte if the stream is
+        // not on a byte boundary
+        while (count < len && myBitCount > 0) {
+            int value = readBits(BITS_PER_BYTE);
+            if (value == -1) {
+                return count == 0 ? -1 : count;
+            }
+            b[off + count++] = (byte) value;
+        }
+        if (count < len && myBytePos < myByteLimit) {
+            int step = Math.min(len - count, myByteLimit - myBytePos);
+            System.arraycopy(myBytes, myBytePos, b, off + count, step);
+            myBytePos += step;
+            count += step;
+        }
+        if (count < len && !myInputEnded) {
+            int numRead = myInput.read(b, off + count, len - count);
+            if (numRead == -1) {
+                myInputEnded = true;
+            } else {
+                count += numRead;
+            }
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    public int available() throws IOException {
+        int buffered = myBitCount / BITS_PER_BYTE + myByteLimit - myBytePos;
+        return myInputEnded ? buffered : buffered + myInput.available();
+    }
+
+    // Move bytes from the buffer into the window until it holds WINDOW_BITS
+    // or the stream ends.
+    private void refill() throws IOException {
+        while (myBitCount <= WINDOW_BITS - BITS_PER_BYTE) {
+            if (myBytePos == myByteLimit && !fillBuffer()) {
+                return;
+            }
+            int count = Math.min((WINDOW_BITS - myBitCount) / BITS_PER_BYTE, myByteLimit - myBytePos);
+            for (int k = 0; k < count; k++) {
+                myBits = (myBits << BITS_PER_BYTE) | (myBytes[myBytePos++] & 0xff);
+            }
+            myBitCount += count * BITS_PER_BYTE;
+        }
+    }
+
+    // Read the next bytes of myInput into the buffer, false at the end.
+    private boolean fillBuffer() throws IOException {
+        if (myInputEnded) {
+            return false;
+        }
+        int numRead = myInput.read(myBytes, 0, myBytes.length);
+        while (numRead == 0) {
+            numRead = myInput.read(myBytes, 0, myBytes.length);
+        }
+        if (numRead == -1) {
+            myInputEnded = true;
+            return false;
+        }
+        myBytePos = 0;
+        myByteLimit = numRead;
+        return true;
+    }
+
+    // Return a mask of the low howManyBits bits.
+    private static long mask(int howManyBits) {
+        return (1L << howManyBits) - 1;
+    }
 }
 
 
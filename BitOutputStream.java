@@ -1,11 +1,11 @@
 import java.io.BufferedOutputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
 /**
- * Write bits-at-a-time where the number of bits is between 1 and 32
+ * Write bits-at-a-time where the number of bits is between 1 and 32, or up
+ * to 64 with <code>writeBits(int, long)</code>.
  * Client programs must call <code>flush</code> or
  * <code>close</code> when finished writing or not all bits will be written.
  * This class is intended to be used with <code>BitInputStream</code> to
@@ -13,6 +13,13 @@ import java.io.OutputStream;
  * <P>
  * Updated for version 2.0 to extend java.io.OutputStream
  * <P>
+ * Bits are collected in a 64 bit accumulator and drained four bytes at a
+ * time into an internal buffer, which is written to the underlying stream
+ * when it fills, so the underlying stream sees large writes no matter how
+ * few bits are written at a time. <code>write</code> writes 8 bits, and
+ * arrays written on a byte boundary are copied without going through the
+ * accumulator.
+ * <P>
  * Any exceptions generated are rethrown as <code>RuntimeException</code> objects
  * so client code does not have to catch or rethrow them.
  * <P>
@@ -22,29 +29,69 @@ import java.io.OutputStream;
  * @version 3.0 April 2022
  */
 public class BitOutputStream extends OutputStream {
-   
+
     private OutputStream  myOutput;
-    private int myBuffer;
-    private int myBitsToGo;
-    
-    private static final int bmask[] = {
-        0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff,
-        0x1ff,0x3ff,0x7ff,0xfff,0x1fff,0x3fff,0x7fff,0xffff,
-        0x1ffff,0x3ffff,0x7ffff,0xfffff,0x1fffff,0x3fffff,
-        0x7fffff,0xffffff,0x1ffffff,0x3ffffff,0x7ffffff,
-        0xfffffff,0x1fffffff,0x3fffffff,0x7fffffff,0xffffffff
-    };
+    // Bits not yet moved to myBytes, the last myBitCount bits of myBits
+    private long myBits;
+    private int myBitCount;
+    private byte[] myBytes;
+    private int myByteCount;
 
     private static final int BITS_PER_BYTE = 8;
+    private static final int BITS_PER_INT = 32;
+    private static final int BUFFER_SIZE = 1 << 13;
+    // Bytes buffered before each write to a file opened by name
+    private static final int FILE_BUFFER_SIZE = 1 << 20;
 
     /**
-     * Required by OutputStream subclasses, write the low
-     * 8-bits to the underlying outputstream
+     * Write the low 8-bits of b as 8 bits of the stream, after any bits
+     * written before it. Like the bits, the byte is held until the buffer
+     * fills or the stream is flushed.
+     * @param b holds the bits to write
+     * @throws RuntimeException if there's an I/O problem writing bits
      */
-    public void write(int b) throws IOException {
-        myOutput.write(b);
+    public void write(int b) {
+        if (myBitCount == 0 && myByteCount < myBytes.length) {
+            // On a byte boundary, no need for the accumulator
+            myBytes[myByteCount++] = (byte) b;
+        } else {
+            writeBits(BITS_PER_BYTE, b);
+        }
     }
-    
+
+    /**
+     * Write len bytes from b, 8 bits each. When the stream is on a byte
+     * boundary the bytes are copied as they are.
+     * @param b holds the bytes to write
+     * @param off is the index of the first byte to write
+     * @param len is the number of bytes to write
+     * @throws RuntimeException if there's an I/O problem writing bytes
+     */
+    public void write(byte[] b, int off, int len) {
+        if (myBitCount % BITS_PER_BYTE != 0) {
+            for (int k = off; k < off + len; k++) {
+                writeBits(BITS_PER_BYTE, b[k]);
+            }
+            return;
+        }
+        drain();
+        if (len >= myBytes.length) {
+            // Too big to buffer, write it straight through
+            writeBuffer();
+            try {
+                myOutput.write(b, off, len);
+            } catch (IOException ioe) {
+                throw new RuntimeException("error writing bytes " + ioe);
+            }
+            return;
+        }
+        if (myByteCount + len > myBytes.length) {
+            writeBuffer();
+        }
+        System.arraycopy(b, off, myBytes, myByteCount, len);
+        myByteCount += len;
+    }
+
     /**
      * Create a stream that writes-through to the <code>OutputStream</code> object
      * passed as a parameter.
@@ -54,24 +101,26 @@ public class BitOutputStream extends OutputStream {
         myOutput = out;
         initialize();
     }
-    
+
     private void initialize() {
-        myBuffer = 0;
-        myBitsToGo = BITS_PER_BYTE;
+        myBits = 0;
+        myBitCount = 0;
+        myBytes = new byte[BUFFER_SIZE];
+        myByteCount = 0;
     }
-    
+
     /**
      * Construct a bit-at-a-time output stream with specified file
      * name.
      * @param filename is the name of the file being written
-     * @throws RuntimeException if opening file fails for either FileNotFound
+     * @throws RuntimeException if opening file fails for either IOException
      * or for Security exceptoins
      */
     public BitOutputStream(String filename) {
         try {
-            myOutput = new BufferedOutputStream(new FileOutputStream(filename)); 
-        } catch (FileNotFoundException fnf) {
-            throw new RuntimeException("could not create " + filename + " " + fnf);
+            myOutput = new BufferedOutputStream(new FileOutputStream(filename), FILE_BUFFER_SIZE);
+        } catch (IOException ioe) {
+            throw new RuntimeException("could not create " + filename + " " + ioe);
         } catch(SecurityException se) {
             throw new RuntimeException("security exception on write " + se);
         }
@@ -81,22 +130,23 @@ public class BitOutputStream extends OutputStream {
 
     /**
      * Flushes bits not yet written, must be called by client
-     * programs if <code>close</code> isn't called.
+     * programs if <code>close</code> isn't called. A partial last
+     * byte is padded with zeros.
      * @throws RuntimeException if there's a problem writing bits
      */
     public void flush() {
-        if (myBitsToGo != BITS_PER_BYTE) {
-            try {
-                write( (myBuffer << myBitsToGo) );
-            } catch (java.io.IOException ioe){
-                throw new RuntimeException("error writing bits on flush " + ioe);
+        drain();
+        if (myBitCount > 0) {
+            if (myByteCount == myBytes.length) {
+                writeBuffer();
             }
-            myBuffer = 0;
-            myBitsToGo = BITS_PER_BYTE;
+            myBytes[myByteCount++] = (byte) (myBits << (BITS_PER_BYTE - myBitCount));
+            myBits = 0;
+            myBitCount = 0;
         }
-                
+        writeBuffer();
         try {
-            myOutput.flush();    
+            myOutput.flush();
         } catch (java.io.IOException ioe){
             throw new RuntimeException("error on flush " + ioe);
         }
@@ -124,26 +174,65 @@ public class BitOutputStream extends OutputStream {
      * @throws RuntimeException if there's an I/O problem writing bits
      */
     public void writeBits(int howManyBits, int value) {
-        value &= bmask[howManyBits];  // only right most bits valid
+        if (howManyBits <= 0) {
+            return;
+        }
+        // At most 31 bits are waiting so 32 more always fit
+        myBits = (myBits << howManyBits) | (value & (0xffffffffL >>> (BITS_PER_INT - howManyBits)));
+        myBitCount += howManyBits;
+        if (myBitCount >= BITS_PER_INT) {
+            drainWord();
+        }
+    }
+
+    /**
+     * Write specified number of bits from value to a file.
+     * @param howManyBits is number of bits to write (1-64)
+     * @param value is source of bits, rightmost bits are written
+     * @throws RuntimeException if there's an I/O problem writing bits
+     */
+    public void writeBits(int howManyBits, long value) {
+        if (howManyBits > BITS_PER_INT) {
+            writeBits(howManyBits - BITS_PER_INT, (int) (value >>> BITS_PER_INT));
+            howManyBits = BITS_PER_INT;
+        }
+        writeBits(howManyBits, (int) value);
+    }
 
-        while (howManyBits >= myBitsToGo) {
-            myBuffer = (myBuffer << myBitsToGo) |
-                       (value >> (howManyBits - myBitsToGo));
+    // Move the oldest 32 bits of the accumulator to the buffer.
+    private void drainWord() {
+        if (myByteCount + 4 > myBytes.length) {
+            writeBuffer();
+        }
+        int word = (int) (myBits >>> (myBitCount - BITS_PER_INT));
+        myBytes[myByteCount] = (byte) (word >>> 24);
+        myBytes[myByteCount + 1] = (byte) (word >>> 16);
+        myBytes[myByteCount + 2] = (byte) (word >>> 8);
+        myBytes[myByteCount + 3] = (byte) word;
+        myByteCount += 4;
+        myBitCount -= BITS_PER_INT;
+    }
+
+    // Move every whole byte of the accumulator to the buffer.
+    private void drain() {
+        while (myBitCount >= BITS_PER_BYTE) {
+            if (myByteCount == myBytes.length) {
+                writeBuffer();
+            }
+            myBitCount -= BITS_PER_BYTE;
+            myBytes[myByteCount++] = (byte) (myBits >>> myBitCount);
+        }
+    }
+
+    // Write the buffer to the underlying stream.
+    private void writeBuffer() {
+        if (myByteCount > 0) {
             try {
-                write(myBuffer);    
-            } catch (java.io.IOException ioe){
+                myOutput.write(myBytes, 0, myByteCount);
+            } catch (IOException ioe) {
                 throw new RuntimeException("error writing bits " + ioe);
             }
-
-            value &= bmask[howManyBits - myBitsToGo];
-            howManyBits -= myBitsToGo;
-            myBitsToGo = BITS_PER_BYTE;
-            myBuffer = 0;
-        }
-        
-        if (howManyBits > 0) {
-            myBuffer = (myBuffer << howManyBits) | value;
-            myBitsToGo -= howManyBits;
+            myByteCount = 0;
         }
     }
 }
@@ -0,0 +1,298 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Codes a stream as a series of independent blocks, each with its own
+ * Huffman code. Heterogeneous input, such as HTML followed by plain text,
+ * gets a code suited to each part, and because a block depends on nothing
+ * outside itself blocks can be coded and decoded separately.
+ * <P>
+ * After the header format the block size is stored as an int. Then each
+ * block is stored as the number of original bytes in the block (an int),
+ * the number of bytes in its payload (an int) and the payload. A block with
+ * zero original bytes ends the stream. Payloads start on a byte boundary.
+ * The first byte of a payload is its type. Coded payloads continue with the
+ * code lengths in <code>CanonicalCode</code> form followed by the codes for
+ * the bytes of the block. Blocks that do not get smaller are stored raw,
+ * with the original bytes following the type byte.
+ * <P>
+ * <code>HuffmanOutputStream</code> and <code>HuffmanInputStream</code> write
+ * and read this format as filter streams.
+ */
+public class BlockHuffCodec implements IHuffCodec {
+
+    /**
+     * The number of original bytes in each block unless another size is given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 17;
+
+    // The longest code used in a block, keeps the decoding tables small.
+    private static final int MAX_CODE_LENGTH = 15;
+
+    // Payload types
+    private static final int STORED = 0;
+    private static final int CODED = 1;
+
+    private final int blockSize;
+
+    /**
+     * Create a codec with the default block size.
+     */
+    public BlockHuffCodec() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a codec that splits its input into blocks of blockSize bytes.
+     * @param blockSize the number of original bytes in each block, at least 1
+     */
+    public BlockHuffCodec(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be at least 1");
+        }
+        this.blockSize = blockSize;
+    }
+
+    public int getHeaderFormat() {
+        return STORE_BLOCKS;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        out.writeBits(BITS_PER_INT, blockSize);
+        int bitsWritten = BITS_PER_INT;
+        byte[] block = new byte[blockSize];
+        int length = readBlock(in, block);
+        while (length > 0) {
+            bitsWritten += writeBlock(out, length, encodeBlock(block, 0, length));
+            length = readBlock(in, block);
+        }
+        // An empty block marks the end
+        out.writeBits(BITS_PER_INT, 0);
+        return bitsWritten + BITS_PER_INT;
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        int storedBlockSize = readBlockSize(in);
+        byte[] block = new byte[storedBlockSize];
+        int bitsWritten = 0;
+        int length = readInt(in);
+        while (length != 0) {
+            decodeBlock(readPayload(in, length, storedBlockSize), block, 0, length);
+            out.write(block, 0, length);
+            bitsWritten += length * BITS_PER_WORD;
+            length = readInt(in);
+        }
+        return bitsWritten;
+    }
+
+    /**
+     * Write the frame of one block, its lengths followed by its payload.
+     * @param out the stream the block is written to
+     * @param length the number of original bytes in the block
+     * @param payload the payload made by <code>encodeBlock</code>
+     * @return the number of bits written
+     */
+    public static int writeBlock(BitOutputStream out, int length, byte[] payload) {
+        out.writeBits(BITS_PER_INT, length);
+        out.writeBits(BITS_PER_INT, payload.length);
+        for (byte b : payload) {
+            out.writeBits(BITS_PER_WORD, b);
+        }
+        return BITS_PER_INT * 2 + payload.length * BITS_PER_WORD;
+    }
+
+    /**
+     * Code one block. The result depends only on the bytes of the block.
+     * @param data the array holding the block
+     * @param offset the index of the first byte of the block
+     * @param length the number of bytes in the block
+     * @return the payload of the block, coded or stored whichever is smaller
+     */
+    public static byte[] encodeBlock(byte[] data, int offset, int length) {
+        int[] freqs = new int[ALPH_SIZE];
+        for (int k = offset; k < offset + length; k++) {
+            freqs[data[k] & 0xff]++;
+        }
+        int[] lengths = CanonicalCode.limitedLengths(freqs, MAX_CODE_LENGTH);
+        int[] codes = CanonicalCode.assignCodes(lengths);
+        long codedBits = BITS_PER_WORD + CanonicalCode.headerBits(lengths);
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            codedBits += (long) freqs[k] * lengths[k];
+        }
+        if (codedBits >= (long) (length + 1) * BITS_PER_WORD) {
+            // Coding doesn't help, store the bytes as they are
+            byte[] payload = new byte[length + 1];
+            payload[0] = STORED;
+            System.arraycopy(data, offset, payload, 1, length);
+            return payload;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) (codedBits / BITS_PER_WORD) + 1);
+        BitOutputStream payload = new BitOutputStream(bytes);
+        payload.writeBits(BITS_PER_WORD, CODED);
+        CanonicalCode.writeLengths(payload, lengths);
+        for (int k = offset; k < offset + length; k++) {
+            int value = data[k] & 0xff;
+            payload.writeBits(lengths[value], codes[value]);
+        }
+        payload.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode the payload of one block.
+     * @param payload the payload made by <code>encodeBlock</code>
+     * @param dest the array the original bytes are stored in
+     * @param offset the index in dest of the first byte of the block
+     * @param length the number of original bytes in the block
+     * @throws IOException if the payload is not valid
+     */
+    public static void decodeBlock(byte[] payload, byte[] dest, int offset, int length) throws IOException {
+        if (payload[0] == STORED) {
+            if (payload.length != length + 1) {
+                throw new IOException("stored block has the wrong length");
+            }
+            System.arraycopy(payload, 1, dest, offset, length);
+        } else if (payload[0] == CODED) {
+            BitInputStream in = new BitInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1));
+            int[] lengths = CanonicalCode.readLengths(in, ALPH_SIZE);
+            HuffDecodeTable table = new HuffDecodeTable(CanonicalCode.assignCodes(lengths), lengths);
+            table.decode(in, dest, offset, length);
+        } else {
+            throw new IOException("unknown block type " + payload[0]);
+        }
+    }
+
+    /**
+     * Read the block size stored after the header format.
+     * @param in the stream the block size is read from
+     * @return the block size, at least 1
+     * @throws IOException if the block size is missing or not valid
+     */
+    static int readBlockSize(BitInputStream in) throws IOException {
+        int blockSize = readInt(in);
+        if (blockSize < 1) {
+            throw new IOException("invalid block size " + blockSize);
+        }
+        return blockSize;
+    }
+
+    /**
+     * Read the rest of the frame of a block written by <code>writeBlock</code>
+     * once its number of original bytes has been read: the number of bytes
+     * in its payload and the payload.
+     * @param in the stream the block is read from
+     * @param length the number of original bytes in the block, not 0
+     * @param blockSize the block size of the stream
+     * @return the payload of the block
+     * @throws IOException if the lengths are not valid or in ends too soon
+     */
+    static byte[] readPayload(BitInputStream in, int length, int blockSize) throws IOException {
+        int payloadLength = readInt(in);
+        if (length < 0 || length > blockSize || payloadLength < 1) {
+            throw new IOException("invalid block lengths " + length + " " + payloadLength);
+        }
+        byte[] payload = new byte[payloadLength];
+        if (readBlock(in, payload) != payloadLength) {
+            throw new IOException("unexpected end of block data");
+        }
+        return payload;
+    }
+
+    /**
+     * Fill block from in.
+     * @param in the stream to read
+     * @param block the array the bytes are stored in
+     * @return the number of bytes read, less than the length of block only
+     * at the end of in, 0 when in has ended
+     * @throws IOException if in can't be read
+     */
+    static int readBlock(InputStream in, byte[] block) throws IOException {
+        return readBlock(in, block, 0, block.length);
+    }
+
+    /**
+     * Read up to size bytes from in into data from offset.
+     * @param in the stream to read
+     * @param data the array the bytes are stored in
+     * @param offset the index in data of the first byte read
+     * @param size the number of bytes to read
+     * @return the number of bytes read, less than size only at the end of
+     * in, 0 when in has ended
+     * @throws IOException if in can't be read
+     */
+    static int readBlock(InputStream in, byte[] data, int offset, int size) throws IOException {
+        int length = 0;
+        int numRead = 0;
+        while (length < size && numRead != -1) {
+            numRead = in.read(data, offset + length, size - length);
+            if (numRead > 0) {
+                length += numRead;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Run every task on pool, wait for them all and return their results in
+     * order. An IOException thrown by a task is thrown as it is, anything
+     * else is wrapped in an IOException.
+     * @param pool the pool the tasks are run on
+     * @param tasks the tasks to run
+     * @param action what the tasks do, for the message of an exception,
+     * such as "sorting blocks"
+     * @return the result of every task, in the order of tasks
+     * @throws IOException if a task fails or the wait is interrupted
+     */
+    static <T> List<T> runAll(ForkJoinPool pool, List<Callable<T>> tasks, String action) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while " + action, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("error while " + action, e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Read a length or size stored as an int. No length or size stored is
+     * -1, so -1 is read as the end of the data.
+     * @param in the stream to read
+     * @return the int read
+     * @throws IOException if in ends first
+     */
+    static int readInt(BitInputStream in) throws IOException {
+        return readBits(in, BITS_PER_INT);
+    }
+
+    /**
+     * Read bits of block data.
+     * @param in the stream to read
+     * @param howManyBits the number of bits to read
+     * @return the bits read
+     * @throws IOException if in ends first
+     */
+    static int readBits(BitInputStream in, int howManyBits) throws IOException {
+        int value = in.readBits(howManyBits);
+        if (value == -1) {
+            throw new IOException("unexpected end of block data");
+        }
+        return value;
+    }
+}
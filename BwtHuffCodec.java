@@ -0,0 +1,416 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Codes a stream in blocks like bzip2: each block is put through the
+ * Burrows-Wheeler transform, then move-to-front, then runs of zeros are
+ * coded as run values, and what is left is Huffman coded. The transform
+ * sorts the block so that bytes followed by the same text end up next to
+ * each other, which on large text files leaves long runs of the same byte
+ * for move-to-front to turn into zeros.
+ * <P>
+ * The transform comes from the suffix array of the block, built by prefix
+ * doubling with counting sorts over int arrays, so sorting a block takes
+ * a few arrays the size of the block and no other objects. Blocks depend
+ * on nothing outside themselves, so as many blocks as a ForkJoinPool has
+ * threads, the common pool unless another is given, are sorted and coded
+ * at once, and decoded at once.
+ * <P>
+ * After move-to-front a run of zeros is written in bijective base 2 with
+ * the values RUNA and RUNB, a nonzero value v is written as v + 1 and the
+ * block ends with END_OF_BLOCK. One Huffman code is used for the block.
+ * <P>
+ * After the header format the block size is stored as an int. Each block
+ * is stored as in <code>BlockHuffCodec</code>: the number of original
+ * bytes in the block (an int), the number of bytes in its payload (an int)
+ * and the payload. A block with zero original bytes ends the stream. A
+ * payload holds the row of the transform that the end of the block is in
+ * (an int), the code lengths in <code>CanonicalCode</code> form and the
+ * codes.
+ */
+public class BwtHuffCodec implements IHuffCodec {
+
+    /**
+     * The number of original bytes in each block unless another size is given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    // The values coded after move-to-front
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+    private static final int END_OF_BLOCK = ALPH_SIZE + 1;
+    private static final int NUM_VALUES = ALPH_SIZE + 2;
+
+    private static final int MAX_CODE_LENGTH = 15;
+
+    private final int blockSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a codec with the default block size.
+     */
+    public BwtHuffCodec() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a codec that splits its input into blocks of blockSize bytes.
+     * @param blockSize the number of original bytes in each block, at least 1
+     */
+    public BwtHuffCodec(int blockSize) {
+        this(blockSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a codec that splits its input into blocks of blockSize bytes
+     * and codes them on the given pool.
+     * @param blockSize the number of original bytes in each block, at least 1
+     * @param pool the pool the blocks are coded and decoded on
+     */
+    public BwtHuffCodec(int blockSize, ForkJoinPool pool) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be at least 1");
+        }
+        this.blockSize = blockSize;
+        this.pool = pool;
+    }
+
+    public int getHeaderFormat() {
+        return STORE_BWT;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        out.writeBits(BITS_PER_INT, blockSize);
+        int bitsWritten = BITS_PER_INT;
+        int groupSize = pool.getParallelism();
+        boolean more = true;
+        while (more) {
+            // Read a block for every thread, then code them all at once
+            List<byte[]> blocks = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            while (more && blocks.size() < groupSize) {
+                byte[] block = new byte[blockSize];
+                int length = BlockHuffCodec.readBlock(in, block);
+                if (length > 0) {
+                    blocks.add(block);
+                    lengths.add(length);
+                }
+                more = length == blockSize;
+            }
+            List<Callable<byte[]>> coders = new ArrayList<>();
+            for (int k = 0; k < blocks.size(); k++) {
+                byte[] block = blocks.get(k);
+                int length = lengths.get(k);
+                coders.add(() -> encodeBlock(block, 0, length));
+            }
+            List<byte[]> payloads = BlockHuffCodec.runAll(pool, coders, "sorting blocks");
+            for (int k = 0; k < payloads.size(); k++) {
+                bitsWritten += BlockHuffCodec.writeBlock(out, lengths.get(k), payloads.get(k));
+            }
+        }
+        // An empty block marks the end
+        out.writeBits(BITS_PER_INT, 0);
+        return bitsWritten + BITS_PER_INT;
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        int storedBlockSize = BlockHuffCodec.readBlockSize(in);
+        int groupSize = pool.getParallelism();
+        int bitsWritten = 0;
+        boolean more = true;
+        while (more) {
+            // Read the payloads of a block for every thread, then decode
+            // them all at once
+            List<byte[]> payloads = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            while (more && payloads.size() < groupSize) {
+                int length = BlockHuffCodec.readInt(in);
+                if (length == 0) {
+                    more = false;
+                } else {
+                    payloads.add(BlockHuffCodec.readPayload(in, length, storedBlockSize));
+                    lengths.add(length);
+                }
+            }
+            List<Callable<byte[]>> decoders = new ArrayList<>();
+            for (int k = 0; k < payloads.size(); k++) {
+                byte[] payload = payloads.get(k);
+                int length = lengths.get(k);
+                decoders.add(() -> {
+                    byte[] block = new byte[length];
+                    decodeBlock(payload, block, 0, length);
+                    return block;
+                });
+            }
+            for (byte[] block : BlockHuffCodec.runAll(pool, decoders, "decoding blocks")) {
+                out.write(block);
+                bitsWritten += block.length * BITS_PER_WORD;
+            }
+        }
+        return bitsWritten;
+    }
+
+    /**
+     * Code one block. The result depends only on the bytes of the block.
+     * @param data the array holding the block
+     * @param offset the index of the first byte of the block
+     * @param length the number of bytes in the block, at least 1
+     * @return the payload of the block
+     */
+    public static byte[] encodeBlock(byte[] data, int offset, int length) {
+        int[] suffixes = suffixArray(data, offset, length);
+        // Move-to-front over the last column of the sorted rotations,
+        // skipping the row of the sentinel
+        int[] values = new int[length + 1];
+        int numValues = 0;
+        int[] freqs = new int[NUM_VALUES];
+        byte[] order = new byte[ALPH_SIZE];
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            order[k] = (byte) k;
+        }
+        int primary = 0;
+        int zeros = 0;
+        for (int row = 0; row <= length; row++) {
+            int start = suffixes[row];
+            if (start == 0) {
+                primary = row;
+                continue;
+            }
+            byte b = data[offset + start - 1];
+            if (order[0] == b) {
+                zeros++;
+                continue;
+            }
+            numValues = writeZeros(zeros, values, numValues, freqs);
+            zeros = 0;
+            int index = 1;
+            byte moved = order[0];
+            while (order[index] != b) {
+                byte next = order[index];
+                order[index] = moved;
+                moved = next;
+                index++;
+            }
+            order[index] = moved;
+            order[0] = b;
+            values[numValues++] = index + 1;
+            freqs[index + 1]++;
+        }
+        numValues = writeZeros(zeros, values, numValues, freqs);
+        values[numValues++] = END_OF_BLOCK;
+        freqs[END_OF_BLOCK]++;
+
+        int[] lengths = CanonicalCode.limitedLengths(freqs, MAX_CODE_LENGTH);
+        int[] codes = CanonicalCode.assignCodes(lengths);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 64);
+        BitOutputStream payload = new BitOutputStream(bytes);
+        payload.writeBits(BITS_PER_INT, primary);
+        CanonicalCode.writeLengths(payload, lengths);
+        for (int k = 0; k < numValues; k++) {
+            payload.writeBits(lengths[values[k]], codes[values[k]]);
+        }
+        payload.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode the payload of one block.
+     * @param payload the payload made by <code>encodeBlock</code>
+     * @param dest the array the original bytes are stored in
+     * @param offset the index in dest of the first byte of the block
+     * @param length the number of original bytes in the block
+     * @throws IOException if the payload is not valid
+     */
+    public static void decodeBlock(byte[] payload, byte[] dest, int offset, int length) throws IOException {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(payload));
+        int primary = BlockHuffCodec.readInt(in);
+        if (primary < 1 || primary > length) {
+            throw new IOException("invalid transform row " + primary);
+        }
+        int[] lengths = CanonicalCode.readLengths(in, NUM_VALUES);
+        HuffDecodeTable table = new HuffDecodeTable(CanonicalCode.assignCodes(lengths), lengths);
+
+        // Undo the zero runs and move-to-front, leaving room for the
+        // sentinel in the last column
+        byte[] last = new byte[length + 1];
+        byte[] order = new byte[ALPH_SIZE];
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            order[k] = (byte) k;
+        }
+        int row = 0;
+        int zeros = 0;
+        int zeroBit = 1;
+        int value = table.decodeValue(in);
+        while (value != END_OF_BLOCK) {
+            if (value == RUNA || value == RUNB) {
+                if (zeroBit > length) {
+                    throw new IOException("run of zeros does not fit the block");
+                }
+                zeros += value == RUNA ? zeroBit : zeroBit << 1;
+                zeroBit <<= 1;
+            } else {
+                row = fill(last, row, order[0], zeros, primary);
+                zeros = 0;
+                zeroBit = 1;
+                int index = value - 1;
+                byte b = order[index];
+                System.arraycopy(order, 0, order, 1, index);
+                order[0] = b;
+                row = fill(last, row, b, 1, primary);
+            }
+            value = table.decodeValue(in);
+        }
+        row = fill(last, row, order[0], zeros, primary);
+        if (row != length + 1 && !(row == length && primary == length)) {
+            throw new IOException("block decoded to the wrong length");
+        }
+
+        // Follow the last column back to the first to undo the transform
+        int[] starts = new int[ALPH_SIZE];
+        for (int r = 0; r <= length; r++) {
+            if (r != primary) {
+                starts[last[r] & 0xff]++;
+            }
+        }
+        int total = 1;
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            int count = starts[k];
+            starts[k] = total;
+            total += count;
+        }
+        int[] previous = new int[length + 1];
+        for (int r = 0; r <= length; r++) {
+            if (r != primary) {
+                previous[r] = starts[last[r] & 0xff]++;
+            }
+        }
+        int r = 0;
+        for (int k = length - 1; k >= 0; k--) {
+            if (r == primary) {
+                throw new IOException("invalid transform row " + primary);
+            }
+            dest[offset + k] = last[r];
+            r = previous[r];
+        }
+    }
+
+    /**
+     * Return the suffix array of part of an array with a sentinel after
+     * its end that is smaller than any byte. The suffix starting at the
+     * sentinel, index length, is always first.
+     * @param data the array holding the bytes
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     * @return the starting indexes, from 0 to length, of the suffixes in
+     * sorted order
+     */
+    public static int[] suffixArray(byte[] data, int offset, int length) {
+        // Rotations of the bytes and the sentinel are sorted by doubling
+        // the length of the prefix they are sorted by. As the sentinel is
+        // unique, rotations sort the same as suffixes.
+        int size = length + 1;
+        int[] sorted = new int[size];
+        int[] rank = new int[size];
+        int[] shifted = new int[size];
+        int[] newRank = new int[size];
+        int[] counts = new int[Math.max(ALPH_SIZE + 1, size)];
+        for (int k = 0; k < length; k++) {
+            rank[k] = (data[offset + k] & 0xff) + 1;
+            counts[rank[k]]++;
+        }
+        counts[0]++;
+        for (int k = 1; k <= ALPH_SIZE; k++) {
+            counts[k] += counts[k - 1];
+        }
+        for (int k = size - 1; k >= 0; k--) {
+            sorted[--counts[rank[k]]] = k;
+        }
+        int numRanks = renumber(sorted, rank, newRank, 0);
+        int[] swap = rank;
+        rank = newRank;
+        newRank = swap;
+        for (int half = 1; numRanks < size; half <<= 1) {
+            // The rotations sorted by their second half, then sorted stably
+            // by their first half
+            for (int k = 0; k < size; k++) {
+                int start = sorted[k] - half;
+                shifted[k] = start < 0 ? start + size : start;
+            }
+            Arrays.fill(counts, 0, numRanks, 0);
+            for (int k = 0; k < size; k++) {
+                counts[rank[shifted[k]]]++;
+            }
+            for (int k = 1; k < numRanks; k++) {
+                counts[k] += counts[k - 1];
+            }
+            for (int k = size - 1; k >= 0; k--) {
+                sorted[--counts[rank[shifted[k]]]] = shifted[k];
+            }
+            numRanks = renumber(sorted, rank, newRank, half);
+            swap = rank;
+            rank = newRank;
+            newRank = swap;
+        }
+        return sorted;
+    }
+
+    /*
+     * Rank the sorted rotations by their first 2 * half values, given their
+     * ranks by the first half values, or by the first value when half is
+     * 0. Returns the number of different ranks.
+     */
+    private static int renumber(int[] sorted, int[] rank, int[] newRank, int half) {
+        int size = sorted.length;
+        int numRanks = 1;
+        newRank[sorted[0]] = 0;
+        for (int k = 1; k < size; k++) {
+            int cur = sorted[k];
+            int prev = sorted[k - 1];
+            boolean same = rank[cur] == rank[prev];
+            if (same && half > 0) {
+                int curNext = cur + half < size ? cur + half : cur + half - size;
+                int prevNext = prev + half < size ? prev + half : prev + half - size;
+                same = rank[curNext] == rank[prevNext];
+            }
+            if (!same) {
+                numRanks++;
+            }
+            newRank[cur] = numRanks - 1;
+        }
+        return numRanks;
+    }
+
+    // Add a run of zeros as RUNA and RUNB values, return the new count.
+    private static int writeZeros(int zeros, int[] values, int numValues, int[] freqs) {
+        while (zeros > 0) {
+            int value = (zeros & 1) == 1 ? RUNA : RUNB;
+            values[numValues++] = value;
+            freqs[value]++;
+            zeros = (zeros - 1) >> 1;
+        }
+        return numValues;
+    }
+
+    // Store count copies of b in last from row on, skipping the row of the
+    // sentinel. Returns the next row.
+    private static int fill(byte[] last, int row, byte b, int count, int primary) throws IOException {
+        for (int k = 0; k < count; k++) {
+            if (row == primary) {
+                row++;
+            }
+            if (row >= last.length) {
+                throw new IOException("block decoded to the wrong length");
+            }
+            last[row++] = b;
+        }
+        return row;
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the bytes of a ByteBuffer from its position to its limit, moving
+ * its position as bytes are read. Heap and direct buffers are both read in
+ * place, without copying the buffer first.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer myBuffer;
+
+    /**
+     * Create a stream that reads buffer.
+     * @param buffer the buffer to read, read from its position to its limit
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        myBuffer = buffer;
+    }
+
+    public int read() {
+        if (!myBuffer.hasRemaining()) {
+            return -1;
+        }
+        return myBuffer.get() & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!myBuffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, myBuffer.remaining());
+        myBuffer.get(b, off, count);
+        return count;
+    }
+
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, myBuffer.remaining()));
+        myBuffer.position(myBuffer.position() + count);
+        return count;
+    }
+
+    public int available() {
+        return myBuffer.remaining();
+    }
+}
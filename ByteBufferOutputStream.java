@@ -0,0 +1,41 @@
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes bytes into a ByteBuffer starting at its position, moving its
+ * position as bytes are written. Heap and direct buffers are both written
+ * in place.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+
+    private final ByteBuffer myBuffer;
+
+    /**
+     * Create a stream that writes into buffer.
+     * @param buffer the buffer to write, written from its position up to its limit
+     */
+    public ByteBufferOutputStream(ByteBuffer buffer) {
+        myBuffer = buffer;
+    }
+
+    /**
+     * Write the low 8 bits of b.
+     * @param b holds the byte to write
+     * @throws BufferOverflowException if the buffer is full
+     */
+    public void write(int b) {
+        myBuffer.put((byte) b);
+    }
+
+    /**
+     * Write len bytes from b.
+     * @param b holds the bytes to write
+     * @param off the index of the first byte to write
+     * @param len the number of bytes to write
+     * @throws BufferOverflowException if the bytes don't fit before the limit
+     */
+    public void write(byte[] b, int off, int len) {
+        myBuffer.put(b, off, len);
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Helpers for canonical Huffman codes. A canonical code is completely
+ * determined by the length of the code for every value: shorter codes come
+ * first and codes of the same length are assigned in order of value. Only
+ * the code lengths need to be stored in a header and decoders can rebuild
+ * the codes without building a tree.
+ * <P>
+ * Lengths are stored in one of two forms, whichever is smaller. The dense
+ * form stores the length of every value in the alphabet. The sparse form
+ * stores the number of values that have a code and then, for each of them,
+ * the distance from the previous value as an Elias gamma code followed by
+ * its length. Files with few distinct values, like short text files, use
+ * the sparse form.
+ */
+public class CanonicalCode {
+
+    /**
+     * The longest code supported. Codes are kept in an int and written with
+     * a single call to <code>BitOutputStream.writeBits</code>.
+     */
+    public static final int MAX_CODE_LENGTH = 32;
+
+    // Number of bits used to store the width of each length field.
+    private static final int WIDTH_FIELD_BITS = 3;
+
+    // All methods are static.
+    private CanonicalCode() {
+    }
+
+    /**
+     * Find the length of the code for every value in a Huffman tree.
+     * If the tree is a single leaf its value is given a one bit code
+     * so every value present has a non zero length.
+     *
+     * @param root         the root of the Huffman tree
+     * @param alphabetSize one more than the largest value in the tree
+     * @return the code lengths indexed by value, 0 for values not in the tree
+     */
+    public static int[] codeLengths(TreeNode root, int alphabetSize) {
+        int[] lengths = new int[alphabetSize];
+        if (root.isLeaf()) {
+            lengths[root.getValue()] = 1;
+        } else {
+            fillLengths(root, 0, lengths);
+        }
+        return lengths;
+    }
+
+    // A recursive helper that stores the depth of every leaf below curNode.
+    private static void fillLengths(TreeNode curNode, int depth, int[] lengths) {
+        if (curNode.isLeaf()) {
+            lengths[curNode.getValue()] = depth;
+        } else {
+            fillLengths(curNode.getLeft(), depth + 1, lengths);
+            fillLengths(curNode.getRight(), depth + 1, lengths);
+        }
+    }
+
+    /**
+     * Find optimal code lengths for the given frequencies where no code is
+     * longer than maxLength bits, using the package-merge algorithm. Without
+     * the limit the lengths are the same as those of a Huffman tree.
+     * <P>
+     * Each level of package-merge holds every value as an item weighted by its
+     * frequency merged with packages formed by pairing the items of the level
+     * below. Taking the 2n - 2 lightest items of the top level and following
+     * the packages down, the length of a value's code is the number of levels
+     * it is taken at.
+     *
+     * @param freqs     the frequency of every value, 0 if the value is unused
+     * @param maxLength the longest code allowed
+     * @return the length of the code for every value, 0 for unused values
+     * @throws IllegalArgumentException if the values cannot all be given codes
+     *         of at most maxLength bits
+     */
+    public static int[] limitedLengths(int[] freqs, int maxLength) {
+        int[] lengths = new int[freqs.length];
+        // The used values sorted by frequency, ties in order of value
+        int n = 0;
+        for (int freq : freqs) {
+            if (freq > 0) {
+                n++;
+            }
+        }
+        Integer[] order = new Integer[n];
+        n = 0;
+        for (int value = 0; value < freqs.length; value++) {
+            if (freqs[value] > 0) {
+                order[n++] = value;
+            }
+        }
+        Arrays.sort(order, (a, b) -> freqs[a] != freqs[b] ? Integer.compare(freqs[a], freqs[b]) : a - b);
+        if (n == 1) {
+            lengths[order[0]] = 1;
+        }
+        if (n <= 1) {
+            return lengths;
+        }
+        if (maxLength < bitsNeeded(n - 1) || maxLength > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("cannot give " + n + " values codes of at most "
+                    + maxLength + " bits");
+        }
+        // items[level][k] is the value of a leaf item or -1 for a package
+        int[][] items = new int[maxLength][];
+        long[] weights = new long[n];
+        for (int k = 0; k < n; k++) {
+            weights[k] = freqs[order[k]];
+        }
+        items[0] = new int[n];
+        for (int k = 0; k < n; k++) {
+            items[0][k] = order[k];
+        }
+        long[] levelWeights = weights;
+        for (int level = 1; level < maxLength; level++) {
+            int numPackages = levelWeights.length / 2;
+            int size = n + numPackages;
+            int[] levelItems = new int[size];
+            long[] merged = new long[size];
+            int leaf = 0;
+            int pack = 0;
+            for (int k = 0; k < size; k++) {
+                long packWeight = pack < numPackages
+                        ? levelWeights[2 * pack] + levelWeights[2 * pack + 1] : Long.MAX_VALUE;
+                if (leaf < n && weights[leaf] <= packWeight) {
+                    levelItems[k] = order[leaf];
+                    merged[k] = weights[leaf++];
+                } else {
+                    levelItems[k] = -1;
+                    merged[k] = packWeight;
+                    pack++;
+                }
+            }
+            items[level] = levelItems;
+            levelWeights = merged;
+        }
+        // Follow the chosen items down through the levels
+        int take = 2 * n - 2;
+        for (int level = maxLength - 1; level >= 0; level--) {
+            int numPackages = 0;
+            for (int k = 0; k < take; k++) {
+                if (items[level][k] == -1) {
+                    numPackages++;
+                } else {
+                    lengths[items[level][k]]++;
+                }
+            }
+            take = 2 * numPackages;
+        }
+        return lengths;
+    }
+
+    /**
+     * Build the Huffman tree for a prefix code. Used to store a code whose
+     * lengths were not found by building a tree in tree format.
+     * <br>
+     * pre: the code is complete, every string of bits starts with some code,
+     * and there are at least two codes
+     *
+     * @param codes   the code of every value, indexed by value
+     * @param lengths the number of bits in the code of every value, 0 if unused
+     * @return the root of the tree, frequencies in the tree are all 0
+     */
+    public static TreeNode buildTree(int[] codes, int[] lengths) {
+        int maxLength = maxLength(lengths);
+        int n = 0;
+        for (int length : lengths) {
+            if (length != 0) {
+                n++;
+            }
+        }
+        // Sort the used values by their codes padded to the same length
+        Integer[] order = new Integer[n];
+        long[] padded = new long[lengths.length];
+        n = 0;
+        for (int value = 0; value < lengths.length; value++) {
+            if (lengths[value] != 0) {
+                order[n++] = value;
+                padded[value] = (codes[value] & ((1L << lengths[value]) - 1)) << (maxLength - lengths[value]);
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(padded[a], padded[b]));
+        return buildSubtree(order, 0, n, 0, padded, lengths, maxLength);
+    }
+
+    /*
+     * A recursive helper that builds the subtree for the values in
+     * order[lo] to order[hi - 1], whose codes share their first depth bits.
+     */
+    private static TreeNode buildSubtree(Integer[] order, int lo, int hi, int depth,
+            long[] padded, int[] lengths, int maxLength) {
+        if (hi - lo == 1 && lengths[order[lo]] == depth) {
+            return new TreeNode(order[lo], 0);
+        }
+        // The codes that continue with a 1 follow those that continue with a 0
+        int mid = lo;
+        while (mid < hi && ((padded[order[mid]] >>> (maxLength - depth - 1)) & 1) == 0) {
+            mid++;
+        }
+        TreeNode left = buildSubtree(order, lo, mid, depth + 1, padded, lengths, maxLength);
+        TreeNode right = buildSubtree(order, mid, hi, depth + 1, padded, lengths, maxLength);
+        return new TreeNode(left, 0, right);
+    }
+
+    /**
+     * Assign canonical codes to values given the length of their codes.
+     *
+     * @param lengths the length of the code for every value, 0 if unused
+     * @return the codes indexed by value, only the rightmost
+     *         <code>lengths[value]</code> bits of each code are used
+     */
+    public static int[] assignCodes(int[] lengths) {
+        int maxLength = maxLength(lengths);
+        // Count the codes of every length
+        int[] lengthCounts = new int[maxLength + 1];
+        for (int length : lengths) {
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+        // Find the first code of every length
+        int[] nextCode = new int[maxLength + 1];
+        int code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+        }
+        // Hand out codes of the same length in order of value
+        int[] codes = new int[lengths.length];
+        for (int value = 0; value < lengths.length; value++) {
+            if (lengths[value] != 0) {
+                codes[value] = nextCode[lengths[value]]++;
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Return the number of bits <code>writeLengths</code> uses to store lengths.
+     *
+     * @param lengths the length of the code for every value, 0 if unused
+     * @return the number of bits in the stored form of lengths
+     */
+    public static int headerBits(int[] lengths) {
+        int width = bitsNeeded(maxLength(lengths));
+        return WIDTH_FIELD_BITS + 1 + Math.min(denseBits(lengths, width), sparseBits(lengths, width));
+    }
+
+    /**
+     * Write the code lengths in the smaller of the dense and sparse forms.
+     *
+     * @param out     the stream the lengths are written to
+     * @param lengths the length of the code for every value, 0 if unused
+     * @return the number of bits written
+     */
+    public static int writeLengths(BitOutputStream out, int[] lengths) {
+        int width = bitsNeeded(maxLength(lengths));
+        out.writeBits(WIDTH_FIELD_BITS, width - 1);
+        if (denseBits(lengths, width) <= sparseBits(lengths, width)) {
+            out.writeBits(1, 0);
+            for (int length : lengths) {
+                out.writeBits(width, length);
+            }
+        } else {
+            out.writeBits(1, 1);
+            out.writeBits(bitsNeeded(lengths.length), countUsed(lengths));
+            int previous = -1;
+            for (int value = 0; value < lengths.length; value++) {
+                if (lengths[value] != 0) {
+                    writeGamma(out, value - previous);
+                    out.writeBits(width, lengths[value]);
+                    previous = value;
+                }
+            }
+        }
+        return headerBits(lengths);
+    }
+
+    /**
+     * Read code lengths stored by <code>writeLengths</code>.
+     *
+     * @param in           the stream the lengths are read from
+     * @param alphabetSize the number of values in the alphabet
+     * @return the length of the code for every value, 0 if unused
+     * @throws IOException if the stream ends or the lengths are not valid
+     */
+    public static int[] readLengths(BitInputStream in, int alphabetSize) throws IOException {
+        int width = readField(in, WIDTH_FIELD_BITS) + 1;
+        int[] lengths = new int[alphabetSize];
+        if (readField(in, 1) == 0) {
+            for (int value = 0; value < alphabetSize; value++) {
+                lengths[value] = readField(in, width);
+            }
+        } else {
+            int numUsed = readField(in, bitsNeeded(alphabetSize));
+            int value = -1;
+            for (int k = 0; k < numUsed; k++) {
+                value += readGamma(in);
+                if (value >= alphabetSize) {
+                    throw new IOException("code length header names a value outside the alphabet");
+                }
+                lengths[value] = readField(in, width);
+            }
+        }
+        if (maxLength(lengths) > MAX_CODE_LENGTH) {
+            throw new IOException("code length header has a code longer than " + MAX_CODE_LENGTH + " bits");
+        }
+        // More codes than the lengths allow means the header is corrupt
+        long kraftSum = 0;
+        for (int length : lengths) {
+            if (length != 0) {
+                kraftSum += 1L << (MAX_CODE_LENGTH - length);
+            }
+        }
+        if (kraftSum > 1L << MAX_CODE_LENGTH) {
+            throw new IOException("code length header does not describe a prefix code");
+        }
+        return lengths;
+    }
+
+    /**
+     * Return the length of the longest code.
+     *
+     * @param lengths the length of the code for every value, 0 if unused
+     * @return the largest value in lengths
+     */
+    public static int maxLength(int[] lengths) {
+        int max = 0;
+        for (int length : lengths) {
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+    /**
+     * Return the number of bits needed to store values from 0 to n.
+     *
+     * @param n the largest value to be stored, n >= 0
+     * @return the number of bits needed, at least 1
+     */
+    public static int bitsNeeded(int n) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(n));
+    }
+
+    // Bits used by the dense form, not counting the width and form fields.
+    private static int denseBits(int[] lengths, int width) {
+        return lengths.length * width;
+    }
+
+    // Bits used by the sparse form, not counting the width and form fields.
+    private static int sparseBits(int[] lengths, int width) {
+        int bits = bitsNeeded(lengths.length);
+        int previous = -1;
+        for (int value = 0; value < lengths.length; value++) {
+            if (lengths[value] != 0) {
+                bits += gammaBits(value - previous) + width;
+                previous = value;
+            }
+        }
+        return bits;
+    }
+
+    private static int countUsed(int[] lengths) {
+        int count = 0;
+        for (int length : lengths) {
+            if (length != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Number of bits in the Elias gamma code for n >= 1.
+    private static int gammaBits(int n) {
+        return 2 * bitsNeeded(n) - 1;
+    }
+
+    // Write n >= 1 as an Elias gamma code, leading zeros then the bits of n.
+    private static void writeGamma(BitOutputStream out, int n) {
+        int numBits = bitsNeeded(n);
+        out.writeBits(numBits - 1, 0);
+        out.writeBits(numBits, n);
+    }
+
+    private static int readGamma(BitInputStream in) throws IOException {
+        int zeros = 0;
+        while (readField(in, 1) == 0) {
+            zeros++;
+            if (zeros >= Integer.SIZE - 1) {
+                throw new IOException("gamma code in code length header is too long");
+            }
+        }
+        return (1 << zeros) | (zeros == 0 ? 0 : readField(in, zeros));
+    }
+
+    private static int readField(BitInputStream in, int numBits) throws IOException {
+        int value = in.readBits(numBits);
+        if (value == -1) {
+            throw new IOException("unexpected end of code length header");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Counts how many times every byte value appears in some data. Bytes are
+ * counted into several tables in turn, so consecutive equal bytes increment
+ * different counters instead of waiting on each other's stores, and the
+ * tables are added together at the end.
+ * <P>
+ * Files are counted by mapping them into memory a chunk at a time, with the
+ * chunks counted in parallel on a ForkJoinPool. Other streams are read a
+ * buffer at a time.
+ */
+public class FrequencyCounter implements IHuffConstants {
+
+    // Files smaller than this are read instead of mapped
+    private static final long MAP_THRESHOLD = 1 << 20;
+
+    // Number of bytes of a file mapped and counted by one task
+    private static final int MAP_CHUNK_SIZE = 1 << 23;
+
+    // Number of bytes counted from a buffer at a time
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // All methods are static.
+    private FrequencyCounter() {
+    }
+
+    /**
+     * Add the number of times every value appears in part of an array to counts.
+     * @param data the array holding the bytes to count
+     * @param offset the index of the first byte to count
+     * @param length the number of bytes to count
+     * @param counts the counts to add to, indexed by value, at least ALPH_SIZE long
+     */
+    public static void count(byte[] data, int offset, int length, int[] counts) {
+        int[] counts0 = new int[ALPH_SIZE];
+        int[] counts1 = new int[ALPH_SIZE];
+        int[] counts2 = new int[ALPH_SIZE];
+        int[] counts3 = new int[ALPH_SIZE];
+        int end = offset + length;
+        int k = offset;
+        for (; k + 3 < end; k += 4) {
+            counts0[data[k] & 0xff]++;
+            counts1[data[k + 1] & 0xff]++;
+            counts2[data[k + 2] & 0xff]++;
+            counts3[data[k + 3] & 0xff]++;
+        }
+        for (; k < end; k++) {
+            counts0[data[k] & 0xff]++;
+        }
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            counts[value] += counts0[value] + counts1[value] + counts2[value] + counts3[value];
+        }
+    }
+
+    /**
+     * Count the rest of a stream. A MappedFileInputStream or FileInputStream
+     * is counted from its file by <code>count(FileChannel, long, long)</code>
+     * and left at the end of the file.
+     * The stream is not closed.
+     * @param in the stream to count
+     * @return the number of times every value appears, indexed by value
+     * @throws IOException if an error occurs reading in or a count does
+     * not fit in an int
+     */
+    public static int[] count(InputStream in) throws IOException {
+        return count(in, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Count the rest of a stream as <code>count(InputStream)</code> does,
+     * counting the chunks of a file on the given pool.
+     * @param in the stream to count
+     * @param pool the pool the chunks of a file are counted on
+     * @return the number of times every value appears, indexed by value
+     * @throws IOException if an error occurs reading in or a count does
+     * not fit in an int
+     */
+    public static int[] count(InputStream in, ForkJoinPool pool) throws IOException {
+        if (in instanceof MappedFileInputStream) {
+            MappedFileInputStream mapped = (MappedFileInputStream) in;
+            long position = mapped.getPosition();
+            long size = mapped.length() - position;
+            if (size >= MAP_THRESHOLD) {
+                long[] counts = count(mapped.getChannel(), position, size, pool);
+                mapped.skip(size);
+                return toInts(counts);
+            }
+        }
+        if (in instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) in).getChannel();
+            long position = channel.position();
+            long size = channel.size() - position;
+            if (size >= MAP_THRESHOLD) {
+                long[] counts = count(channel, position, size, pool);
+                channel.position(position + size);
+                return toInts(counts);
+            }
+        }
+        int[] counts = new int[ALPH_SIZE];
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int numRead = in.read(buffer);
+        while (numRead != -1) {
+            count(buffer, 0, numRead, counts);
+            total += numRead;
+            if (total > Integer.MAX_VALUE) {
+                throw new IOException("More than " + Integer.MAX_VALUE + " bytes to count");
+            }
+            numRead = in.read(buffer);
+        }
+        return counts;
+    }
+
+    /**
+     * Count part of a file on the common ForkJoinPool. The part is mapped
+     * into memory and its chunks are counted in parallel.
+     * @param channel the file to count
+     * @param position the index in the file of the first byte to count
+     * @param size the number of bytes to count
+     * @return the number of times every value appears, indexed by value
+     * @throws IOException if an error occurs mapping or reading the file
+     */
+    public static long[] count(FileChannel channel, long position, long size) throws IOException {
+        return count(channel, position, size, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Count part of a file on the given pool. The part is mapped into memory
+     * and its chunks are counted in parallel.
+     * @param channel the file to count
+     * @param position the index in the file of the first byte to count
+     * @param size the number of bytes to count
+     * @param pool the pool the chunks are counted on
+     * @return the number of times every value appears, indexed by value
+     * @throws IOException if an error occurs mapping or reading the file
+     */
+    public static long[] count(FileChannel channel, long position, long size, ForkJoinPool pool)
+            throws IOException {
+        List<Callable<int[]>> counters = new ArrayList<>();
+        for (long start = 0; start < size; start += MAP_CHUNK_SIZE) {
+            long chunkPosition = position + start;
+            int chunkSize = (int) Math.min(MAP_CHUNK_SIZE, size - start);
+            counters.add(() -> countMapped(channel, chunkPosition, chunkSize));
+        }
+        long[] totals = new long[ALPH_SIZE];
+        for (int[] counts : BlockHuffCodec.runAll(pool, counters, "counting")) {
+            for (int value = 0; value < ALPH_SIZE; value++) {
+                totals[value] += counts[value];
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Return counts as ints.
+     * @param counts the counts to convert
+     * @return the same counts as ints
+     * @throws IOException if a count does not fit in an int
+     */
+    public static int[] toInts(long[] counts) throws IOException {
+        int[] result = new int[counts.length];
+        for (int k = 0; k < counts.length; k++) {
+            if (counts[k] > Integer.MAX_VALUE) {
+                throw new IOException("Value " + k + " appears more than " + Integer.MAX_VALUE + " times");
+            }
+            result[k] = (int) counts[k];
+        }
+        return result;
+    }
+
+    // Map one chunk of a file and count it a buffer at a time.
+    private static int[] countMapped(FileChannel channel, long position, int size) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        int[] counts = new int[ALPH_SIZE];
+        byte[] buffer = new byte[Math.min(BUFFER_SIZE, size)];
+        while (mapped.hasRemaining()) {
+            int length = Math.min(buffer.length, mapped.remaining());
+            mapped.get(buffer, 0, length);
+            count(buffer, 0, length, counts);
+        }
+        return counts;
+    }
+}
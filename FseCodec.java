@@ -0,0 +1,334 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codes a stream in blocks with table-based asymmetric numeral systems
+ * (tANS, as in Finite State Entropy) instead of Huffman codes. A Huffman
+ * code spends a whole number of bits on every value, at least one, so a
+ * value that makes up 90% of a file still costs a bit where its entropy
+ * is 0.15 bits. tANS keeps a state between values and spends fractions of
+ * a bit, getting within a fraction of a percent of the entropy.
+ * <P>
+ * Each block's counts are scaled to add up to a power of two, the table
+ * size. The states of the coder are the table slots, and each value owns as
+ * many slots as its scaled count. Decoding a value is one table lookup
+ * that gives the value, the number of bits to read and the base of the
+ * next state, like a Huffman decoding table.
+ * <P>
+ * After the header format the block size is stored as an int. Then each
+ * block is stored as the number of original bytes in the block (an int),
+ * the number of bytes in its payload (an int) and the payload. A block with
+ * zero original bytes ends the stream. A payload starts with the log of
+ * the table size in 4 bits, the scaled count plus one of each value as an
+ * Elias gamma code and the first state of the decoder in table log bits,
+ * padded to a byte boundary. The bits read by the decoder follow.
+ */
+public class FseCodec implements IHuffCodec {
+
+    /**
+     * The number of original bytes in each block unless another size is given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    // The log of the largest and smallest tables, big tables come closer
+    // to the entropy and small ones are quicker to build for small blocks
+    private static final int MAX_TABLE_LOG = 11;
+    private static final int MIN_TABLE_LOG = 5;
+    private static final int TABLE_LOG_BITS = 4;
+
+    // Decoding table entries hold the value, the bits to read and the base
+    // of the next state
+    private static final int VALUE_MASK = 0xff;
+    private static final int NUM_BITS_SHIFT = 8;
+    private static final int NUM_BITS_MASK = 0xf;
+    private static final int BASE_SHIFT = 12;
+
+    // The bits a value sends are kept above their number in emitted
+    private static final int EMITTED_SHIFT = 4;
+
+    // A window is refilled a byte at a time while it holds no more than this
+    private static final int REFILL_BITS = 64 - BITS_PER_WORD;
+
+    private final int blockSize;
+
+    /**
+     * Create a codec with the default block size.
+     */
+    public FseCodec() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a codec that splits its input into blocks of blockSize bytes.
+     * @param blockSize the number of original bytes in each block, at least 1
+     */
+    public FseCodec(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be at least 1");
+        }
+        this.blockSize = blockSize;
+    }
+
+    public int getHeaderFormat() {
+        return STORE_FSE;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        out.writeBits(BITS_PER_INT, blockSize);
+        int bitsWritten = BITS_PER_INT;
+        byte[] block = new byte[blockSize];
+        int[] emitted = new int[blockSize];
+        int length = BlockHuffCodec.readBlock(in, block);
+        while (length > 0) {
+            bitsWritten += BlockHuffCodec.writeBlock(out, length, encodeBlock(block, length, emitted));
+            length = BlockHuffCodec.readBlock(in, block);
+        }
+        // An empty block marks the end
+        out.writeBits(BITS_PER_INT, 0);
+        return bitsWritten + BITS_PER_INT;
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        int storedBlockSize = BlockHuffCodec.readBlockSize(in);
+        byte[] block = new byte[storedBlockSize];
+        int bitsWritten = 0;
+        int length = BlockHuffCodec.readInt(in);
+        while (length != 0) {
+            decodeBlock(BlockHuffCodec.readPayload(in, length, storedBlockSize), block, length);
+            out.write(block, 0, length);
+            bitsWritten += length * BITS_PER_WORD;
+            length = BlockHuffCodec.readInt(in);
+        }
+        return bitsWritten;
+    }
+
+    /*
+     * Scale counts that add up to total so they add up to 1 << tableLog,
+     * keeping every value that appears at 1 or more. The table must have
+     * room for every value that appears.
+     */
+    private static int[] normalize(int[] counts, long total, int tableLog) {
+        int tableSize = 1 << tableLog;
+        int[] norm = new int[counts.length];
+        int sum = 0;
+        int largest = 0;
+        for (int value = 0; value < counts.length; value++) {
+            if (counts[value] > 0) {
+                norm[value] = (int) Math.max(1, Math.round((double) counts[value] * tableSize / total));
+                sum += norm[value];
+                if (counts[value] > counts[largest]) {
+                    largest = value;
+                }
+            }
+        }
+        if (sum < tableSize) {
+            norm[largest] += tableSize - sum;
+        }
+        while (sum > tableSize) {
+            // Take slots from the values that lose least by giving one up
+            int best = -1;
+            double bestCost = Double.MAX_VALUE;
+            for (int value = 0; value < counts.length; value++) {
+                if (norm[value] > 1) {
+                    double cost = counts[value] * Math.log((double) norm[value] / (norm[value] - 1));
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        best = value;
+                    }
+                }
+            }
+            norm[best]--;
+            sum--;
+        }
+        return norm;
+    }
+
+    /*
+     * Return the log of the table size for a block, the largest table that
+     * is not much bigger than the block and has room for every value used.
+     */
+    private static int tableLog(int length, int numUsed) {
+        int log = Math.max(MIN_TABLE_LOG, Math.min(MAX_TABLE_LOG, CanonicalCode.bitsNeeded(length)));
+        while ((1 << log) < numUsed) {
+            log++;
+        }
+        return log;
+    }
+
+    /*
+     * Return the value in each slot of the table. The slots of a value are
+     * spread through the table, so the states a value leads to are spread
+     * over the whole range.
+     */
+    private static int[] spread(int[] norm, int tableLog) {
+        int tableSize = 1 << tableLog;
+        int mask = tableSize - 1;
+        int step = (tableSize >>> 1) + (tableSize >>> 3) + 3;
+        int[] slots = new int[tableSize];
+        int pos = 0;
+        for (int value = 0; value < norm.length; value++) {
+            for (int k = 0; k < norm[value]; k++) {
+                slots[pos] = value;
+                pos = (pos + step) & mask;
+            }
+        }
+        return slots;
+    }
+
+    /*
+     * Code one block and return its payload. emitted holds the bits every
+     * value sends, since they are made from the last value to the first.
+     */
+    private static byte[] encodeBlock(byte[] block, int length, int[] emitted) {
+        int[] counts = new int[ALPH_SIZE];
+        FrequencyCounter.count(block, 0, length, counts);
+        int numUsed = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                numUsed++;
+            }
+        }
+        int tableLog = tableLog(length, numUsed);
+        int tableSize = 1 << tableLog;
+        int[] norm = normalize(counts, length, tableLog);
+        int[] slots = spread(norm, tableLog);
+
+        // The next state of every value, in the order of the slots it owns
+        int[] cumulative = new int[ALPH_SIZE + 1];
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            cumulative[value + 1] = cumulative[value] + norm[value];
+        }
+        int[] nextStates = new int[tableSize];
+        int[] fill = cumulative.clone();
+        for (int slot = 0; slot < tableSize; slot++) {
+            nextStates[fill[slots[slot]]++] = tableSize + slot;
+        }
+        int[] highBits = new int[ALPH_SIZE];
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            if (norm[value] > 0) {
+                highBits[value] = tableLog - (31 - Integer.numberOfLeadingZeros(norm[value]));
+            }
+        }
+
+        // States are kept between tableSize and 2 * tableSize
+        int state = tableSize;
+        for (int k = length - 1; k >= 0; k--) {
+            int value = block[k] & 0xff;
+            int numBits = highBits[value];
+            if ((state >>> numBits) < norm[value]) {
+                numBits--;
+            }
+            emitted[k] = ((state & ((1 << numBits) - 1)) << EMITTED_SHIFT) | numBits;
+            state = nextStates[cumulative[value] + (state >>> numBits) - norm[value]];
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 512);
+        BitOutputStream payload = new BitOutputStream(bytes);
+        payload.writeBits(TABLE_LOG_BITS, tableLog);
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            writeGamma(payload, norm[value] + 1);
+        }
+        payload.writeBits(tableLog, state - tableSize);
+        // Pad so the decoder can find where the bits start
+        payload.flush();
+        for (int k = 0; k < length; k++) {
+            payload.writeBits(emitted[k] & ((1 << EMITTED_SHIFT) - 1), emitted[k] >>> EMITTED_SHIFT);
+        }
+        payload.flush();
+        return bytes.toByteArray();
+    }
+
+    /*
+     * Decode the payload of one block into the first length bytes of dest.
+     */
+    private static void decodeBlock(byte[] payload, byte[] dest, int length) throws IOException {
+        BitInputStream header = new BitInputStream(new ByteArrayInputStream(payload));
+        int tableLog = BlockHuffCodec.readBits(header, TABLE_LOG_BITS);
+        if (tableLog < MIN_TABLE_LOG || tableLog > MAX_TABLE_LOG) {
+            throw new IOException("invalid table log " + tableLog);
+        }
+        int tableSize = 1 << tableLog;
+        int headerBits = TABLE_LOG_BITS + tableLog;
+        int[] norm = new int[ALPH_SIZE];
+        int sum = 0;
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            int gamma = readGamma(header);
+            headerBits += 2 * CanonicalCode.bitsNeeded(gamma) - 1;
+            norm[value] = gamma - 1;
+            sum += norm[value];
+            if (sum > tableSize) {
+                throw new IOException("scaled counts don't fit the table");
+            }
+        }
+        if (sum != tableSize) {
+            throw new IOException("scaled counts don't fill the table");
+        }
+        int state = BlockHuffCodec.readBits(header, tableLog);
+        int[] table = buildDecodeTable(norm, tableLog);
+
+        int pos = (headerBits + BITS_PER_WORD - 1) / BITS_PER_WORD;
+        int start = pos;
+        int limit = payload.length;
+        long bits = 0;
+        int count = 0;
+        for (int k = 0; k < length; k++) {
+            if (count < MAX_TABLE_LOG + 1) {
+                while (count <= REFILL_BITS) {
+                    bits = (bits << BITS_PER_WORD) | (pos < limit ? payload[pos] & 0xff : 0);
+                    pos++;
+                    count += BITS_PER_WORD;
+                }
+            }
+            int entry = table[state];
+            int numBits = (entry >>> NUM_BITS_SHIFT) & NUM_BITS_MASK;
+            count -= numBits;
+            state = (entry >>> BASE_SHIFT) + (int) ((bits >>> count) & ((1L << numBits) - 1));
+            dest[k] = (byte) (entry & VALUE_MASK);
+        }
+        // The encoder started in the first state, a different one means the
+        // bits are damaged
+        long bitsUsed = (long) (pos - start) * BITS_PER_WORD - count;
+        if (state != 0 || bitsUsed > (long) (limit - start) * BITS_PER_WORD) {
+            throw new IOException("damaged tANS block");
+        }
+    }
+
+    /*
+     * Build the table that gives, for every state, the value decoded, the
+     * number of bits to read and the state those bits are added to.
+     */
+    private static int[] buildDecodeTable(int[] norm, int tableLog) {
+        int tableSize = 1 << tableLog;
+        int[] slots = spread(norm, tableLog);
+        int[] next = norm.clone();
+        int[] table = new int[tableSize];
+        for (int slot = 0; slot < tableSize; slot++) {
+            int value = slots[slot];
+            int subState = next[value]++;
+            int numBits = tableLog - (31 - Integer.numberOfLeadingZeros(subState));
+            int base = (subState << numBits) - tableSize;
+            table[slot] = (base << BASE_SHIFT) | (numBits << NUM_BITS_SHIFT) | value;
+        }
+        return table;
+    }
+
+    private static void writeGamma(BitOutputStream out, int n) {
+        int numBits = CanonicalCode.bitsNeeded(n);
+        out.writeBits(numBits - 1, 0);
+        out.writeBits(numBits, n);
+    }
+
+    private static int readGamma(BitInputStream in) throws IOException {
+        int zeros = 0;
+        while (BlockHuffCodec.readBits(in, 1) == 0) {
+            zeros++;
+            if (zeros > BITS_PER_INT / 2) {
+                throw new IOException("invalid scaled count");
+            }
+        }
+        return (1 << zeros) | (zeros == 0 ? 0 : BlockHuffCodec.readBits(in, zeros));
+    }
+}
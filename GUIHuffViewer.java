@@ -1,7 +1,7 @@
 import java.awt.BorderLayout;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -9,8 +9,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -44,6 +42,8 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
 
     private static String HUFF_SUFFIX = ".hf";
     private static String UNHUFF_SUFFIX = ".unhf";   
+    // Bytes buffered before each write to an output file
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
 
     private JTextArea myOutput;
     private IHuffProcessor myModel;
@@ -213,6 +213,149 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
 
         group.add(treeHeaderButton);
         headerMenu.add(treeHeaderButton);
+
+        // create the radio button for the canonical code length format
+        JRadioButtonMenuItem customHeaderButton 
+        = new JRadioButtonMenuItem();
+        customHeaderButton.setSelected(false);
+        customHeaderButton.setAction(new AbstractAction("Use Canonical Code Lengths Header(Custom)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_CUSTOM;
+            }
+        });
+
+        group.add(customHeaderButton);
+        headerMenu.add(customHeaderButton);
+
+        // create the radio button for the independent blocks format
+        JRadioButtonMenuItem blocksHeaderButton 
+        = new JRadioButtonMenuItem();
+        blocksHeaderButton.setSelected(false);
+        blocksHeaderButton.setAction(new AbstractAction("Use Independent Blocks Header(Blocks)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_BLOCKS;
+            }
+        });
+
+        group.add(blocksHeaderButton);
+        headerMenu.add(blocksHeaderButton);
+
+        // create the radio button for the adaptive code format
+        JRadioButtonMenuItem adaptiveHeaderButton 
+        = new JRadioButtonMenuItem();
+        adaptiveHeaderButton.setSelected(false);
+        adaptiveHeaderButton.setAction(new AbstractAction("Use Adaptive Code, No Header(Adaptive)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_ADAPTIVE;
+            }
+        });
+
+        group.add(adaptiveHeaderButton);
+        headerMenu.add(adaptiveHeaderButton);
+
+        // create the radio button for the order-1 context format
+        JRadioButtonMenuItem order1HeaderButton 
+        = new JRadioButtonMenuItem();
+        order1HeaderButton.setSelected(false);
+        order1HeaderButton.setAction(new AbstractAction("Use Order-1 Context Codes Header(Order1)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_ORDER1;
+            }
+        });
+
+        group.add(order1HeaderButton);
+        headerMenu.add(order1HeaderButton);
+
+        // create the radio button for the trained model format
+        JRadioButtonMenuItem modelHeaderButton 
+        = new JRadioButtonMenuItem();
+        modelHeaderButton.setSelected(false);
+        modelHeaderButton.setAction(new AbstractAction("Use Trained Model, No Header(Model)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_MODEL;
+            }
+        });
+
+        group.add(modelHeaderButton);
+        headerMenu.add(modelHeaderButton);
+
+        // create the radio button for the interleaved streams format
+        JRadioButtonMenuItem interleavedHeaderButton 
+        = new JRadioButtonMenuItem();
+        interleavedHeaderButton.setSelected(false);
+        interleavedHeaderButton.setAction(new AbstractAction("Use Four Interleaved Streams Header(Interleaved)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_INTERLEAVED;
+            }
+        });
+
+        group.add(interleavedHeaderButton);
+        headerMenu.add(interleavedHeaderButton);
+
+        // create the radio button for the tANS format
+        JRadioButtonMenuItem fseHeaderButton 
+        = new JRadioButtonMenuItem();
+        fseHeaderButton.setSelected(false);
+        fseHeaderButton.setAction(new AbstractAction("Use tANS Instead of Huffman Codes Header(FSE)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_FSE;
+            }
+        });
+
+        group.add(fseHeaderButton);
+        headerMenu.add(fseHeaderButton);
+
+        // create the radio button for the range coder format
+        JRadioButtonMenuItem rangeHeaderButton 
+        = new JRadioButtonMenuItem();
+        rangeHeaderButton.setSelected(false);
+        rangeHeaderButton.setAction(new AbstractAction("Use Adaptive Range Coder, No Header(Range)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_RANGE;
+            }
+        });
+
+        group.add(rangeHeaderButton);
+        headerMenu.add(rangeHeaderButton);
+
+        // create the radio button for the LZ77 format
+        JRadioButtonMenuItem lzHeaderButton 
+        = new JRadioButtonMenuItem();
+        lzHeaderButton.setSelected(false);
+        lzHeaderButton.setAction(new AbstractAction("Use LZ77 Matches and Huffman Codes Header(LZ77)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_LZ77;
+            }
+        });
+
+        group.add(lzHeaderButton);
+        headerMenu.add(lzHeaderButton);
+
+        // create the radio button for the run-length format
+        JRadioButtonMenuItem rleHeaderButton 
+        = new JRadioButtonMenuItem();
+        rleHeaderButton.setSelected(false);
+        rleHeaderButton.setAction(new AbstractAction("Use Run-Length Values and Huffman Codes Header(RLE)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_RLE;
+            }
+        });
+
+        group.add(rleHeaderButton);
+        headerMenu.add(rleHeaderButton);
+
+        // create the radio button for the Burrows-Wheeler format
+        JRadioButtonMenuItem bwtHeaderButton 
+        = new JRadioButtonMenuItem();
+        bwtHeaderButton.setSelected(false);
+        bwtHeaderButton.setAction(new AbstractAction("Use Burrows-Wheeler and Move-to-Front Header(BWT)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_BWT;
+            }
+        });
+
+        group.add(bwtHeaderButton);
+        headerMenu.add(bwtHeaderButton);
         return headerMenu;
     }
 
@@ -286,7 +429,7 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
             final ProgressMonitorInputStream stream = temp;
 
             final ProgressMonitor progress = stream.getProgressMonitor();
-            final OutputStream out = new FileOutputStream(newFile);
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(newFile), OUTPUT_BUFFER_SIZE);
             Thread fileReaderThread = new Thread() {
                 public void run() {
                     try {
@@ -337,7 +480,7 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
         newName = path.substring(0, pos) + newName;
         final File outputFile = new File(newName);
         try {
-            final FileOutputStream out = new FileOutputStream(outputFile);
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile), OUTPUT_BUFFER_SIZE);
             ProgressMonitorInputStream  temp = null;
             temp = getMonitorableStream(getFastByteReader(myFile), "compressing bits...");
   
@@ -367,7 +510,7 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
                 }
             };
             fileWriterThread.start();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             showError("could not open " + outputFile.getName());
             e.printStackTrace();
         }
@@ -455,18 +598,10 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
                 JOptionPane.INFORMATION_MESSAGE);
     }
 
-    private ByteArrayInputStream getFastByteReader(File f){
-        ByteBuffer buffer = null;
+    private InputStream getFastByteReader(File f){
         try {
-            FileChannel channel = new FileInputStream(f).getChannel();
-            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-            byte[] barray = new byte[buffer.limit()];
-
-            if (barray.length != channel.size()){               
-                showError(String.format("Reading %s error: lengths differ %d %ld\n",f.getName(),barray.length,channel.size()));
-            }
-            buffer.get(barray);
-            return new ByteArrayInputStream(barray);
+            // Read straight from the mapped file, without copying it to an array
+            return new MappedFileInputStream(f);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,327 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of Huffman code lengths that processors compressing many files
+ * with nearly the same mix of values can share, so a code built for one file
+ * is reused for the next instead of building a new one. A
+ * <code>SimpleHuffProcessor</code> uses the cache when one is set with
+ * <code>setCodeCache</code>.
+ * <P>
+ * Codes are keyed by a signature of the counts: which values are the eight
+ * that appear most, so counts that differ a little share a key. Cached codes
+ * have a code for every value and are reused only if the bits they take are
+ * within the tolerance of the best code's. The best code's size is estimated
+ * from the entropy of the counts, scaled by how far the cached code's own
+ * counts were from their entropy when it was built, plus a header for only
+ * the values that appear. Headers are costed for the format the code is
+ * stored in, a flattened tree for STORE_TREE or code lengths for
+ * STORE_CUSTOM. The least recently used code is dropped when the
+ * cache is full.
+ * <P>
+ * The cache counts hits, misses and the bytes the reused codes are estimated
+ * to cost compared to building the best code. All methods are synchronized so
+ * processors on different threads can share one cache.
+ */
+public class HuffCodeCache implements IHuffConstants {
+
+    /**
+     * The number of codes kept unless another capacity is given.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * How much bigger than the estimated best a reused code may be, as a
+     * fraction, unless another tolerance is given.
+     */
+    public static final double DEFAULT_TOLERANCE = 0.01;
+
+    // Number of most common values that make up a signature
+    private static final int SIGNATURE_VALUES = 8;
+
+    private final int capacity;
+    private final double tolerance;
+    private final Map<Signature, Entry> entries;
+    private long hits;
+    private long misses;
+    private double bitsLost;
+
+    /**
+     * Create a cache with the default capacity and tolerance.
+     */
+    public HuffCodeCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Create a cache.
+     * @param capacity the most codes kept, at least 1
+     * @param tolerance how much bigger than the estimated best a reused code
+     * may be, as a fraction of the best, at least 0
+     */
+    public HuffCodeCache(int capacity, double tolerance) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("tolerance can't be negative");
+        }
+        this.capacity = capacity;
+        this.tolerance = tolerance;
+        // Access order makes the first entry the least recently used
+        this.entries = new LinkedHashMap<Signature, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Signature, Entry> eldest) {
+                return size() > HuffCodeCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the code lengths of a cached code that is good enough for
+     * counts, or null if there is none and a new code has to be built.
+     * @param counts how often every value appears, indexed by value
+     * @param maxLength the longest code that may be used
+     * @param headerFormat the format the code will be stored in,
+     * STORE_TREE or STORE_CUSTOM, which decides what its header costs
+     * @return the length of the code for every value, null if no cached code
+     * can be used. The array must not be changed.
+     */
+    public synchronized int[] lookup(int[] counts, int maxLength, int headerFormat) {
+        if (headerFormat != STORE_TREE && headerFormat != STORE_CUSTOM) {
+            throw new IllegalArgumentException("cached codes are only for STORE_TREE and STORE_CUSTOM");
+        }
+        Entry entry = entries.get(new Signature(counts));
+        long dataBits = entry == null || entry.maxLength > maxLength ? -1 : codeBits(counts, entry.lengths);
+        if (dataBits >= 0) {
+            // The cached code's header also holds the values that don't appear
+            long bits = dataBits + headerBits(headerFormat, entry.lengths);
+            double best = entropyBits(counts) * entry.redundancy
+                    + headerBits(headerFormat, usedOnly(counts, entry.lengths));
+            if (bits <= best * (1 + tolerance)) {
+                hits++;
+                bitsLost += Math.max(0, bits - best);
+                return entry.lengths;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Keep a code built for counts, so it can be reused for counts with the
+     * same signature. Values that have no code are given codes, so the kept
+     * code can be used for counts where other rare values appear: the leaf
+     * with the longest code becomes a balanced subtree holding itself and
+     * every value that had no code.
+     * @param counts how often every value appears, indexed by value
+     * @param lengths the length of the code built for counts for every value
+     * @param maxLength the longest code the kept code may have
+     */
+    public synchronized void store(int[] counts, int[] lengths, int maxLength) {
+        int numUsed = 0;
+        for (int length : lengths) {
+            if (length > 0) {
+                numUsed++;
+            }
+        }
+        if (numUsed < 2) {
+            // A single code is not a complete tree and there is nothing to save
+            return;
+        }
+        int[] kept = withEveryValue(lengths);
+        if (CanonicalCode.maxLength(kept) > maxLength) {
+            // Too long, build a code where values that don't appear appear once
+            int[] smoothed = new int[counts.length];
+            for (int value = 0; value < counts.length; value++) {
+                smoothed[value] = Math.max(1, counts[value]);
+            }
+            kept = CanonicalCode.limitedLengths(smoothed, maxLength);
+        }
+        double entropy = entropyBits(counts);
+        long bits = codeBits(counts, kept);
+        double redundancy = entropy > 0 && bits > 0 ? bits / entropy : 1;
+        entries.put(new Signature(counts), new Entry(kept, redundancy));
+    }
+
+    /**
+     * Return the number of lookups that found a code.
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Return the number of lookups that found no code good enough.
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Return the estimated number of bytes the codes reused so far take
+     * beyond what the best codes for the same counts would.
+     * @return the bytes lost to reusing codes
+     */
+    public synchronized long getBytesLost() {
+        return Math.round(bitsLost / BITS_PER_WORD);
+    }
+
+    /**
+     * Return the number of codes in the cache.
+     * @return the number of cached codes
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove every code and reset the counters.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        bitsLost = 0;
+    }
+
+    // Return the bits the code takes for counts, -1 if a value that
+    // appears has no code.
+    private static long codeBits(int[] counts, int[] lengths) {
+        long bits = 0;
+        for (int value = 0; value < counts.length; value++) {
+            if (counts[value] > 0 && lengths[value] == 0) {
+                return -1;
+            }
+            bits += (long) counts[value] * lengths[value];
+        }
+        return bits;
+    }
+
+    // Return lengths with every value given a code, under the leaf with the
+    // longest code.
+    private static int[] withEveryValue(int[] lengths) {
+        int[] result = lengths.clone();
+        int longest = 0;
+        int numMissing = 0;
+        for (int value = 0; value < lengths.length; value++) {
+            if (lengths[value] == 0) {
+                numMissing++;
+            } else if (lengths[value] >= lengths[longest] || lengths[longest] == 0) {
+                longest = value;
+            }
+        }
+        if (numMissing == 0 || lengths[longest] == 0) {
+            return result;
+        }
+        // A balanced tree of numLeaves leaves has its leaves on two levels
+        int numLeaves = numMissing + 1;
+        int depth = CanonicalCode.bitsNeeded(numLeaves) - 1;
+        int numShallow = (1 << (depth + 1)) - numLeaves;
+        int base = lengths[longest];
+        result[longest] = base + (numShallow > 0 ? depth : depth + 1);
+        numShallow--;
+        for (int value = 0; value < lengths.length; value++) {
+            if (lengths[value] == 0) {
+                result[value] = base + (numShallow > 0 ? depth : depth + 1);
+                numShallow--;
+            }
+        }
+        return result;
+    }
+
+    // Return the bits of the header that stores the code in headerFormat.
+    private static long headerBits(int headerFormat, int[] lengths) {
+        if (headerFormat == STORE_CUSTOM) {
+            return CanonicalCode.headerBits(lengths);
+        }
+        // The size of the flattened tree, a bit for every node and a value
+        // after every leaf bit
+        long numLeaves = 0;
+        for (int length : lengths) {
+            if (length > 0) {
+                numLeaves++;
+            }
+        }
+        return BITS_PER_INT + (2 * numLeaves - 1) + numLeaves * (BITS_PER_WORD + 1);
+    }
+
+    // Return the lengths of the values that appear, 0 for the others.
+    private static int[] usedOnly(int[] counts, int[] lengths) {
+        int[] used = new int[lengths.length];
+        for (int value = 0; value < lengths.length; value++) {
+            if (counts[value] > 0) {
+                used[value] = lengths[value];
+            }
+        }
+        return used;
+    }
+
+    // Return the entropy of the counts times their total, the fewest bits
+    // any code can take.
+    private static double entropyBits(int[] counts) {
+        long total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        double bits = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                bits += count * (Math.log((double) total / count) / Math.log(2));
+            }
+        }
+        return bits;
+    }
+
+    /*
+     * The quantized counts used as a key.
+     */
+    private static final class Signature {
+        private final byte[] levels;
+        private final int hash;
+
+        Signature(int[] counts) {
+            // Mark the most common values, ties go to the smaller value
+            levels = new byte[counts.length];
+            for (int k = 0; k < Math.min(SIGNATURE_VALUES, counts.length); k++) {
+                int most = -1;
+                for (int value = 0; value < counts.length; value++) {
+                    if (levels[value] == 0 && counts[value] > 0 && (most == -1 || counts[value] > counts[most])) {
+                        most = value;
+                    }
+                }
+                if (most == -1) {
+                    break;
+                }
+                levels[most] = 1;
+            }
+            hash = Arrays.hashCode(levels);
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof Signature && Arrays.equals(levels, ((Signature) other).levels);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /*
+     * A cached code and how many times its entropy the counts it was built
+     * for took with it.
+     */
+    private static final class Entry {
+        private final int[] lengths;
+        private final int maxLength;
+        private final double redundancy;
+
+        Entry(int[] lengths, double redundancy) {
+            this.lengths = lengths;
+            this.maxLength = CanonicalCode.maxLength(lengths);
+            this.redundancy = redundancy;
+        }
+    }
+}
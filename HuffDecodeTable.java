@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Table driven decoder for a Huffman code. Instead of walking the tree one bit
+ * at a time the decoder peeks at several bits at once and resolves the whole
+ * code with a single array lookup. Codes longer than the root table are
+ * resolved through secondary tables that hang off the root table entries.
+ * <P>
+ * Each entry in the table is an int. Leaf entries store the decoded value and
+ * the number of bits in its code. Link entries store the offset and width
+ * of the secondary table that continues the code. Entries that no code
+ * reaches, possible only for incomplete codes, are 0.
+ */
+public class HuffDecodeTable {
+
+    // Number of bits resolved by the first lookup.
+    private static final int ROOT_BITS = 10;
+
+    // Codes up to this long are decoded with a single table and no links.
+    private static final int SINGLE_TABLE_BITS = 12;
+
+    // Maximum number of bits resolved by each secondary table.
+    private static final int SUB_BITS = 6;
+
+    // Entry flags and field layout.
+    private static final int LEAF = 1 << 30;
+    private static final int LINK = 1 << 31;
+    private static final int LENGTH_BITS = 6;
+    private static final int LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+    private static final int WIDTH_BITS = 5;
+    private static final int WIDTH_MASK = (1 << WIDTH_BITS) - 1;
+
+    private int[] table;
+    private int used;
+    private int rootBits;
+
+    /**
+     * Build the decoding tables for the code represented by a Huffman tree.
+     *
+     * @param root the root of the Huffman tree, pre: root != null
+     */
+    public HuffDecodeTable(TreeNode root) {
+        int alphabetSize = maxValue(root) + 1;
+        int[] codes = new int[alphabetSize];
+        int[] lengths = new int[alphabetSize];
+        if (root.isLeaf()) {
+            // A single value is decoded without reading any bits
+            int value = root.getValue();
+            table = new int[] { LEAF | (value << LENGTH_BITS) };
+            used = 1;
+        } else {
+            fillCodes(root, 0, 0, codes, lengths);
+            build(codes, lengths);
+        }
+    }
+
+    /**
+     * Build the decoding tables for a prefix code given the code and code
+     * length of every value. No tree is needed, which suits canonical codes
+     * rebuilt from their lengths.
+     * <br>
+     * pre: the codes form a prefix code and no code is longer than 32 bits
+     *
+     * @param codes   the code of every value, indexed by value
+     * @param lengths the number of bits in the code of every value, 0 if the
+     *                value has no code
+     */
+    public HuffDecodeTable(int[] codes, int[] lengths) {
+        build(codes, lengths);
+    }
+
+    private void build(int[] codes, int[] lengths) {
+        int numUsed = 0;
+        int maxLength = 0;
+        for (int length : lengths) {
+            if (length != 0) {
+                numUsed++;
+                maxLength = Math.max(maxLength, length);
+            }
+        }
+        int[] values = new int[numUsed];
+        numUsed = 0;
+        for (int value = 0; value < lengths.length; value++) {
+            if (lengths[value] != 0) {
+                values[numUsed++] = value;
+            }
+        }
+        rootBits = maxLength <= SINGLE_TABLE_BITS ? maxLength : ROOT_BITS;
+        table = new int[1 << rootBits];
+        used = table.length;
+        fillTable(codes, lengths, values, values.length, 0, 0, rootBits);
+    }
+
+    /*
+     * Fill the table that starts at base and resolves the tableBits bits that
+     * follow the first consumed bits of each code in values. Codes that end
+     * within the table fill every entry that starts with them. Codes that
+     * continue past the table are grouped by their bits in this table and
+     * each group gets a linked secondary table of its own.
+     */
+    private void fillTable(int[] codes, int[] lengths, int[] values, int numValues,
+            int consumed, int base, int tableBits) {
+        // The longest remaining length of the codes that pass through each entry
+        int[] longest = null;
+        for (int k = 0; k < numValues; k++) {
+            int value = values[k];
+            int remaining = lengths[value] - consumed;
+            int rest = (int) (codes[value] & ((1L << remaining) - 1));
+            if (remaining <= tableBits) {
+                int first = rest << (tableBits - remaining);
+                int count = 1 << (tableBits - remaining);
+                int entry = LEAF | (value << LENGTH_BITS) | remaining;
+                for (int j = 0; j < count; j++) {
+                    table[base + first + j] = entry;
+                }
+            } else {
+                if (longest == null) {
+                    longest = new int[1 << tableBits];
+                }
+                int prefix = rest >>> (remaining - tableBits);
+                longest[prefix] = Math.max(longest[prefix], remaining - tableBits);
+            }
+        }
+        if (longest == null) {
+            return;
+        }
+        int[] group = new int[numValues];
+        for (int prefix = 0; prefix < longest.length; prefix++) {
+            if (longest[prefix] > 0) {
+                int groupSize = 0;
+                for (int k = 0; k < numValues; k++) {
+                    int value = values[k];
+                    int remaining = lengths[value] - consumed;
+                    if (remaining > tableBits
+                            && (int) ((codes[value] & ((1L << remaining) - 1)) >>> (remaining - tableBits)) == prefix) {
+                        group[groupSize++] = value;
+                    }
+                }
+                int subBits = Math.min(SUB_BITS, longest[prefix]);
+                int subBase = allocate(1 << subBits);
+                table[base + prefix] = LINK | (subBase << WIDTH_BITS) | subBits;
+                fillTable(codes, lengths, Arrays.copyOf(group, groupSize), groupSize,
+                        consumed + tableBits, subBase, subBits);
+            }
+        }
+    }
+
+    // Reserve size entries at the end of the table and return where they start.
+    private int allocate(int size) {
+        if (used + size > table.length) {
+            int[] bigger = new int[Math.max(table.length * 2, used + size)];
+            System.arraycopy(table, 0, bigger, 0, used);
+            table = bigger;
+        }
+        int start = used;
+        used += size;
+        return start;
+    }
+
+    // A recursive helper that stores the path to every leaf below curNode.
+    private static void fillCodes(TreeNode curNode, int curCode, int curLength,
+            int[] codes, int[] lengths) {
+        if (curNode.isLeaf()) {
+            codes[curNode.getValue()] = curCode;
+            lengths[curNode.getValue()] = curLength;
+        } else {
+            fillCodes(curNode.getLeft(), curCode << 1, curLength + 1, codes, lengths);
+            fillCodes(curNode.getRight(), (curCode << 1) | 1, curLength + 1, codes, lengths);
+        }
+    }
+
+    // Return the largest value stored in a leaf below curNode.
+    private static int maxValue(TreeNode curNode) {
+        if (curNode.isLeaf()) {
+            return curNode.getValue();
+        }
+        return Math.max(maxValue(curNode.getLeft()), maxValue(curNode.getRight()));
+    }
+
+    /**
+     * Decode values from in and write them to out until endValue is decoded.
+     * The end value itself is not written. No objects are created per value.
+     *
+     * @param in       the stream positioned at the start of the coded data
+     * @param out      the stream decoded values are written to
+     * @param endValue the value that marks the end of the coded data
+     * @return the number of values written to out
+     * @throws IOException if the coded data ends before endValue is decoded
+     *                     or if writing to out fails
+     */
+    public int decode(BitInputStream in, OutputStream out, int endValue) throws IOException {
+        int written = 0;
+        int value = decodeValue(in);
+        while (value != endValue) {
+            out.write(value);
+            written++;
+            value = decodeValue(in);
+        }
+        return written;
+    }
+
+    /**
+     * Decode exactly count values from in into an array of bytes.
+     * pre: every value in the code fits in a byte
+     *
+     * @param in     the stream positioned at the start of the coded data
+     * @param dest   the array decoded values are stored in
+     * @param offset the index in dest of the first decoded value
+     * @param count  the number of values to decode
+     * @throws IOException if the coded data ends before count values are decoded
+     */
+    public void decode(BitInputStream in, byte[] dest, int offset, int count) throws IOException {
+        int end = offset + count;
+        for (int k = offset; k < end; k++) {
+            dest[k] = (byte) decodeValue(in);
+        }
+    }
+
+    /**
+     * Decode the next value from in.
+     *
+     * @param in the stream positioned at the start of a code
+     * @return the decoded value
+     * @throws IOException if the coded data ends in the middle of the code
+     *                     or the bits are not a code
+     */
+    public int decodeValue(BitInputStream in) throws IOException {
+        int tableBits = rootBits;
+        int entry = table[in.peekBits(tableBits) & ((1 << tableBits) - 1)];
+        while ((entry & LINK) != 0) {
+            // The code is longer than this table, continue in the linked table
+            if (in.skipBits(tableBits) != tableBits) {
+                throw new IOException("compressed data ended in the middle of a code");
+            }
+            int base = (entry & ~LINK) >>> WIDTH_BITS;
+            tableBits = entry & WIDTH_MASK;
+            entry = table[base + (in.peekBits(tableBits) & ((1 << tableBits) - 1))];
+        }
+        if (entry == 0) {
+            throw new IOException("compressed data contains a code that is not in the table");
+        }
+        int length = entry & LENGTH_MASK;
+        if (in.skipBits(length) != length) {
+            throw new IOException("compressed data ended in the middle of a code");
+        }
+        return (entry & ~LEAF) >>> LENGTH_BITS;
+    }
+}
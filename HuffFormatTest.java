@@ -0,0 +1,571 @@
+//
+// HuffFormatTest.java -- round trip tests for the header formats
+//
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import edu.utexas.cs.bevotest.BevoTest;
+import edu.utexas.cs.bevotest.PlaintextTestReporter;
+
+/**
+ * Test driver for the header formats added after STORE_COUNTS and
+ * STORE_TREE, in the style of <code>A10_Huffman_Test_Student_Version</code>.
+ * <p>
+ * Every format is compressed and uncompressed with
+ * <code>SimpleHuffProcessor</code> on a set of edge cases and on the files in
+ * FilesForStudentTest. A round trip passes when the value predicted by
+ * <code>preprocessCompress</code>, the value returned by <code>compress</code>
+ * and the length of the compressed output agree, and uncompressing gives
+ * back the original bytes.
+ */
+public class HuffFormatTest {
+
+    private static final File testInputDir = new File("./FilesForStudentTest");
+    private static final long TIMEOUT      = 60000L; // in milliseconds
+    private static final int BITS_PER_BYTE = 8;
+    private static final int RANDOM_SIZE   = 200000;
+    private static final long RANDOM_SEED  = 314L;
+    private static final int NUM_THREADS   = 4;
+    // Fibonacci counts for this many values give codes this many bits long
+    private static final int SHALLOW_VALUES = 20;
+    private static final int DEEP_VALUES    = CanonicalCode.MAX_CODE_LENGTH + 1;
+
+    public static void main(final String[] args) throws InterruptedException, IOException {
+        formatTest();
+    }
+
+    private static void formatTest() throws InterruptedException, IOException {
+        final BevoTest.Test ts = new BevoTest.Test("Huffman header format round trip test");
+
+        final Map<String, byte[]> inputs = edgeCaseInputs();
+        inputs.putAll(fileInputs());
+
+        runRoundTripTests(ts, IHuffConstants.STORE_CUSTOM, "STORE_CUSTOM", inputs);
+        testCachedCode(ts, IHuffConstants.STORE_TREE, "STORE_TREE", inputs);
+        testCachedCode(ts, IHuffConstants.STORE_CUSTOM, "STORE_CUSTOM", inputs);
+        runCacheTests(ts);
+
+        runLengthLimitTests(ts);
+
+        runBlockTests(ts, inputs);
+
+        runRoundTripTests(ts, IHuffConstants.STORE_ADAPTIVE, "STORE_ADAPTIVE", inputs);
+
+        runRoundTripTests(ts, IHuffConstants.STORE_ORDER1, "STORE_ORDER1", inputs);
+
+        runModelTests(ts, inputs);
+
+        runInterleavedTests(ts, inputs);
+
+        runRoundTripTests(ts, IHuffConstants.STORE_FSE, "STORE_FSE", inputs);
+        testWithoutViewer(ts, IHuffConstants.STORE_FSE, "STORE_FSE", inputs.get("random"));
+        testSinglePassLimit(ts, "under the memory limit", Arrays.copyOf(inputs.get("random"), RANDOM_SIZE / 2 - 10000));
+        testSinglePassLimit(ts, "over the memory limit", inputs.get("random"));
+        testBuffersWithoutViewer(ts, IHuffConstants.STORE_COUNTS, "STORE_COUNTS", inputs.get("random"));
+        testBuffersWithoutViewer(ts, IHuffConstants.STORE_FSE, "STORE_FSE", inputs.get("random"));
+
+        runRoundTripTests(ts, IHuffConstants.STORE_RANGE, "STORE_RANGE", inputs);
+
+        runRoundTripTests(ts, IHuffConstants.STORE_LZ77, "STORE_LZ77", inputs);
+        testRoundTrip(ts, IHuffConstants.STORE_LZ77, "STORE_LZ77", "several blocks and a partial block",
+                mixedBlocks(LzHuffCodec.BLOCK_SIZE, inputs));
+
+        runRoundTripTests(ts, IHuffConstants.STORE_RLE, "STORE_RLE", inputs);
+        final byte[] longRun = new byte[200000];
+        Arrays.fill(longRun, (byte) 'W');
+        testRoundTrip(ts, IHuffConstants.STORE_RLE, "STORE_RLE", "run longer than a run value", longRun);
+
+        runRoundTripTests(ts, IHuffConstants.STORE_BWT, "STORE_BWT", inputs);
+        testRoundTrip(ts, IHuffConstants.STORE_BWT, "STORE_BWT", "several blocks and a partial block",
+                mixedBlocks(BwtHuffCodec.DEFAULT_BLOCK_SIZE, inputs));
+
+        final BevoTest.TestLog tl = new BevoTest.TestLog(ts);
+        try {
+            ts.run(tl);
+        } finally {
+            final Set<PlaintextTestReporter.ReportOption> ro = PlaintextTestReporter.ReportOption.setOf(PlaintextTestReporter.ReportOption.ONE_LINE_SHOW_STACK);
+            new PlaintextTestReporter(tl).report(System.out, ro);
+        }
+    }
+
+    // The inputs formats most often get wrong: nothing at all, a single
+    // value, one value many times, every value once and data that doesn't
+    // compress.
+    private static Map<String, byte[]> edgeCaseInputs() {
+        final Map<String, byte[]> inputs = new LinkedHashMap<String, byte[]>();
+        inputs.put("empty", new byte[0]);
+        inputs.put("one byte", new byte[] { 'x' });
+        final byte[] repeated = new byte[5000];
+        Arrays.fill(repeated, (byte) 'e');
+        inputs.put("repeated byte", repeated);
+        final byte[] allValues = new byte[IHuffConstants.ALPH_SIZE];
+        for (int k = 0; k < allValues.length; k++) {
+            allValues[k] = (byte) k;
+        }
+        inputs.put("all 256 values", allValues);
+        inputs.put("random", randomBytes(RANDOM_SIZE));
+        return inputs;
+    }
+
+    // Every file in the test directory that isn't a compressed file.
+    private static Map<String, byte[]> fileInputs() throws IOException {
+        final Map<String, byte[]> inputs = new LinkedHashMap<String, byte[]>();
+        for (final File f : getFilesList()) {
+            inputs.put(f.getName(), Files.readAllBytes(f.toPath()));
+        }
+        return inputs;
+    }
+
+    private static File[] getFilesList() {
+        final File[] testInputFiles = testInputDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return !name.endsWith(".hf") && new File(dir, name).isFile();
+            }
+        });
+        Arrays.sort(testInputFiles);
+        return testInputFiles;
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] data = new byte[size];
+        new Random(RANDOM_SEED).nextBytes(data);
+        return data;
+    }
+
+    // Two blocks of text from the inputs, a block of random data and a
+    // final partial block of text.
+    private static byte[] mixedBlocks(final int blockSize, final Map<String, byte[]> inputs) {
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        while (text.size() < 2 * blockSize + blockSize / 2) {
+            for (final byte[] data : inputs.values()) {
+                text.write(data, 0, data.length);
+            }
+        }
+        final byte[] mixed = Arrays.copyOf(text.toByteArray(), 3 * blockSize + blockSize / 2);
+        System.arraycopy(mixed, 2 * blockSize, mixed, 3 * blockSize, blockSize / 2);
+        System.arraycopy(randomBytes(blockSize), 0, mixed, 2 * blockSize, blockSize);
+        return mixed;
+    }
+
+    private static void runBlockTests(final BevoTest.Test ts, final Map<String, byte[]> inputs) {
+        runRoundTripTests(ts, IHuffConstants.STORE_BLOCKS, "STORE_BLOCKS", inputs);
+
+        testRoundTrip(ts, IHuffConstants.STORE_BLOCKS, "STORE_BLOCKS", "several blocks and a partial block",
+                mixedBlocks(BlockHuffCodec.DEFAULT_BLOCK_SIZE, inputs));
+
+        testStoredBlock(ts);
+    }
+
+    // This test codes a block of random data, which Huffman coding can't
+    // shrink, and checks it is stored as a type byte and the bytes as they
+    // are, then decodes it.
+    private static void testStoredBlock(final BevoTest.Test ts) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "STORE_BLOCKS stores a block of random data", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final byte[] data = randomBytes(BlockHuffCodec.DEFAULT_BLOCK_SIZE);
+                starting(data);
+                // Run:
+                final byte[] payload = BlockHuffCodec.encodeBlock(data, 0, data.length);
+                final byte[] decoded = new byte[data.length];
+                BlockHuffCodec.decodeBlock(payload, decoded, 0, data.length);
+                returned(payload.length == data.length + 1 && Arrays.equals(data, decoded));
+                // Tear down: NONE
+            }
+        };
+    }
+
+    // STORE_MODEL needs a model, train one on the test files and make it
+    // the default so compress uses it and uncompress finds it by its id.
+    private static void runModelTests(final BevoTest.Test ts, final Map<String, byte[]> inputs) throws IOException {
+        final HuffModel model = HuffModel.train(getFilesList(), HuffModel.DEFAULT_MAX_CODE_LENGTH);
+        HuffModel.setDefault(model);
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "Trained model is registered by its id", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                starting(model);
+                returned(HuffModel.forId(model.getId()) == model && HuffModel.getDefault() == model);
+            }
+        };
+
+        runRoundTripTests(ts, IHuffConstants.STORE_MODEL, "STORE_MODEL", inputs);
+    }
+
+    private static void runInterleavedTests(final BevoTest.Test ts, final Map<String, byte[]> inputs) {
+        runRoundTripTests(ts, IHuffConstants.STORE_INTERLEAVED, "STORE_INTERLEAVED", inputs);
+
+        testIncompleteInterleavedCode(ts);
+    }
+
+    // This test decodes a block whose code has a single 2 bit code, so most
+    // of the decoding table is empty, and whose streams are all 1 bits,
+    // which aren't the start of any code. Decoding must fail rather than
+    // decode the empty entries as zeros.
+    private static void testIncompleteInterleavedCode(final BevoTest.Test ts) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "STORE_INTERLEAVED rejects an incomplete code", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final int numStreams = 4;
+                final int streamLength = 8;
+                final int[] lengths = new int[IHuffConstants.ALPH_SIZE];
+                lengths['a'] = 2;
+                final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                final BitOutputStream payloadBits = new BitOutputStream(payload);
+                CanonicalCode.writeLengths(payloadBits, lengths);
+                payloadBits.flush();
+                for (int k = 0; k < numStreams; k++) {
+                    payloadBits.writeBits(IHuffConstants.BITS_PER_INT, streamLength);
+                }
+                for (int k = 0; k < numStreams * streamLength; k++) {
+                    payloadBits.writeBits(IHuffConstants.BITS_PER_WORD, 0xff);
+                }
+                payloadBits.flush();
+                final ByteArrayOutputStream coded = new ByteArrayOutputStream();
+                final BitOutputStream out = new BitOutputStream(coded);
+                out.writeBits(IHuffConstants.BITS_PER_INT, InterleavedHuffCodec.DEFAULT_BLOCK_SIZE);
+                BlockHuffCodec.writeBlock(out, numStreams * streamLength, payload.toByteArray());
+                out.writeBits(IHuffConstants.BITS_PER_INT, 0);
+                out.flush();
+                final IHuffCodec testItem = new InterleavedHuffCodec();
+                starting(testItem);
+                // Run:
+                boolean rejected = false;
+                try {
+                    testItem.decode(new BitInputStream(new ByteArrayInputStream(coded.toByteArray())), new ByteArrayOutputStream());
+                } catch (final IOException e) {
+                    rejected = true;
+                }
+                returned(rejected);
+                // Tear down: NONE
+            }
+        };
+    }
+
+    private static void runRoundTripTests(final BevoTest.Test ts, final int headerFormat, final String formatName,
+            final Map<String, byte[]> inputs) {
+        for (final Map.Entry<String, byte[]> input : inputs.entrySet()) {
+            testRoundTrip(ts, headerFormat, formatName, input.getKey(), input.getValue());
+        }
+    }
+
+    // This test compresses data with the header format and checks that the
+    // number of bits predicted by preprocessCompress, the number of bits
+    // returned by compress and the length of the output agree, then
+    // uncompresses the output and compares it to the original data.
+    // Parallel formats run on a pool of their own that is shut down at the
+    // end, since BevoTest waits for every thread a test starts to end.
+    private static void testRoundTrip(final BevoTest.Test ts, final int headerFormat, final String formatName,
+            final String inputName, final byte[] data) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "Round trip " + inputName + " with " + formatName, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException, InterruptedException {
+                // Set up:
+                final ForkJoinPool pool = new ForkJoinPool(NUM_THREADS);
+                final SimpleHuffProcessor testItem = new SimpleHuffProcessor();
+                testItem.setViewer(new DoNothingHuffViewer());
+                testItem.setPool(pool);
+                starting(testItem);
+                try {
+                    // Run:
+                    final long bitsSaved = testItem.preprocessCompress(new ByteArrayInputStream(data), headerFormat);
+                    final long predictedBits = (long) data.length * BITS_PER_BYTE - bitsSaved;
+                    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    final int bitsWritten = testItem.compress(new ByteArrayInputStream(data), compressed, true);
+                    final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+                    final int bitsRead = testItem.uncompress(new ByteArrayInputStream(compressed.toByteArray()), uncompressed);
+                    returned(predictedBits == bitsWritten
+                            && compressed.size() == (bitsWritten + 7) / BITS_PER_BYTE
+                            && bitsRead == data.length * BITS_PER_BYTE
+                            && Arrays.equals(data, uncompressed.toByteArray()));
+                } finally {
+                    // Tear down:
+                    pool.shutdown();
+                    pool.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+            }
+        };
+    }
+
+    // This test compresses data in a single pass and uncompresses it with a
+    // processor that was never given a viewer, which must not need one.
+    private static void testWithoutViewer(final BevoTest.Test ts, final int headerFormat, final String formatName,
+            final byte[] data) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "Single pass " + formatName + " without a viewer", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final IHuffProcessor testItem = new SimpleHuffProcessor();
+                starting(testItem);
+                // Run:
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                final int bitsWritten = testItem.compress(new ByteArrayInputStream(data), compressed, headerFormat);
+                final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+                testItem.uncompress(new ByteArrayInputStream(compressed.toByteArray()), uncompressed);
+                returned(compressed.size() == (bitsWritten + 7) / BITS_PER_BYTE
+                        && Arrays.equals(data, uncompressed.toByteArray()));
+                // Tear down: NONE
+            }
+        };
+    }
+
+    // This test compresses data in a single pass with a memory limit that
+    // isn't a multiple of the read size, so the held input either grows up
+    // to the limit or moves to a temp file, and checks the output is the
+    // same as preprocessing and compressing.
+    private static void testSinglePassLimit(final BevoTest.Test ts, final String desc, final byte[] data) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "Single pass STORE_TREE " + desc, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final SimpleHuffProcessor testItem = new SimpleHuffProcessor();
+                testItem.setSinglePassMemoryLimit(RANDOM_SIZE / 2);
+                final SimpleHuffProcessor twoPass = new SimpleHuffProcessor();
+                twoPass.preprocessCompress(new ByteArrayInputStream(data), IHuffConstants.STORE_TREE);
+                final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                twoPass.compress(new ByteArrayInputStream(data), expected, true);
+                starting(testItem);
+                // Run:
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                testItem.compress(new ByteArrayInputStream(data), compressed, IHuffConstants.STORE_TREE);
+                returned(Arrays.equals(expected.toByteArray(), compressed.toByteArray()));
+                // Tear down: NONE
+            }
+        };
+    }
+
+    // This test compresses and uncompresses data between ByteBuffers with a
+    // processor that was never given a viewer. The buffers are big enough
+    // for data that doesn't compress.
+    private static void testBuffersWithoutViewer(final BevoTest.Test ts, final int headerFormat, final String formatName,
+            final byte[] data) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "ByteBuffer " + formatName + " without a viewer", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final SimpleHuffProcessor testItem = new SimpleHuffProcessor();
+                final ByteBuffer compressed = ByteBuffer.allocate(2 * data.length + 4096);
+                final ByteBuffer uncompressed = ByteBuffer.allocate(data.length);
+                starting(testItem);
+                // Run:
+                testItem.compress(ByteBuffer.wrap(data), compressed, headerFormat);
+                compressed.flip();
+                testItem.uncompress(compressed, uncompressed);
+                returned(Arrays.equals(data, uncompressed.array()) && !uncompressed.hasRemaining());
+                // Tear down: NONE
+            }
+        };
+    }
+
+    // This test compresses every input twice with processors sharing a
+    // HuffCodeCache, so the second copy can reuse the first one's code, and
+    // checks every round trip and prediction as testRoundTrip does.
+    private static void testCachedCode(final BevoTest.Test ts, final int headerFormat, final String formatName,
+            final Map<String, byte[]> inputs) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "Round trip with a shared code cache with " + formatName, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final HuffCodeCache cache = new HuffCodeCache();
+                starting(cache);
+                // Run:
+                boolean correct = true;
+                for (int round = 0; round < 2; round++) {
+                    for (final byte[] data : inputs.values()) {
+                        final SimpleHuffProcessor testItem = new SimpleHuffProcessor();
+                        testItem.setViewer(new DoNothingHuffViewer());
+                        testItem.setCodeCache(cache);
+                        final long bitsSaved = testItem.preprocessCompress(new ByteArrayInputStream(data), headerFormat);
+                        final long predictedBits = (long) data.length * BITS_PER_BYTE - bitsSaved;
+                        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                        final int bitsWritten = testItem.compress(new ByteArrayInputStream(data), compressed, true);
+                        final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+                        testItem.uncompress(new ByteArrayInputStream(compressed.toByteArray()), uncompressed);
+                        correct = correct && predictedBits == bitsWritten
+                                && Arrays.equals(data, uncompressed.toByteArray());
+                    }
+                }
+                returned(correct && cache.getHits() > 0);
+                // Tear down: NONE
+            }
+        };
+    }
+
+    // Counts where value k appears about half as often as value k - 2, for
+    // the first numValues values, and PSEUDO_EOF appears once.
+    private static int[] skewedCounts(final int numValues) {
+        final int[] counts = new int[IHuffConstants.ALPH_SIZE + 1];
+        for (int k = 0; k < numValues; k++) {
+            counts[k] = 1000000 >> (k / 2);
+        }
+        counts[IHuffConstants.PSEUDO_EOF] = 1;
+        return counts;
+    }
+
+    private static void runLengthLimitTests(final BevoTest.Test ts) {
+        final byte[] shallow = fibonacciData(SHALLOW_VALUES);
+        final byte[] deep = fibonacciData(DEEP_VALUES);
+        testLengthLimit(ts, IHuffConstants.STORE_TREE, "STORE_TREE", 12, shallow);
+        testLengthLimit(ts, IHuffConstants.STORE_CUSTOM, "STORE_CUSTOM", 12, shallow);
+        testLengthLimit(ts, IHuffConstants.STORE_TREE, "STORE_TREE", CanonicalCode.MAX_CODE_LENGTH, deep);
+        testLengthLimit(ts, IHuffConstants.STORE_CUSTOM, "STORE_CUSTOM", CanonicalCode.MAX_CODE_LENGTH, deep);
+
+        // The count format's decoder rebuilds the tree, so its codes can't
+        // be limited and codes past what the header can hold are an error.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "STORE_COUNTS refuses codes longer than "
+                + CanonicalCode.MAX_CODE_LENGTH + " bits", true, TIMEOUT) {
+            @Override
+            public void executeTest() {
+                // Set up:
+                final SimpleHuffProcessor testItem = new SimpleHuffProcessor();
+                starting(testItem);
+                // Run:
+                String message = null;
+                try {
+                    testItem.preprocessCompress(new ByteArrayInputStream(deep), IHuffConstants.STORE_COUNTS);
+                } catch (final IOException e) {
+                    message = e.getMessage();
+                }
+                returned(message != null && message.startsWith("Huffman codes are longer than "
+                        + CanonicalCode.MAX_CODE_LENGTH + " bits"));
+                // Tear down: NONE
+            }
+        };
+    }
+
+    // This test limits the codes of data whose best code is longer than
+    // maxLength and checks that no code is longer, that the prediction is
+    // the number of bits written and that the output uncompresses.
+    private static void testLengthLimit(final BevoTest.Test ts, final int headerFormat, final String formatName,
+            final int maxLength, final byte[] data) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "Codes limited to " + maxLength + " bits with "
+                + formatName, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final SimpleHuffProcessor testItem = new SimpleHuffProcessor();
+                testItem.setViewer(new DoNothingHuffViewer());
+                testItem.setMaxCodeLength(maxLength);
+                starting(testItem);
+                // Run:
+                final long bitsSaved = testItem.preprocessCompress(new ByteArrayInputStream(data), headerFormat);
+                final long predictedBits = (long) data.length * BITS_PER_BYTE - bitsSaved;
+                final boolean limited = CanonicalCode.maxLength(testItem.getHuffCodeLengths()) <= maxLength;
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                final int bitsWritten = testItem.compress(new ByteArrayInputStream(data), compressed, true);
+                final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+                testItem.uncompress(new ByteArrayInputStream(compressed.toByteArray()), uncompressed);
+                returned(limited && predictedBits == bitsWritten
+                        && Arrays.equals(data, uncompressed.toByteArray()));
+                // Tear down: NONE
+            }
+        };
+    }
+
+    // Value k appears F(k + 2) times, the Fibonacci numbers from 1, for the
+    // first numValues values. The best code gives value 0 and PSEUDO_EOF
+    // codes numValues bits long, the longest possible for so few bytes.
+    private static byte[] fibonacciData(final int numValues) {
+        final int[] counts = new int[numValues];
+        int total = 0;
+        int next = 2;
+        counts[0] = 1;
+        for (int k = 1; k < numValues; k++) {
+            counts[k] = next;
+            next += counts[k - 1];
+        }
+        for (final int count : counts) {
+            total += count;
+        }
+        final byte[] data = new byte[total];
+        int position = 0;
+        for (int k = 0; k < numValues; k++) {
+            Arrays.fill(data, position, position + counts[k], (byte) k);
+            position += counts[k];
+        }
+        return data;
+    }
+
+    private static void runCacheTests(final BevoTest.Test ts) {
+        final int maxLength = CanonicalCode.MAX_CODE_LENGTH;
+
+        // Counts with the same eight most common values as skewedCounts but a
+        // flat mix of them, which the skewed code is far from the best for.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "HuffCodeCache misses on counts beyond the tolerance", true, TIMEOUT) {
+            @Override
+            public void executeTest() {
+                // Set up:
+                final HuffCodeCache testItem = new HuffCodeCache();
+                final int[] stored = skewedCounts(20);
+                testItem.store(stored, CanonicalCode.limitedLengths(stored, maxLength), maxLength);
+                final int[] flat = skewedCounts(20);
+                Arrays.fill(flat, 0, 8, 1000000);
+                starting(testItem);
+                // Run:
+                final int[] found = testItem.lookup(flat, maxLength, IHuffConstants.STORE_CUSTOM);
+                returned(found == null && testItem.getMisses() == 1 && testItem.getHits() == 0);
+                // Tear down: NONE
+            }
+        };
+
+        // Counts a little off the stored ones reuse the code, which costs a
+        // few bits more than the best code would.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "HuffCodeCache counts the bytes lost to a near miss", true, TIMEOUT) {
+            @Override
+            public void executeTest() {
+                // Set up:
+                final HuffCodeCache testItem = new HuffCodeCache(HuffCodeCache.DEFAULT_CAPACITY, 0.05);
+                final int[] stored = skewedCounts(20);
+                final int[] lengths = CanonicalCode.limitedLengths(stored, maxLength);
+                testItem.store(stored, lengths, maxLength);
+                final int[] near = skewedCounts(20);
+                for (int k = 0; k < 20; k += 3) {
+                    near[k] += near[k] / 10;
+                }
+                starting(testItem);
+                // Run:
+                final int[] found = testItem.lookup(near, maxLength, IHuffConstants.STORE_TREE);
+                returned(found != null && testItem.getHits() == 1 && testItem.getBytesLost() > 0);
+                // Tear down: NONE
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "HuffCodeCache of capacity 1 drops the older code", true, TIMEOUT) {
+            @Override
+            public void executeTest() {
+                // Set up:
+                final HuffCodeCache testItem = new HuffCodeCache(1, HuffCodeCache.DEFAULT_TOLERANCE);
+                final int[] first = skewedCounts(20);
+                final int[] second = skewedCounts(20);
+                // Different most common values give a different signature
+                second[100] = 2000000;
+                second[101] = 2000000;
+                starting(testItem);
+                // Run:
+                testItem.store(first, CanonicalCode.limitedLengths(first, maxLength), maxLength);
+                final boolean firstKept = testItem.lookup(first, maxLength, IHuffConstants.STORE_CUSTOM) != null;
+                testItem.store(second, CanonicalCode.limitedLengths(second, maxLength), maxLength);
+                final boolean firstDropped = testItem.lookup(first, maxLength, IHuffConstants.STORE_CUSTOM) == null;
+                final boolean secondKept = testItem.lookup(second, maxLength, IHuffConstants.STORE_CUSTOM) != null;
+                returned(firstKept && firstDropped && secondKept && testItem.size() == 1);
+                // Tear down: NONE
+            }
+        };
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+
+/**
+ * An index of where decoding can start in a compressed file, so that parts
+ * of the file can be decoded at the same time. Each entry is the bit offset
+ * of a code in the compressed file and the offset in the original file of
+ * the value it codes.
+ * <P>
+ * The index is an optional trailer after the PSEUDO_EOF code. Readers stop
+ * at PSEUDO_EOF, so files with an index can be read by readers that know
+ * nothing about it. The trailer starts on a byte boundary and holds, all
+ * big endian, the number of entries (an int), the length of the original
+ * file (a long), a bit offset and an original offset for every entry (two
+ * longs each), the number of bytes in the trailer (an int) and
+ * INDEX_MAGIC_NUMBER (an int). The last two let a reader find the trailer
+ * from the end of the file.
+ */
+public class HuffIndex implements IHuffConstants {
+
+    /**
+     * Marks the end of an index trailer.
+     */
+    public static final int INDEX_MAGIC_NUMBER = MAGIC_NUMBER | 0xff;
+
+    /**
+     * The number of values between entries unless another interval is set.
+     */
+    public static final int DEFAULT_INTERVAL = 1 << 20;
+
+    /**
+     * The number of bytes at the end of a file that tell where its trailer starts.
+     */
+    public static final int TRAILER_END_BYTES = 8;
+
+    private static final int BITS_PER_LONG = 64;
+
+    private final long originalLength;
+    private final long[] bitOffsets;
+    private final long[] originalOffsets;
+
+    /**
+     * Create an index.
+     * @param originalLength the number of bytes in the original file
+     * @param bitOffsets the bit offset in the compressed file of each entry
+     * @param originalOffsets the offset in the original file of each entry
+     */
+    public HuffIndex(long originalLength, long[] bitOffsets, long[] originalOffsets) {
+        if (bitOffsets.length != originalOffsets.length) {
+            throw new IllegalArgumentException("every entry needs both offsets");
+        }
+        this.originalLength = originalLength;
+        this.bitOffsets = bitOffsets;
+        this.originalOffsets = originalOffsets;
+    }
+
+    /**
+     * Return the number of entries in an index with an entry every interval
+     * values of the original file.
+     * @param originalLength the number of bytes in the original file
+     * @param interval the number of values between entries
+     * @return the number of entries
+     */
+    public static int numEntries(long originalLength, int interval) {
+        return (int) ((originalLength + interval - 1) / interval);
+    }
+
+    /**
+     * Return the number of bits in the trailer of an index, not counting the
+     * bits that pad the PSEUDO_EOF code to a byte boundary.
+     * @param numEntries the number of entries in the index
+     * @return the number of bits in the trailer
+     */
+    public static long trailerBits(int numEntries) {
+        return BITS_PER_INT * 3 + BITS_PER_LONG + (long) numEntries * BITS_PER_LONG * 2;
+    }
+
+    public long getOriginalLength() {
+        return originalLength;
+    }
+
+    public int getNumEntries() {
+        return bitOffsets.length;
+    }
+
+    public long getBitOffset(int entry) {
+        return bitOffsets[entry];
+    }
+
+    public long getOriginalOffset(int entry) {
+        return originalOffsets[entry];
+    }
+
+    /**
+     * Return the number of original bytes coded from an entry to the next
+     * entry, or to the end of the file for the last entry.
+     * @param entry the entry
+     * @return the number of bytes the entry covers
+     */
+    public long getOriginalCount(int entry) {
+        long end = entry + 1 < originalOffsets.length ? originalOffsets[entry + 1] : originalLength;
+        return end - originalOffsets[entry];
+    }
+
+    /**
+     * Write the trailer. out must be on a byte boundary.
+     * @param out the stream the trailer is written to
+     * @return the number of bits written
+     */
+    public long write(BitOutputStream out) {
+        out.writeBits(BITS_PER_INT, bitOffsets.length);
+        writeLong(out, originalLength);
+        for (int k = 0; k < bitOffsets.length; k++) {
+            writeLong(out, bitOffsets[k]);
+            writeLong(out, originalOffsets[k]);
+        }
+        long bits = trailerBits(bitOffsets.length);
+        out.writeBits(BITS_PER_INT, (int) (bits / BITS_PER_WORD));
+        out.writeBits(BITS_PER_INT, INDEX_MAGIC_NUMBER);
+        return bits;
+    }
+
+    /**
+     * Return the number of bytes in the trailer of a file given its last
+     * TRAILER_END_BYTES bytes, or -1 if the file does not end with a trailer.
+     * @param end the last bytes of the file
+     * @return the number of bytes in the trailer or -1
+     */
+    public static int trailerLength(byte[] end) {
+        if (end.length < TRAILER_END_BYTES || readInt(end, end.length - 4) != INDEX_MAGIC_NUMBER) {
+            return -1;
+        }
+        return readInt(end, end.length - TRAILER_END_BYTES);
+    }
+
+    /**
+     * Read the trailer of a file.
+     * @param trailer all the bytes of the trailer
+     * @param trailerStart the offset of the trailer in the compressed file
+     * @return the index in the trailer
+     * @throws IOException if the trailer is not valid
+     */
+    public static HuffIndex read(byte[] trailer, long trailerStart) throws IOException {
+        if (trailer.length < trailerBits(0) / BITS_PER_WORD) {
+            throw new IOException("index trailer is too short");
+        }
+        int numEntries = readInt(trailer, 0);
+        if (numEntries < 0 || trailerBits(numEntries) != (long) trailer.length * BITS_PER_WORD) {
+            throw new IOException("index trailer has the wrong length for " + numEntries + " entries");
+        }
+        long originalLength = readLong(trailer, 4);
+        long[] bitOffsets = new long[numEntries];
+        long[] originalOffsets = new long[numEntries];
+        for (int k = 0; k < numEntries; k++) {
+            bitOffsets[k] = readLong(trailer, 12 + k * 16);
+            originalOffsets[k] = readLong(trailer, 20 + k * 16);
+            boolean inOrder = k == 0
+                    ? originalOffsets[k] == 0
+                    : bitOffsets[k] >= bitOffsets[k - 1] && originalOffsets[k] > originalOffsets[k - 1];
+            if (!inOrder || bitOffsets[k] < 0 || bitOffsets[k] >= trailerStart * BITS_PER_WORD
+                    || originalOffsets[k] >= originalLength) {
+                throw new IOException("index entry " + k + " is not valid");
+            }
+        }
+        if ((numEntries == 0) != (originalLength == 0)) {
+            throw new IOException("index has no entries for the original file");
+        }
+        return new HuffIndex(originalLength, bitOffsets, originalOffsets);
+    }
+
+    private static void writeLong(BitOutputStream out, long value) {
+        out.writeBits(BITS_PER_INT, (int) (value >>> BITS_PER_INT));
+        out.writeBits(BITS_PER_INT, (int) value);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return ((long) readInt(data, offset) << BITS_PER_INT) | (readInt(data, offset + 4) & 0xffffffffL);
+    }
+}
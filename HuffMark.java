@@ -2,8 +2,6 @@ import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 
 public class HuffMark {
     protected static JFileChooser ourOpenChooser = new JFileChooser(System
@@ -19,6 +17,39 @@ public class HuffMark {
     private IHuffProcessor myHuffer;
     private static String SUFFIX = ".hf";
     private static boolean FAST_READER = true;
+
+    // Header formats compared by compareFormats, the longest code allowed
+    // with each and their names in the report
+    private static final int[] FORMATS = {
+        IHuffConstants.STORE_COUNTS, IHuffConstants.STORE_TREE, IHuffConstants.STORE_CUSTOM,
+        IHuffConstants.STORE_CUSTOM, IHuffConstants.STORE_CUSTOM, IHuffConstants.STORE_CUSTOM,
+        IHuffConstants.STORE_BLOCKS, IHuffConstants.STORE_ADAPTIVE, IHuffConstants.STORE_ORDER1,
+        IHuffConstants.STORE_INTERLEAVED, IHuffConstants.STORE_FSE, IHuffConstants.STORE_RANGE,
+        IHuffConstants.STORE_LZ77, IHuffConstants.STORE_RLE, IHuffConstants.STORE_BWT
+    };
+    private static final int[] MAX_CODE_LENGTHS = { 32, 32, 32, 15, 12, 11, 32, 32, 32, 32, 32, 32, 32, 32, 32 };
+    private static final String[] FORMAT_NAMES = {
+        "counts", "tree", "custom", "custom/15", "custom/12", "custom/11", "blocks", "adaptive", "order1",
+        "interleave", "fse", "range", "lz77", "rle", "bwt"
+    };
+
+    // Size of the input and number of timed rounds for scaleThreads
+    private static final int SCALING_INPUT_SIZE = 64 << 20;
+    private static final int SCALING_ROUNDS = 3;
+
+    // Size of the input and number of timed rounds for markDecode
+    private static final int DECODE_INPUT_SIZE = 32 << 20;
+    private static final int DECODE_ROUNDS = 8;
+
+    // Number of codes written per round and number of rounds for markBitOutput
+    private static final int BIT_MARK_CODES = 1 << 24;
+    private static final int BIT_MARK_ROUNDS = 5;
+
+    // Number of times markCodeCache compresses every file
+    private static final int CACHE_ROUNDS = 5;
+
+    // Bytes buffered before each write to the compressed file
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
     
     public void compress(File f) throws IOException{
         
@@ -26,11 +57,11 @@ public class HuffMark {
         if (f.isDirectory()) return; // don't read directories
         
         double start = System.currentTimeMillis();
-        myHuffer.preprocessCompress(getFastByteReader(f), IHuffProcessor.STORE_COUNTS);
         File outFile = new File(getCompressedName(f));
-        FileOutputStream out = new FileOutputStream(outFile);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile), OUTPUT_BUFFER_SIZE);
         System.out.println("compressing to: "+outFile.getCanonicalPath());
-        myHuffer.compress(getFastByteReader(f), out,true);
+        // Count and compress with one read of the file
+        myHuffer.compress(getFastByteReader(f), out, IHuffProcessor.STORE_COUNTS);
         double end = System.currentTimeMillis();
         double time = (end-start)/1000.0;
         
@@ -45,6 +76,7 @@ public class HuffMark {
     public void doMark() throws IOException{
         if (myHuffer == null){
             myHuffer = new SimpleHuffProcessor();
+            myHuffer.setViewer(new DoNothingHuffViewer());
         }
         int action = ourOpenChooser.showOpenDialog(null);
         if (action == JFileChooser.APPROVE_OPTION){
@@ -61,9 +93,435 @@ public class HuffMark {
         }
     }
     
+    /**
+     * Compress and uncompress every file in a directory with each header
+     * format in FORMATS. Reports the compressed size of every file and, for
+     * every format, the total size, compression, bits per byte and speed in
+     * each direction.
+     * Formats with a limit on the length of codes also report how many bytes
+     * the limit costs compared to the same format without a limit.
+     * Every round trip is checked against the original file.
+     * @param dir the directory of files to compress
+     * @throws IOException if a file cannot be read or does not round trip
+     */
+    public void compareFormats(File dir) throws IOException{
+        SimpleHuffProcessor[] huffers = new SimpleHuffProcessor[FORMATS.length];
+        for (int k = 0; k < FORMATS.length; k++){
+            huffers[k] = new SimpleHuffProcessor();
+            huffers[k].setViewer(new DoNothingHuffViewer());
+            huffers[k].setMaxCodeLength(MAX_CODE_LENGTHS[k]);
+        }
+        File[] list = dir.listFiles();
+        java.util.Arrays.sort(list);
+        long totalBytes = 0;
+        long[] totalCompressed = new long[FORMATS.length];
+        double[] compressTime = new double[FORMATS.length];
+        double[] uncompressTime = new double[FORMATS.length];
+        
+        System.out.printf("%-28s %10s", "file", "original");
+        for (String name : FORMAT_NAMES){
+            System.out.printf(" %10s", name);
+        }
+        System.out.println();
+        for(File f : list){
+            if (f.getName().endsWith(SUFFIX) || f.isDirectory()) continue;
+            byte[] original = readAllBytes(f);
+            totalBytes += original.length;
+            System.out.printf("%-28s %10d", f.getName(), original.length);
+            for (int k = 0; k < FORMATS.length; k++){
+                long start = System.nanoTime();
+                huffers[k].preprocessCompress(new ByteArrayInputStream(original), FORMATS[k]);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                huffers[k].compress(new ByteArrayInputStream(original), compressed, true);
+                long middle = System.nanoTime();
+                ByteArrayOutputStream uncompressed = new ByteArrayOutputStream(original.length);
+                huffers[k].uncompress(new ByteArrayInputStream(compressed.toByteArray()), uncompressed);
+                long end = System.nanoTime();
+                if (!java.util.Arrays.equals(original, uncompressed.toByteArray())){
+                    throw new IOException(f.getName() + " did not round trip with " + FORMAT_NAMES[k]);
+                }
+                totalCompressed[k] += compressed.size();
+                compressTime[k] += (middle - start) / 1e9;
+                uncompressTime[k] += (end - middle) / 1e9;
+                System.out.printf(" %10d", compressed.size());
+            }
+            System.out.println();
+        }
+        System.out.println("--------");
+        System.out.printf("%-10s %12s %8s %9s %10s %10s %12s\n", "format", "bytes", "percent", "bits/byte",
+                "comp MB/s", "unc MB/s", "limit cost");
+        for (int k = 0; k < FORMATS.length; k++){
+            System.out.printf("%-10s %12d %8.3f %9.3f %10.1f %10.1f", FORMAT_NAMES[k], totalCompressed[k],
+                    100.0 * (1.0 - 1.0 * totalCompressed[k] / totalBytes), 8.0 * totalCompressed[k] / totalBytes,
+                    totalBytes / 1e6 / compressTime[k], totalBytes / 1e6 / uncompressTime[k]);
+            // Compare with the first configuration of the same format
+            int unlimited = 0;
+            while (FORMATS[unlimited] != FORMATS[k]){
+                unlimited++;
+            }
+            if (unlimited != k){
+                System.out.printf(" %+11.3f%%", 100.0 * (totalCompressed[k] - totalCompressed[unlimited])
+                        / totalCompressed[unlimited]);
+            }
+            System.out.println();
+        }
+    }
+    
+    /**
+     * Compress the files of a directory, joined and repeated into one input of
+     * at least SCALING_INPUT_SIZE bytes, with a ParallelHuffCompressor on 1, 2,
+     * 4 ... threads up to the number of processors, and uncompress it again
+     * with a ParallelHuffDecompressor using the index trailer. Reports the
+     * throughput of each and the speedup over one thread. The output of every
+     * thread count is checked to be identical to the output of
+     * SimpleHuffProcessor and to round trip.
+     * @param dir the directory of files to compress
+     * @param headerFormat the header format to compress with
+     * @throws IOException if a file cannot be read or the outputs differ
+     */
+    public void scaleThreads(File dir, int headerFormat) throws IOException{
+        byte[] data = joinFiles(dir, SCALING_INPUT_SIZE);
+        if (data == null){
+            return;
+        }
+        SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        huffer.setViewer(new DoNothingHuffViewer());
+        huffer.setIndexInterval(HuffIndex.DEFAULT_INTERVAL);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        huffer.compress(new ByteArrayInputStream(data), expected, headerFormat);
+        
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d bytes from %s, %d processors\n", data.length, dir.getName(), processors);
+        System.out.printf("%8s %10s %10s %10s %10s\n", "threads", "comp MB/s", "speedup", "unc MB/s",
+                "speedup");
+        double oneThread = 0;
+        double oneThreadUncompress = 0;
+        for (int threads = 1; threads <= processors; threads = threads == processors ? threads + 1
+                : Math.min(threads * 2, processors)){
+            java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(threads);
+            ParallelHuffCompressor compressor = new ParallelHuffCompressor(pool);
+            compressor.setIndexInterval(HuffIndex.DEFAULT_INTERVAL);
+            ParallelHuffDecompressor decompressor = new ParallelHuffDecompressor(pool);
+            double best = Double.MAX_VALUE;
+            double bestUncompress = Double.MAX_VALUE;
+            for (int round = 0; round < SCALING_ROUNDS; round++){
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(expected.size());
+                long start = System.nanoTime();
+                compressor.compress(data, compressed, headerFormat);
+                best = Math.min(best, (System.nanoTime() - start) / 1e9);
+                if (!java.util.Arrays.equals(expected.toByteArray(), compressed.toByteArray())){
+                    throw new IOException("output with " + threads + " threads is different");
+                }
+                ByteArrayOutputStream uncompressed = new ByteArrayOutputStream(data.length);
+                start = System.nanoTime();
+                decompressor.uncompress(compressed.toByteArray(), uncompressed);
+                bestUncompress = Math.min(bestUncompress, (System.nanoTime() - start) / 1e9);
+                if (!java.util.Arrays.equals(data, uncompressed.toByteArray())){
+                    throw new IOException("did not round trip with " + threads + " threads");
+                }
+            }
+            pool.shutdown();
+            double rate = data.length / 1e6 / best;
+            double uncompressRate = data.length / 1e6 / bestUncompress;
+            if (threads == 1){
+                oneThread = rate;
+                oneThreadUncompress = uncompressRate;
+            }
+            System.out.printf("%8d %10.1f %10.2f %10.1f %10.2f\n", threads, rate, rate / oneThread,
+                    uncompressRate, uncompressRate / oneThreadUncompress);
+        }
+    }
+    
+    /**
+     * Time BitOutputStream writing codes of mixed lengths, like the codes of
+     * a Huffman compressed file, and writing bytes one at a time, like an
+     * uncompressed file. Output goes to a stream that discards it so only the
+     * bit handling is measured.
+     */
+    public void markBitOutput() throws IOException{
+        java.util.Random random = new java.util.Random(42);
+        int[] lengths = new int[BIT_MARK_CODES];
+        int[] codes = new int[BIT_MARK_CODES];
+        long bitsPerRound = 0;
+        for (int k = 0; k < BIT_MARK_CODES; k++){
+            // Mostly short codes with a few long ones
+            lengths[k] = Math.min(24, 2 + (int) Math.abs(random.nextGaussian() * 4));
+            codes[k] = random.nextInt() & ((1 << lengths[k]) - 1);
+            bitsPerRound += lengths[k];
+        }
+        double bestCodes = Double.MAX_VALUE;
+        double bestBytes = Double.MAX_VALUE;
+        for (int round = 0; round < BIT_MARK_ROUNDS; round++){
+            BitOutputStream out = new BitOutputStream(OutputStream.nullOutputStream());
+            long start = System.nanoTime();
+            for (int k = 0; k < BIT_MARK_CODES; k++){
+                out.writeBits(lengths[k], codes[k]);
+            }
+            out.flush();
+            long middle = System.nanoTime();
+            for (int k = 0; k < BIT_MARK_CODES; k++){
+                out.write(codes[k]);
+            }
+            out.flush();
+            long end = System.nanoTime();
+            bestCodes = Math.min(bestCodes, (middle - start) / 1e9);
+            bestBytes = Math.min(bestBytes, (end - middle) / 1e9);
+        }
+        System.out.printf("writeBits: %.2f ns per code, %.1f MB/s of codes\n",
+                bestCodes * 1e9 / BIT_MARK_CODES, bitsPerRound / 8.0 / 1e6 / bestCodes);
+        System.out.printf("write:     %.2f ns per byte, %.1f MB/s\n",
+                bestBytes * 1e9 / BIT_MARK_CODES, BIT_MARK_CODES / 1e6 / bestBytes);
+    }
+    
+    /**
+     * Compress and uncompress every file in a directory with STORE_LZ77 at
+     * every level from 1 to 9. Reports the total size, bits per byte and
+     * speed in each direction of every level. Every round trip is checked
+     * against the original file.
+     * @param dir the directory of files to compress
+     * @throws IOException if a file cannot be read or does not round trip
+     */
+    public void compareLzLevels(File dir) throws IOException{
+        File[] list = dir.listFiles();
+        java.util.Arrays.sort(list);
+        java.util.List<byte[]> files = new java.util.ArrayList<>();
+        long totalBytes = 0;
+        for (File f : list){
+            if (!f.getName().endsWith(SUFFIX) && !f.isDirectory()){
+                files.add(readAllBytes(f));
+                totalBytes += files.get(files.size() - 1).length;
+            }
+        }
+        SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        huffer.setViewer(new DoNothingHuffViewer());
+        // Warm up the JIT so the first level is not timed running slower code
+        for (byte[] original : files){
+            ByteArrayOutputStream coded = new ByteArrayOutputStream();
+            huffer.compress(new ByteArrayInputStream(original), coded, IHuffConstants.STORE_LZ77);
+            huffer.uncompress(new ByteArrayInputStream(coded.toByteArray()), OutputStream.nullOutputStream());
+        }
+        System.out.printf("%-6s %12s %9s %10s %10s\n", "level", "bytes", "bits/byte", "comp MB/s", "unc MB/s");
+        for (int level = 1; level <= 9; level++){
+            huffer.setLzLevel(level);
+            long compressed = 0;
+            double compressTime = 0;
+            double uncompressTime = 0;
+            for (byte[] original : files){
+                long start = System.nanoTime();
+                ByteArrayOutputStream coded = new ByteArrayOutputStream();
+                huffer.compress(new ByteArrayInputStream(original), coded, IHuffConstants.STORE_LZ77);
+                long middle = System.nanoTime();
+                ByteArrayOutputStream uncompressed = new ByteArrayOutputStream(original.length);
+                huffer.uncompress(new ByteArrayInputStream(coded.toByteArray()), uncompressed);
+                long end = System.nanoTime();
+                if (!java.util.Arrays.equals(original, uncompressed.toByteArray())){
+                    throw new IOException(dir.getName() + " did not round trip at level " + level);
+                }
+                compressed += coded.size();
+                compressTime += (middle - start) / 1e9;
+                uncompressTime += (end - middle) / 1e9;
+            }
+            System.out.printf("%-6d %12d %9.3f %10.1f %10.1f\n", level, compressed, 8.0 * compressed / totalBytes,
+                    totalBytes / 1e6 / compressTime, totalBytes / 1e6 / uncompressTime);
+        }
+    }
+
+    /**
+     * Join the files of a directory into one input of at least
+     * DECODE_INPUT_SIZE bytes, compress it with the custom header, with
+     * four interleaved streams and with tANS and time uncompressing each on
+     * one thread.
+     * Reports the best of DECODE_ROUNDS rounds, so the first rounds warm up
+     * the JIT, in MB/s of uncompressed data. Output goes to a stream that
+     * discards it and every format is checked to round trip first.
+     * @param dir the directory of files to compress
+     * @throws IOException if a file cannot be read or does not round trip
+     */
+    public void markDecode(File dir) throws IOException{
+        byte[] data = joinFiles(dir, DECODE_INPUT_SIZE);
+        if (data == null){
+            return;
+        }
+        int[] formats = { IHuffConstants.STORE_CUSTOM, IHuffConstants.STORE_INTERLEAVED, IHuffConstants.STORE_FSE };
+        String[] names = { "custom", "interleave", "fse" };
+        SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        huffer.setViewer(new DoNothingHuffViewer());
+        huffer.setMaxCodeLength(12);
+        System.out.printf("%d bytes from %s\n", data.length, dir.getName());
+        System.out.printf("%-10s %12s %10s\n", "format", "bytes", "unc MB/s");
+        for (int k = 0; k < formats.length; k++){
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            huffer.compress(new ByteArrayInputStream(data), compressed, formats[k]);
+            byte[] coded = compressed.toByteArray();
+            ByteArrayOutputStream check = new ByteArrayOutputStream(data.length);
+            huffer.uncompress(new ByteArrayInputStream(coded), check);
+            if (!java.util.Arrays.equals(data, check.toByteArray())){
+                throw new IOException(dir.getName() + " did not round trip with " + names[k]);
+            }
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < DECODE_ROUNDS; round++){
+                long start = System.nanoTime();
+                huffer.uncompress(new ByteArrayInputStream(coded), OutputStream.nullOutputStream());
+                best = Math.min(best, (System.nanoTime() - start) / 1e9);
+            }
+            System.out.printf("%-10s %12d %10.1f\n", names[k], coded.length, data.length / 1e6 / best);
+        }
+    }
+
+    /*
+     * Return the files of dir that aren't .hf files joined and repeated to at
+     * least minSize bytes. Returns null after saying so if they have no bytes.
+     */
+    private byte[] joinFiles(File dir, int minSize) throws IOException{
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        File[] list = dir.listFiles();
+        if (list == null){
+            System.out.println(dir.getName() + " is not a directory");
+            return null;
+        }
+        java.util.Arrays.sort(list);
+        while (joined.size() < minSize){
+            int before = joined.size();
+            for (File f : list){
+                if (!f.getName().endsWith(SUFFIX) && !f.isDirectory()){
+                    joined.write(readAllBytes(f));
+                }
+            }
+            if (joined.size() == before){
+                System.out.println(dir.getName() + " has no bytes to compress outside of " + SUFFIX + " files");
+                return null;
+            }
+        }
+        return joined.toByteArray();
+    }
+
+    /**
+     * Compress every file in a directory several times with the custom
+     * header, once with a new code built for every file and once with a
+     * shared HuffCodeCache. Reports the time and total size of both and the
+     * cache's hits, misses and estimated bytes lost next to the bytes that
+     * were actually lost.
+     * @param dir the directory of files to compress
+     * @throws IOException if a file cannot be read
+     */
+    public void markCodeCache(File dir) throws IOException{
+        File[] list = dir.listFiles();
+        java.util.List<byte[]> files = new java.util.ArrayList<>();
+        for (File f : list){
+            if (!f.getName().endsWith(SUFFIX) && !f.isDirectory()){
+                files.add(readAllBytes(f));
+            }
+        }
+        HuffCodeCache cache = new HuffCodeCache();
+        long[] totals = new long[2];
+        double[] times = new double[2];
+        for (int round = 0; round < CACHE_ROUNDS; round++){
+            for (int k = 0; k < 2; k++){
+                SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+                huffer.setViewer(new DoNothingHuffViewer());
+                huffer.setCodeCache(k == 0 ? null : cache);
+                long start = System.nanoTime();
+                for (byte[] data : files){
+                    huffer.preprocessCompress(new ByteArrayInputStream(data), IHuffConstants.STORE_CUSTOM);
+                    totals[k] += huffer.compress(new ByteArrayInputStream(data),
+                            OutputStream.nullOutputStream(), true) / 8;
+                }
+                times[k] += (System.nanoTime() - start) / 1e9;
+            }
+        }
+        System.out.printf("%-8s %12s %10s\n", "codes", "bytes", "seconds");
+        System.out.printf("%-8s %12d %10.3f\n", "built", totals[0], times[0]);
+        System.out.printf("%-8s %12d %10.3f\n", "cached", totals[1], times[1]);
+        System.out.printf("hits %d misses %d bytes lost %d estimated, %d actual\n", cache.getHits(),
+                cache.getMisses(), cache.getBytesLost(), totals[1] - totals[0]);
+    }
+
+    /**
+     * Train a HuffModel on the files in a directory other than compressed
+     * files, save it to a temporary model file
+     * and load it back, then compress every file in a directory with the
+     * custom header and with the model. Reports the compressed size of every
+     * file with both. Every round trip with the model is checked against the
+     * original file.
+     * @param samples the directory of files to train on
+     * @param dir the directory of files to compress
+     * @throws IOException if a file cannot be read or does not round trip
+     */
+    public void markModel(File samples, File dir) throws IOException{
+        long start = System.nanoTime();
+        File[] sampleFiles = samples.listFiles((File f) -> !f.getName().endsWith(SUFFIX) && !f.isDirectory());
+        HuffModel trained = HuffModel.train(sampleFiles, HuffModel.DEFAULT_MAX_CODE_LENGTH);
+        File modelFile = File.createTempFile("huff", ".hfm");
+        modelFile.deleteOnExit();
+        trained.save(modelFile);
+        HuffModel.setDefault(HuffModel.load(modelFile));
+        System.out.printf("model %08x trained on %s in %.3f\n", trained.getId(), samples.getName(),
+                (System.nanoTime() - start) / 1e9);
+        SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        huffer.setViewer(new DoNothingHuffViewer());
+        File[] list = dir.listFiles();
+        java.util.Arrays.sort(list);
+        long[] totals = new long[3];
+        System.out.printf("%-28s %10s %10s %10s\n", "file", "original", "custom", "model");
+        for (File f : list){
+            if (f.getName().endsWith(SUFFIX) || f.isDirectory()) continue;
+            byte[] original = readAllBytes(f);
+            ByteArrayOutputStream custom = new ByteArrayOutputStream();
+            huffer.compress(new ByteArrayInputStream(original), custom, IHuffConstants.STORE_CUSTOM);
+            ByteArrayOutputStream model = new ByteArrayOutputStream();
+            huffer.compress(new ByteArrayInputStream(original), model, IHuffConstants.STORE_MODEL);
+            ByteArrayOutputStream uncompressed = new ByteArrayOutputStream(original.length);
+            huffer.uncompress(new ByteArrayInputStream(model.toByteArray()), uncompressed);
+            if (!java.util.Arrays.equals(original, uncompressed.toByteArray())){
+                throw new IOException(f.getName() + " did not round trip with the model");
+            }
+            totals[0] += original.length;
+            totals[1] += custom.size();
+            totals[2] += model.size();
+            System.out.printf("%-28s %10d %10d %10d\n", f.getName(), original.length, custom.size(),
+                    model.size());
+        }
+        System.out.println("--------");
+        System.out.printf("%-28s %10d %10d %10d\n", "total", totals[0], totals[1], totals[2]);
+    }
+
+    /**
+     * With no arguments choose a directory and compress its files with the
+     * count header. With a directory as the argument compare all the header
+     * formats on the files in that directory, e.g. <code>java HuffMark calgary</code>.
+     * With <code>-threads</code> and a directory measure how parallel
+     * compression scales, e.g. <code>java HuffMark -threads waterloo</code>.
+     * With <code>-bits</code> time writing bits with BitOutputStream.
+     * With <code>-cache</code> and a directory measure reusing codes with a
+     * HuffCodeCache, e.g. <code>java HuffMark -cache calgary</code>.
+     * With <code>-decode</code> and a directory time uncompressing one stream
+     * against four interleaved streams and tANS, e.g.
+     * <code>java HuffMark -decode calgary</code>.
+     * With <code>-lz</code> and a directory compare the levels of the LZ77
+     * format, e.g. <code>java HuffMark -lz calgary</code>.
+     * With <code>-model</code>, samples and a directory compare a trained
+     * HuffModel with the custom header, e.g.
+     * <code>java HuffMark -model BooksAndHTML FilesForStudentTest</code>.
+     */
     public static void main(String[] args) throws IOException{
         HuffMark hf = new HuffMark();
-        hf.doMark();
+        if (args.length > 0 && args[0].equals("-bits")){
+            hf.markBitOutput();
+        } else if (args.length > 1 && args[0].equals("-cache")){
+            hf.markCodeCache(new File(args[1]));
+        } else if (args.length > 1 && args[0].equals("-lz")){
+            hf.compareLzLevels(new File(args[1]));
+        } else if (args.length > 1 && args[0].equals("-decode")){
+            hf.markDecode(new File(args[1]));
+        } else if (args.length > 2 && args[0].equals("-model")){
+            hf.markModel(new File(args[1]), new File(args[2]));
+        } else if (args.length > 1 && args[0].equals("-threads")){
+            hf.scaleThreads(new File(args[1]), IHuffConstants.STORE_CUSTOM);
+        } else if (args.length > 0){
+            hf.compareFormats(new File(args[0]));
+        } else {
+            hf.doMark();
+        }
     }
     
     
@@ -82,27 +540,20 @@ public class HuffMark {
     }
     
     
-    private InputStream getFastByteReader(File f) throws FileNotFoundException{
+    private byte[] readAllBytes(File f) throws IOException{
+        InputStream in = getFastByteReader(f);
+        byte[] result = in.readAllBytes();
+        in.close();
+        return result;
+    }
+    
+    private InputStream getFastByteReader(File f) throws IOException{
         
         if (!FAST_READER){
             return new FileInputStream(f);
         }
-        
-        ByteBuffer buffer = null;
-         try {
-             FileChannel channel = new FileInputStream(f).getChannel();
-             buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-             byte[] barray = new byte[buffer.limit()];
-           
-             if (barray.length != channel.size()){               
-                 System.err.println(String.format("Reading %s error: lengths differ %d %ld\n",f.getName(),barray.length,channel.size()));
-             }
-             buffer.get(barray);
-             return new ByteArrayInputStream(barray);
-         } catch (IOException e) {
-             e.printStackTrace();
-         }
-         return null;
+        // Read straight from the mapped file, without copying it to an array
+        return new MappedFileInputStream(f);
     }
     
 }
@@ -0,0 +1,309 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A Huffman code trained ahead of time on sample data and saved as a model
+ * file, so that small files can be coded with it without a header. Data
+ * coded with a model names it by its id, see <code>ModelHuffCodec</code>.
+ * Every value and PSEUDO_EOF have a code, so a model can code any data,
+ * though data unlike the samples won't compress well.
+ * <P>
+ * A model file holds MODEL_MAGIC_NUMBER, the id of the model and then the
+ * length of the code for each of the ALPH_SIZE + 1 values, one byte each.
+ * The id is the CRC-32 of the lengths, so a model with different codes can't
+ * be mistaken for another.
+ * <P>
+ * Models are loaded by mapping the model file and are kept in a registry
+ * shared by the whole JVM, so every processor uses the same codes and
+ * decoding table and a file is only loaded once. The default model, used
+ * when compressing with STORE_MODEL, is the first model loaded or the model
+ * file named by the <code>huff.model</code> system property.
+ */
+public class HuffModel implements IHuffConstants {
+
+    /**
+     * Starts every model file.
+     */
+    public static final int MODEL_MAGIC_NUMBER = MAGIC_NUMBER | 0xfe;
+
+    /**
+     * The longest code in a trained model unless another length is given.
+     */
+    public static final int DEFAULT_MAX_CODE_LENGTH = 15;
+
+    /**
+     * The system property naming the model file loaded as the default model.
+     */
+    public static final String MODEL_PROPERTY = "huff.model";
+
+    // The loaded models by id and by the canonical path of their file
+    private static final Map<Integer, HuffModel> MODELS = new ConcurrentHashMap<>();
+    private static final Map<String, HuffModel> FILES = new ConcurrentHashMap<>();
+    private static HuffModel defaultModel;
+
+    private final int id;
+    private final int[] lengths;
+    private final int[] codes;
+    private final HuffDecodeTable decodeTable;
+
+    /**
+     * Create a model from the length of the code of each value.
+     * @param lengths the length of the code for each of the ALPH_SIZE + 1
+     * values, every value must have a code
+     * @throws IllegalArgumentException if a value has no code or the lengths
+     * are not a complete code
+     */
+    public HuffModel(int[] lengths) {
+        if (lengths.length != ALPH_SIZE + 1) {
+            throw new IllegalArgumentException("a model needs a code for all " + (ALPH_SIZE + 1) + " values");
+        }
+        long kraftSum = 0;
+        for (int length : lengths) {
+            if (length < 1 || length > CanonicalCode.MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("invalid code length " + length);
+            }
+            kraftSum += 1L << (CanonicalCode.MAX_CODE_LENGTH - length);
+        }
+        if (kraftSum != 1L << CanonicalCode.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("the code lengths are not a complete code");
+        }
+        this.lengths = lengths.clone();
+        this.codes = CanonicalCode.assignCodes(this.lengths);
+        this.decodeTable = new HuffDecodeTable(this.codes, this.lengths);
+        CRC32 crc = new CRC32();
+        for (int length : this.lengths) {
+            crc.update(length);
+        }
+        this.id = (int) crc.getValue();
+    }
+
+    /**
+     * Train a model on sample files. Values that don't appear in the samples
+     * are counted once, so they still get a code.
+     * @param samples the files to train on, directories are trained on every
+     * file in them
+     * @param maxLength the longest code allowed
+     * @return the trained model
+     * @throws IOException if a sample can't be read
+     */
+    public static HuffModel train(File[] samples, int maxLength) throws IOException {
+        long[] totals = new long[ALPH_SIZE + 1];
+        addCounts(samples, totals);
+        // Halve the counts until their total fits in an int
+        long total = Long.MAX_VALUE;
+        int shift = -1;
+        while (total > Integer.MAX_VALUE) {
+            shift++;
+            total = 0;
+            for (long count : totals) {
+                total += Math.max(1, count >> shift);
+            }
+        }
+        int[] freqs = new int[ALPH_SIZE + 1];
+        for (int value = 0; value <= ALPH_SIZE; value++) {
+            freqs[value] = (int) Math.max(1, totals[value] >> shift);
+        }
+        return new HuffModel(CanonicalCode.limitedLengths(freqs, maxLength));
+    }
+
+    /*
+     * Add the counts of the bytes in the files to totals.
+     */
+    private static void addCounts(File[] files, long[] totals) throws IOException {
+        for (File f : files) {
+            if (f.isDirectory()) {
+                addCounts(f.listFiles(), totals);
+            } else {
+                try (MappedFileInputStream in = new MappedFileInputStream(f)) {
+                    int[] counts = FrequencyCounter.count(in);
+                    for (int value = 0; value < ALPH_SIZE; value++) {
+                        totals[value] += counts[value];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write this model to a model file.
+     * @param file the model file to write
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] bytes = new byte[2 * BITS_PER_INT / BITS_PER_WORD + lengths.length];
+            putInt(bytes, 0, MODEL_MAGIC_NUMBER);
+            putInt(bytes, BITS_PER_INT / BITS_PER_WORD, id);
+            for (int value = 0; value < lengths.length; value++) {
+                bytes[2 * BITS_PER_INT / BITS_PER_WORD + value] = (byte) lengths[value];
+            }
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Load a model file and add the model to the registry. A file that was
+     * loaded before is not read again, the model already loaded is returned.
+     * The first model loaded becomes the default model if there is none.
+     * @param file the model file
+     * @return the model in the file
+     * @throws IOException if the file can't be read or is not a model file
+     */
+    public static HuffModel load(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        HuffModel model = FILES.get(path);
+        if (model != null) {
+            return model;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            int size = 2 * BITS_PER_INT / BITS_PER_WORD + ALPH_SIZE + 1;
+            if (channel.size() != size) {
+                throw new IOException(file + " is not a model file");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mapped.getInt() != MODEL_MAGIC_NUMBER) {
+                throw new IOException(file + " is not a model file");
+            }
+            int storedId = mapped.getInt();
+            int[] lengths = new int[ALPH_SIZE + 1];
+            for (int value = 0; value <= ALPH_SIZE; value++) {
+                lengths[value] = mapped.get() & 0xff;
+            }
+            try {
+                model = new HuffModel(lengths);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + " holds an invalid code", e);
+            }
+            if (model.id != storedId) {
+                throw new IOException(file + " is damaged, its id does not match its code");
+            }
+        }
+        model = register(model);
+        FILES.putIfAbsent(path, model);
+        synchronized (HuffModel.class) {
+            if (defaultModel == null) {
+                defaultModel = model;
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Add a model to the registry so data coded with it can be decoded.
+     * @param model the model to add
+     * @return the model in the registry with the same id, model if there
+     * was none
+     */
+    public static HuffModel register(HuffModel model) {
+        HuffModel old = MODELS.putIfAbsent(model.id, model);
+        return old == null ? model : old;
+    }
+
+    /**
+     * Return the loaded model with an id. If there is none and the
+     * huff.model property is set, the default model is loaded first.
+     * @param id the id of the model
+     * @return the model with the id, null if no such model is loaded
+     * @throws IOException if the default model's file can't be loaded
+     */
+    public static HuffModel forId(int id) throws IOException {
+        HuffModel model = MODELS.get(id);
+        if (model == null && System.getProperty(MODEL_PROPERTY) != null) {
+            getDefault();
+            model = MODELS.get(id);
+        }
+        return model;
+    }
+
+    /**
+     * Return the model used when compressing with STORE_MODEL. If no model
+     * has been loaded the model file named by the huff.model property is.
+     * @return the default model
+     * @throws IOException if there is no default model or its file can't be
+     * loaded
+     */
+    public static synchronized HuffModel getDefault() throws IOException {
+        if (defaultModel == null) {
+            String name = System.getProperty(MODEL_PROPERTY);
+            if (name == null) {
+                throw new IOException("No model loaded, set " + MODEL_PROPERTY + " to a model file");
+            }
+            defaultModel = load(new File(name));
+        }
+        return defaultModel;
+    }
+
+    /**
+     * Set the model used when compressing with STORE_MODEL. The model is
+     * added to the registry.
+     * @param model the default model
+     */
+    public static synchronized void setDefault(HuffModel model) {
+        defaultModel = register(model);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Return the length of the code for every value, indexed by value.
+     * @return the code lengths, the array must not be changed
+     */
+    public int[] getCodeLengths() {
+        return lengths;
+    }
+
+    /**
+     * Return the code for every value, indexed by value.
+     * @return the codes, the array must not be changed
+     */
+    public int[] getCodes() {
+        return codes;
+    }
+
+    /**
+     * Return the table that decodes this model's codes. The table is shared
+     * by every user of the model.
+     * @return the decoding table
+     */
+    public HuffDecodeTable getDecodeTable() {
+        return decodeTable;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Train a model and save it, e.g.
+     * <code>java HuffModel books.hfm BooksAndHTML</code>.
+     * The first argument is the model file to write, the rest are the
+     * sample files and directories.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: java HuffModel <model file> <samples>...");
+            return;
+        }
+        File[] samples = new File[args.length - 1];
+        for (int k = 1; k < args.length; k++) {
+            samples[k - 1] = new File(args[k]);
+        }
+        HuffModel model = train(samples, DEFAULT_MAX_CODE_LENGTH);
+        model.save(new File(args[0]));
+        System.out.printf("wrote model %08x to %s\n", model.getId(), args[0]);
+    }
+}
@@ -0,0 +1,303 @@
+//
+// HuffParallelTest.java -- tests for compressing and uncompressing on many threads
+//
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import edu.utexas.cs.bevotest.BevoTest;
+import edu.utexas.cs.bevotest.PlaintextTestReporter;
+
+/**
+ * Test driver for <code>ParallelHuffCompressor</code>,
+ * <code>ParallelHuffDecompressor</code>, the <code>HuffIndex</code>
+ * trailer and counting files in parallel with
+ * <code>FrequencyCounter</code>, in the style of
+ * <code>A10_Huffman_Test_Student_Version</code>.
+ * <p>
+ * A file many chunks long is compressed on pools of different sizes. The
+ * output must be the same on every pool, the same as what
+ * <code>SimpleHuffProcessor</code> writes and must uncompress to the file.
+ * Files with an index must uncompress in parallel, files without one on one
+ * thread, and a damaged index must be an error. Every test makes its own
+ * pool and shuts it down when done, so no worker threads outlive the test.
+ */
+public class HuffParallelTest {
+
+    private static final File testInputFile = new File("./FilesForStudentTest/USA_2008_Summer_Olympics_Wikipedia.htm");
+    private static final long TIMEOUT       = 60000L; // in milliseconds
+    private static final int CHUNK_SIZE     = 1 << 16;
+    private static final int[] THREAD_COUNTS = { 1, 2, 3, 8 };
+    private static final int INDEX_INTERVAL = 1000;
+    // Where the entries start in a trailer and the bytes in each entry
+    private static final int FIRST_ENTRY    = 12;
+    private static final int ENTRY_BYTES    = 16;
+    // Big enough for FrequencyCounter to count a file in several chunks
+    private static final int COUNTED_FILE_SIZE = 20 << 20;
+
+    public static void main(final String[] args) throws InterruptedException, IOException {
+        parallelTest();
+    }
+
+    private static void parallelTest() throws InterruptedException, IOException {
+        final BevoTest.Test ts = new BevoTest.Test("Huffman parallel compress test");
+
+        runCompressorTests(ts, IHuffConstants.STORE_COUNTS, "STORE_COUNTS");
+        runCompressorTests(ts, IHuffConstants.STORE_TREE, "STORE_TREE");
+        runCompressorTests(ts, IHuffConstants.STORE_CUSTOM, "STORE_CUSTOM");
+
+        runIndexTests(ts);
+
+        runCounterTests(ts);
+
+        final BevoTest.TestLog tl = new BevoTest.TestLog(ts);
+        try {
+            ts.run(tl);
+        } finally {
+            final Set<PlaintextTestReporter.ReportOption> ro = PlaintextTestReporter.ReportOption.setOf(PlaintextTestReporter.ReportOption.ONE_LINE_SHOW_STACK);
+            new PlaintextTestReporter(tl).report(System.out, ro);
+        }
+    }
+
+    private static void runCompressorTests(final BevoTest.Test ts, final int headerFormat, final String formatName) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "ParallelHuffCompressor matches SimpleHuffProcessor with " + formatName, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException, InterruptedException {
+                // Set up:
+                final byte[] expected = simpleCompress(testInputFile, headerFormat);
+                starting(testInputFile);
+                // Run:
+                final byte[] actual = parallelCompress(testInputFile, headerFormat, 4);
+                returned(testInputFile.length() > 8L * CHUNK_SIZE && Arrays.equals(expected, actual));
+                // Tear down: NONE
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "ParallelHuffCompressor output doesn't depend on the threads with " + formatName, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException, InterruptedException {
+                // Set up:
+                final byte[] expected = parallelCompress(testInputFile, headerFormat, 1);
+                starting(testInputFile);
+                // Run:
+                boolean same = true;
+                for (final int numThreads : THREAD_COUNTS) {
+                    same = same && Arrays.equals(expected, parallelCompress(testInputFile, headerFormat, numThreads));
+                }
+                returned(same);
+                // Tear down: NONE
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "ParallelHuffCompressor round trip with " + formatName, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException, InterruptedException {
+                // Set up:
+                final byte[] original = Files.readAllBytes(testInputFile.toPath());
+                starting(testInputFile);
+                // Run:
+                final byte[] compressed = parallelCompress(testInputFile, headerFormat, 4);
+                final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+                final SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+                huffer.setViewer(new DoNothingHuffViewer());
+                huffer.uncompress(new ByteArrayInputStream(compressed), uncompressed);
+                returned(Arrays.equals(original, uncompressed.toByteArray()));
+                // Tear down: NONE
+            }
+        };
+    }
+
+    private static void runCounterTests(final BevoTest.Test ts) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "FrequencyCounter counts a file in chunks on a pool", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException, InterruptedException {
+                // Set up:
+                final byte[] text = Files.readAllBytes(testInputFile.toPath());
+                final byte[] data = new byte[COUNTED_FILE_SIZE];
+                for (int k = 0; k < data.length; k += text.length) {
+                    System.arraycopy(text, 0, data, k, Math.min(text.length, data.length - k));
+                }
+                final int[] expected = new int[IHuffConstants.ALPH_SIZE];
+                FrequencyCounter.count(data, 0, data.length, expected);
+                final File f = File.createTempFile("huffcount", ".txt");
+                Files.write(f.toPath(), data);
+                final ForkJoinPool pool = new ForkJoinPool(4);
+                starting(f);
+                // Run:
+                final int[] counts;
+                final boolean atEnd;
+                try (FileInputStream in = new FileInputStream(f)) {
+                    counts = FrequencyCounter.count(in, pool);
+                    atEnd = in.getChannel().position() == data.length && in.read() == -1;
+                }
+                returned(atEnd && Arrays.equals(expected, counts));
+                // Tear down:
+                shutDown(pool);
+                f.delete();
+            }
+        };
+    }
+
+    private static void runIndexTests(final BevoTest.Test ts) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "ParallelHuffDecompressor round trip with an entry every " + INDEX_INTERVAL + " values", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException, InterruptedException {
+                // Set up:
+                final byte[] original = Files.readAllBytes(testInputFile.toPath());
+                final byte[] compressed = parallelCompress(testInputFile, IHuffConstants.STORE_CUSTOM, 4, INDEX_INTERVAL);
+                final File compressedFile = File.createTempFile("huffindex", ".hf");
+                final File uncompressedFile = File.createTempFile("huffindex", ".unhf");
+                Files.write(compressedFile.toPath(), compressed);
+                final ForkJoinPool pool = new ForkJoinPool(4);
+                final ParallelHuffDecompressor testItem = new ParallelHuffDecompressor(pool);
+                starting(testItem);
+                // Run:
+                final ByteArrayOutputStream fromArray = new ByteArrayOutputStream();
+                testItem.uncompress(compressed, fromArray);
+                testItem.uncompress(compressedFile, uncompressedFile);
+                final int numEntries = HuffIndex.numEntries(original.length, INDEX_INTERVAL);
+                returned(trailerLength(compressed) == HuffIndex.trailerBits(numEntries) / IHuffConstants.BITS_PER_WORD
+                        && Arrays.equals(original, fromArray.toByteArray())
+                        && Arrays.equals(original, Files.readAllBytes(uncompressedFile.toPath())));
+                // Tear down:
+                shutDown(pool);
+                compressedFile.delete();
+                uncompressedFile.delete();
+            }
+        };
+
+        // The output file starts out longer than the original, the fallback
+        // must replace it.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "ParallelHuffDecompressor uncompresses a file without an index on one thread", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException, InterruptedException {
+                // Set up:
+                final byte[] original = Files.readAllBytes(testInputFile.toPath());
+                final byte[] compressed = parallelCompress(testInputFile, IHuffConstants.STORE_TREE, 4, 0);
+                final File compressedFile = File.createTempFile("huffindex", ".hf");
+                final File uncompressedFile = File.createTempFile("huffindex", ".unhf");
+                Files.write(compressedFile.toPath(), compressed);
+                Files.write(uncompressedFile.toPath(), new byte[original.length + 1000]);
+                final ForkJoinPool pool = new ForkJoinPool(4);
+                final ParallelHuffDecompressor testItem = new ParallelHuffDecompressor(pool);
+                starting(testItem);
+                // Run:
+                final long bitsWritten = testItem.uncompress(compressedFile, uncompressedFile);
+                returned(trailerLength(compressed) == -1
+                        && bitsWritten == (long) original.length * IHuffConstants.BITS_PER_WORD
+                        && Arrays.equals(original, Files.readAllBytes(uncompressedFile.toPath())));
+                // Tear down:
+                shutDown(pool);
+                compressedFile.delete();
+                uncompressedFile.delete();
+            }
+        };
+
+        // Moving the second entry one bit later is still a trailer in order,
+        // only decoding finds the first entry doesn't end there.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "ParallelHuffDecompressor rejects a damaged index entry", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException, InterruptedException {
+                // Set up:
+                final byte[] compressed = parallelCompress(testInputFile, IHuffConstants.STORE_CUSTOM, 4, INDEX_INTERVAL);
+                final int entryStart = compressed.length - trailerLength(compressed) + FIRST_ENTRY + ENTRY_BYTES;
+                final ByteBuffer entries = ByteBuffer.wrap(compressed);
+                entries.putLong(entryStart, entries.getLong(entryStart) + 1);
+                final ForkJoinPool pool = new ForkJoinPool(4);
+                final ParallelHuffDecompressor testItem = new ParallelHuffDecompressor(pool);
+                starting(testItem);
+                // Run:
+                returned(uncompressFails(testItem, compressed));
+                // Tear down:
+                shutDown(pool);
+            }
+        };
+
+        // An entry cut out of the middle of the trailer, the end of the
+        // trailer still says how long it was.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "ParallelHuffDecompressor rejects a truncated index trailer", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException, InterruptedException {
+                // Set up:
+                final byte[] compressed = parallelCompress(testInputFile, IHuffConstants.STORE_CUSTOM, 4, INDEX_INTERVAL);
+                final int cutStart = compressed.length - trailerLength(compressed) + FIRST_ENTRY + ENTRY_BYTES;
+                final byte[] truncated = new byte[compressed.length - ENTRY_BYTES];
+                System.arraycopy(compressed, 0, truncated, 0, cutStart);
+                System.arraycopy(compressed, cutStart + ENTRY_BYTES, truncated, cutStart, truncated.length - cutStart);
+                final ForkJoinPool pool = new ForkJoinPool(4);
+                final ParallelHuffDecompressor testItem = new ParallelHuffDecompressor(pool);
+                starting(testItem);
+                // Run:
+                returned(uncompressFails(testItem, truncated));
+                // Tear down:
+                shutDown(pool);
+            }
+        };
+    }
+
+    // Return true if uncompressing compressed throws an IOException.
+    private static boolean uncompressFails(final ParallelHuffDecompressor decompressor, final byte[] compressed) {
+        try {
+            decompressor.uncompress(compressed, new ByteArrayOutputStream());
+        } catch (final IOException e) {
+            return true;
+        }
+        return false;
+    }
+
+    // Return the length of the index trailer at the end of compressed, -1 if
+    // there is none.
+    private static int trailerLength(final byte[] compressed) {
+        return HuffIndex.trailerLength(Arrays.copyOfRange(compressed,
+                compressed.length - HuffIndex.TRAILER_END_BYTES, compressed.length));
+    }
+
+    // Compress a file with SimpleHuffProcessor, counting it first.
+    private static byte[] simpleCompress(final File f, final int headerFormat) throws IOException {
+        final SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        huffer.setViewer(new DoNothingHuffViewer());
+        huffer.preprocessCompress(new BufferedInputStream(new FileInputStream(f)), headerFormat);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        huffer.compress(new BufferedInputStream(new FileInputStream(f)), out, true);
+        return out.toByteArray();
+    }
+
+    // Compress a file on a new pool of numThreads threads, which is shut
+    // down before returning.
+    private static byte[] parallelCompress(final File f, final int headerFormat, final int numThreads)
+            throws IOException, InterruptedException {
+        return parallelCompress(f, headerFormat, numThreads, 0);
+    }
+
+    // Compress a file with an index entry every indexInterval values, 0 for
+    // no index.
+    private static byte[] parallelCompress(final File f, final int headerFormat, final int numThreads,
+            final int indexInterval) throws IOException, InterruptedException {
+        final ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            final ParallelHuffCompressor compressor = new ParallelHuffCompressor(pool);
+            compressor.setChunkSize(CHUNK_SIZE);
+            compressor.setIndexInterval(indexInterval);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            compressor.compress(f, out, headerFormat);
+            return out.toByteArray();
+        } finally {
+            shutDown(pool);
+        }
+    }
+
+    private static void shutDown(final ForkJoinPool pool) throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+}
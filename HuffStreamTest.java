@@ -0,0 +1,568 @@
+//
+// HuffStreamTest.java -- tests for the stream classes
+//
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import edu.utexas.cs.bevotest.BevoTest;
+import edu.utexas.cs.bevotest.PlaintextTestReporter;
+
+/**
+ * Test driver for the stream classes, in the style of
+ * <code>A10_Huffman_Test_Student_Version</code>: the streams that compress
+ * and uncompress as data passes through them,
+ * <code>HuffmanOutputStream</code> and <code>HuffmanInputStream</code>, and
+ * the streams that map a file into memory, <code>MappedFileOutputStream</code>
+ * and <code>MappedFileInputStream</code>, and the bit streams,
+ * <code>BitOutputStream</code> and <code>BitInputStream</code>.
+ * <p>
+ * The data is a text file followed by random bytes, written and read in
+ * pieces that don't line up with the blocks or the mapped windows. Windows
+ * are the smallest allowed so the data spans many of them. Bits are checked
+ * against a string of '0' and '1' charachters built alongside them.
+ */
+public class HuffStreamTest {
+
+    private static final File testInputFile = new File("./FilesForStudentTest/mostlyEs.txt");
+    private static final long TIMEOUT       = 60000L; // in milliseconds
+    private static final int BLOCK_SIZE     = 1 << 12;
+    private static final int WINDOW_SIZE    = 1 << 12;
+    private static final int RANDOM_SIZE    = 10000;
+    private static final long RANDOM_SEED   = 314L;
+
+    public static void main(final String[] args) throws InterruptedException, IOException {
+        streamTest();
+    }
+
+    private static void streamTest() throws InterruptedException, IOException {
+        final BevoTest.Test ts = new BevoTest.Test("Huffman stream test");
+
+        final byte[] data = testData();
+
+        runHuffmanStreamTests(ts, data);
+
+        runMappedStreamTests(ts, data, false);
+        runMappedStreamTests(ts, data, true);
+
+        runBitOutputTests(ts, data);
+        runBitInputTests(ts, data);
+
+        final BevoTest.TestLog tl = new BevoTest.TestLog(ts);
+        try {
+            ts.run(tl);
+        } finally {
+            final Set<PlaintextTestReporter.ReportOption> ro = PlaintextTestReporter.ReportOption.setOf(PlaintextTestReporter.ReportOption.ONE_LINE_SHOW_STACK);
+            new PlaintextTestReporter(tl).report(System.out, ro);
+        }
+    }
+
+    // A text file and then bytes that don't compress.
+    private static byte[] testData() throws IOException {
+        final byte[] text = Files.readAllBytes(testInputFile.toPath());
+        final byte[] data = Arrays.copyOf(text, text.length + RANDOM_SIZE);
+        final byte[] random = new byte[RANDOM_SIZE];
+        new Random(RANDOM_SEED).nextBytes(random);
+        System.arraycopy(random, 0, data, text.length, RANDOM_SIZE);
+        return data;
+    }
+
+    private static void runHuffmanStreamTests(final BevoTest.Test ts, final byte[] data) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "HuffmanOutputStream to HuffmanInputStream round trip", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                final HuffmanOutputStream testItem = new HuffmanOutputStream(compressed, BLOCK_SIZE);
+                starting(testItem);
+                // Run:
+                writeInPieces(testItem, data);
+                testItem.close();
+                final HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+                returned(compressed.size() < data.length && Arrays.equals(data, in.readAllBytes()) && in.read() == -1);
+                // Tear down: NONE
+            }
+        };
+
+        // Everything before a flush can be read from what has been written
+        // so far, then the rest follows in full blocks.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "HuffmanOutputStream flush writes a short block", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final int flushAt = 1000;
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                final HuffmanOutputStream testItem = new HuffmanOutputStream(compressed, BLOCK_SIZE);
+                starting(testItem);
+                // Run:
+                testItem.write(data, 0, flushAt);
+                testItem.flush();
+                final HuffmanInputStream beforeFlush = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+                final boolean flushed = Arrays.equals(Arrays.copyOf(data, flushAt), beforeFlush.readNBytes(flushAt))
+                        && beforeFlush.available() == 0;
+                testItem.write(data, flushAt, data.length - flushAt);
+                testItem.close();
+                final HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+                final boolean shortBlock = in.read() == (data[0] & 0xff) && in.available() == flushAt - 1;
+                returned(flushed && shortBlock && Arrays.equals(Arrays.copyOfRange(data, 1, data.length), in.readAllBytes()));
+                // Tear down: NONE
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "HuffmanInputStream reads less than a block at a time", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                final HuffmanOutputStream out = new HuffmanOutputStream(compressed, BLOCK_SIZE);
+                out.write(data);
+                out.close();
+                final HuffmanInputStream testItem = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+                starting(testItem);
+                // Run:
+                final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+                final byte[] piece = new byte[7];
+                int numRead = testItem.read(piece, 0, piece.length);
+                while (numRead != -1) {
+                    uncompressed.write(piece, 0, numRead);
+                    final int value = testItem.read();
+                    if (value != -1) {
+                        uncompressed.write(value);
+                    }
+                    numRead = testItem.read(piece, 0, piece.length);
+                }
+                returned(Arrays.equals(data, uncompressed.toByteArray()));
+                // Tear down: NONE
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "SimpleHuffProcessor uncompresses HuffmanOutputStream data", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                final HuffmanOutputStream out = new HuffmanOutputStream(compressed, BLOCK_SIZE);
+                writeInPieces(out, data);
+                out.flush();
+                out.close();
+                final SimpleHuffProcessor testItem = new SimpleHuffProcessor();
+                testItem.setViewer(new DoNothingHuffViewer());
+                starting(testItem);
+                // Run:
+                final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+                final int bitsRead = testItem.uncompress(new ByteArrayInputStream(compressed.toByteArray()), uncompressed);
+                returned(bitsRead == data.length * IHuffConstants.BITS_PER_WORD
+                        && Arrays.equals(data, uncompressed.toByteArray()));
+                // Tear down: NONE
+            }
+        };
+    }
+
+    private static void runMappedStreamTests(final BevoTest.Test ts, final byte[] data, final boolean unmapWindows) {
+        final String windows = unmapWindows ? " unmapping windows" : "";
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "MappedFileOutputStream writes across windows" + windows, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final File f = File.createTempFile("huffstream", ".bin");
+                final MappedFileOutputStream testItem = new MappedFileOutputStream(f, WINDOW_SIZE, unmapWindows);
+                starting(testItem);
+                // Run:
+                // Fill the first window exactly, then write across the others
+                testItem.write(data, 0, WINDOW_SIZE);
+                final boolean filled = testItem.getPosition() == WINDOW_SIZE;
+                testItem.write(data[WINDOW_SIZE]);
+                writeInPieces(testItem, Arrays.copyOfRange(data, WINDOW_SIZE + 1, data.length));
+                final boolean written = testItem.getPosition() == data.length;
+                testItem.close();
+                testItem.close();
+                returned(filled && written && f.length() == data.length
+                        && Arrays.equals(data, Files.readAllBytes(f.toPath())));
+                // Tear down:
+                f.delete();
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "MappedFileOutputStream can't be written after close" + windows, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final File f = File.createTempFile("huffstream", ".bin");
+                final MappedFileOutputStream testItem = new MappedFileOutputStream(f, WINDOW_SIZE, unmapWindows);
+                testItem.write(data, 0, 10);
+                testItem.close();
+                starting(testItem);
+                // Run:
+                boolean rejected = false;
+                try {
+                    testItem.write('x');
+                } catch (final IOException e) {
+                    rejected = true;
+                }
+                returned(rejected && f.length() == 10);
+                // Tear down:
+                f.delete();
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "MappedFileInputStream reads across windows" + windows, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final File f = File.createTempFile("huffstream", ".bin");
+                Files.write(f.toPath(), data);
+                final MappedFileInputStream testItem = new MappedFileInputStream(f, WINDOW_SIZE, unmapWindows);
+                starting(testItem);
+                // Run:
+                final ByteArrayOutputStream read = new ByteArrayOutputStream();
+                // A read never crosses a window, the rest comes from the next
+                final byte[] piece = new byte[WINDOW_SIZE + 100];
+                final boolean windowEnd = testItem.read(piece, 0, 100) == 100
+                        && testItem.read(piece, 100, WINDOW_SIZE) == WINDOW_SIZE - 100;
+                read.write(piece, 0, WINDOW_SIZE);
+                int numRead = testItem.read(piece, 0, 7);
+                while (numRead != -1) {
+                    read.write(piece, 0, numRead);
+                    final int value = testItem.read();
+                    if (value != -1) {
+                        read.write(value);
+                    }
+                    numRead = testItem.read(piece, 0, 7);
+                }
+                final boolean ended = testItem.getPosition() == data.length && testItem.available() == 0
+                        && testItem.read() == -1;
+                testItem.close();
+                returned(windowEnd && ended && Arrays.equals(data, read.toByteArray()));
+                // Tear down:
+                f.delete();
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "MappedFileInputStream skips across windows" + windows, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final File f = File.createTempFile("huffstream", ".bin");
+                Files.write(f.toPath(), data);
+                final MappedFileInputStream testItem = new MappedFileInputStream(f, WINDOW_SIZE, unmapWindows);
+                starting(testItem);
+                // Run:
+                final boolean inWindow = testItem.skip(10) == 10 && testItem.read() == (data[10] & 0xff);
+                final long far = 3 * WINDOW_SIZE + 5;
+                final boolean acrossWindows = testItem.skip(far - 11) == far - 11 && testItem.getPosition() == far
+                        && testItem.read() == (data[(int) far] & 0xff);
+                final boolean toWindowStart = testItem.skip(WINDOW_SIZE - 6) == WINDOW_SIZE - 6
+                        && testItem.read() == (data[4 * WINDOW_SIZE] & 0xff);
+                final long left = data.length - testItem.getPosition();
+                final boolean pastEnd = testItem.skip(data.length) == left && testItem.read() == -1;
+                testItem.close();
+                returned(inWindow && acrossWindows && toWindowStart && pastEnd);
+                // Tear down:
+                f.delete();
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "MappedFileInputStream can't be read after close" + windows, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final File f = File.createTempFile("huffstream", ".bin");
+                Files.write(f.toPath(), data);
+                final MappedFileInputStream testItem = new MappedFileInputStream(f, WINDOW_SIZE, unmapWindows);
+                testItem.read();
+                testItem.close();
+                testItem.close();
+                starting(testItem);
+                // Run:
+                boolean rejected = false;
+                try {
+                    testItem.read();
+                } catch (final IOException e) {
+                    rejected = true;
+                }
+                returned(rejected && testItem.getPosition() == 1);
+                // Tear down:
+                f.delete();
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "MappedFileInputStream reads an empty file" + windows, true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final File f = File.createTempFile("huffstream", ".bin");
+                final MappedFileInputStream testItem = new MappedFileInputStream(f, WINDOW_SIZE, unmapWindows);
+                starting(testItem);
+                // Run:
+                final boolean empty = testItem.read() == -1 && testItem.read(new byte[10], 0, 10) == -1
+                        && testItem.skip(10) == 0 && testItem.length() == 0;
+                testItem.close();
+                returned(empty);
+                // Tear down:
+                f.delete();
+            }
+        };
+    }
+
+    private static void runBitOutputTests(final BevoTest.Test ts, final byte[] data) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "BitOutputStream writes up to 64 bits at a time", true, TIMEOUT) {
+            @Override
+            public void executeTest() {
+                // Set up:
+                final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                final BitOutputStream testItem = new BitOutputStream(sink);
+                final StringBuilder expected = new StringBuilder();
+                final long[] values = { 0x0123456789abcdefL, -1L, 0x8000000000000001L, 0L };
+                starting(testItem);
+                // Run:
+                for (int howManyBits = 1; howManyBits <= 64; howManyBits++) {
+                    final long value = values[howManyBits % values.length] ^ howManyBits;
+                    testItem.writeBits(howManyBits, value);
+                    appendBits(expected, howManyBits, value);
+                }
+                testItem.writeBits(3, 5);
+                appendBits(expected, 3, 5);
+                testItem.writeBits(64, values[0]);
+                appendBits(expected, 64, values[0]);
+                testItem.close();
+                returned(Arrays.equals(packBits(expected), sink.toByteArray()));
+                // Tear down: NONE
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "BitOutputStream writes arrays between bits", true, TIMEOUT) {
+            @Override
+            public void executeTest() {
+                // Set up:
+                final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                final BitOutputStream testItem = new BitOutputStream(sink);
+                final StringBuilder expected = new StringBuilder();
+                starting(testItem);
+                // Run:
+                // Off a byte boundary every byte goes through the bits
+                testItem.writeBits(3, 5);
+                appendBits(expected, 3, 5);
+                testItem.write(data, 0, data.length);
+                appendBytes(expected, data, 0, data.length);
+                // Back on a byte boundary, with bits still waiting
+                testItem.writeBits(13, 0x1abc);
+                appendBits(expected, 13, 0x1abc);
+                testItem.write(data, 0, 100);
+                appendBytes(expected, data, 0, 100);
+                // More than the buffer holds is written straight through
+                testItem.write(data, 0, data.length);
+                appendBytes(expected, data, 0, data.length);
+                testItem.write('z');
+                appendBits(expected, 8, 'z');
+                testItem.writeBits(1, 1);
+                appendBits(expected, 1, 1);
+                testItem.write('z');
+                appendBits(expected, 8, 'z');
+                testItem.close();
+                returned(data.length > 1 << 13 && Arrays.equals(packBits(expected), sink.toByteArray()));
+                // Tear down: NONE
+            }
+        };
+
+        // Output is held until flush, which pads the last byte with zeros,
+        // and write(int) writes 8 bits after the bits before it.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "BitOutputStream holds output until flush and pads the last byte", true, TIMEOUT) {
+            @Override
+            public void executeTest() {
+                // Set up:
+                final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                final BitOutputStream testItem = new BitOutputStream(sink);
+                starting(testItem);
+                // Run:
+                testItem.writeBits(3, 7);
+                testItem.write('A');
+                final boolean held = sink.size() == 0;
+                testItem.flush();
+                final byte[] flushed = sink.toByteArray();
+                testItem.flush();
+                final boolean flushedOnce = sink.size() == flushed.length;
+                testItem.writeBits(1, 1);
+                testItem.close();
+                returned(held && flushedOnce
+                        && Arrays.equals(new byte[] { (byte) 0xe8, 0x20, (byte) 0x80 }, sink.toByteArray()));
+                // Tear down: NONE
+            }
+        };
+    }
+
+    private static void runBitInputTests(final BevoTest.Test ts, final byte[] data) {
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "BitInputStream peeks the bits readBits returns", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final BitInputStream testItem = new BitInputStream(new ByteArrayInputStream(data));
+                starting(testItem);
+                // Run:
+                boolean same = true;
+                int howManyBits = 1;
+                while (testItem.bitsAvailable() >= howManyBits) {
+                    final int peeked = testItem.peekBits(howManyBits);
+                    same = same && peeked == testItem.peekBits(howManyBits) && peeked == testItem.readBits(howManyBits);
+                    howManyBits = howManyBits % 32 + 1;
+                }
+                returned(same);
+                // Tear down: NONE
+            }
+        };
+
+        // 0xabcdef is 24 bits, 19 are left after the first 5.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "BitInputStream peeks and skips at the end of the stream", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final BitInputStream testItem = new BitInputStream(new ByteArrayInputStream(new byte[] { (byte) 0xab, (byte) 0xcd, (byte) 0xef }));
+                starting(testItem);
+                // Run:
+                final boolean start = testItem.bitsAvailable() == 24 && testItem.readBits(5) == 0x15;
+                final boolean partial = testItem.bitsAvailable() == 19
+                        && testItem.peekBits(32) == 0x3cdef << 13
+                        && testItem.peekBits(19) == 0x3cdef;
+                final boolean skipped = testItem.skipBits(3) == 3 && testItem.skipBits(30) == 16;
+                final boolean ended = testItem.bitsAvailable() == 0 && testItem.peekBits(1) == -1
+                        && testItem.peekBits(0) == 0 && testItem.readBits(1) == -1 && testItem.read() == -1
+                        && testItem.skipBits(1) == 0;
+                returned(start && partial && skipped && ended);
+                // Tear down: NONE
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "BitInputStream readBits past the end consumes nothing", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final BitInputStream testItem = new BitInputStream(new ByteArrayInputStream(new byte[] { (byte) 0xab, (byte) 0xcd }));
+                starting(testItem);
+                // Run:
+                final boolean first = testItem.readBits(3) == 0x5;
+                final boolean tooMany = testItem.readBits(14) == -1 && testItem.readBits(32) == -1;
+                final boolean rest = testItem.readBits(13) == 0xbcd && testItem.readBits(1) == -1;
+                returned(first && tooMany && rest);
+                // Tear down: NONE
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "BitInputStream reads arrays on a byte boundary to the end", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final BitInputStream testItem = new BitInputStream(new ByteArrayInputStream(data));
+                starting(testItem);
+                // Run:
+                // Some bytes come from the bits, then the buffer, then the stream
+                final ByteArrayOutputStream read = new ByteArrayOutputStream();
+                read.write(testItem.readBits(8));
+                final byte[] piece = new byte[1000];
+                int numRead = testItem.read(piece, 0, piece.length);
+                while (numRead != -1) {
+                    read.write(piece, 0, numRead);
+                    numRead = testItem.read(piece, 0, piece.length);
+                }
+                returned(Arrays.equals(data, read.toByteArray()) && testItem.read() == -1
+                        && testItem.bitsAvailable() == 0 && testItem.read(piece, 0, 0) == 0);
+                // Tear down: NONE
+            }
+        };
+
+        // Off a byte boundary every byte spans two bytes of the input and
+        // the last 4 bits are not a whole byte.
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "BitInputStream reads arrays off a byte boundary to the end", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final BitInputStream testItem = new BitInputStream(new ByteArrayInputStream(data));
+                final byte[] expected = new byte[data.length - 1];
+                for (int k = 0; k < expected.length; k++) {
+                    expected[k] = (byte) (data[k] << 4 | (data[k + 1] & 0xff) >>> 4);
+                }
+                starting(testItem);
+                // Run:
+                final boolean first = testItem.readBits(4) == (data[0] & 0xff) >>> 4;
+                final byte[] read = new byte[data.length];
+                final int numRead = testItem.read(read, 0, read.length);
+                final boolean ended = testItem.read(read, 0, read.length) == -1
+                        && testItem.bitsAvailable() == 4 && testItem.readBits(4) == (data[data.length - 1] & 0xf);
+                returned(first && ended && numRead == expected.length
+                        && Arrays.equals(expected, Arrays.copyOf(read, numRead)));
+                // Tear down: NONE
+            }
+        };
+
+        new BevoTest.TestReturns<Object, Boolean>(ts, Object.class, "BitInputStream reads a file and resets", true, TIMEOUT) {
+            @Override
+            public void executeTest() throws IOException {
+                // Set up:
+                final File f = File.createTempFile("huffstream", ".bin");
+                Files.write(f.toPath(), data);
+                final BitInputStream testItem = new BitInputStream(f);
+                starting(testItem);
+                // Run:
+                final ByteArrayOutputStream read = new ByteArrayOutputStream();
+                final byte[] piece = new byte[1000];
+                int numRead = testItem.read(piece, 0, piece.length);
+                while (numRead != -1) {
+                    read.write(piece, 0, numRead);
+                    numRead = testItem.read(piece, 0, piece.length);
+                }
+                testItem.reset();
+                final boolean reset = testItem.markSupported() && testItem.readBits(8) == (data[0] & 0xff);
+                testItem.close();
+                returned(reset && Arrays.equals(data, read.toByteArray()));
+                // Tear down:
+                f.delete();
+            }
+        };
+    }
+
+    // Add the low howManyBits bits of value to bits, most significant first.
+    private static void appendBits(final StringBuilder bits, final int howManyBits, final long value) {
+        for (int k = howManyBits - 1; k >= 0; k--) {
+            bits.append((value >>> k & 1) == 0 ? '0' : '1');
+        }
+    }
+
+    private static void appendBytes(final StringBuilder bits, final byte[] data, final int off, final int len) {
+        for (int k = off; k < off + len; k++) {
+            appendBits(bits, 8, data[k]);
+        }
+    }
+
+    // The bytes holding bits, the last one padded with zeros.
+    private static byte[] packBits(final StringBuilder bits) {
+        final byte[] packed = new byte[(bits.length() + 7) / 8];
+        for (int k = 0; k < bits.length(); k++) {
+            if (bits.charAt(k) == '1') {
+                packed[k / 8] |= 0x80 >>> (k % 8);
+            }
+        }
+        return packed;
+    }
+
+    // Write data in pieces of growing size, some single bytes.
+    private static void writeInPieces(final OutputStream out, final byte[] data) throws IOException {
+        int pos = 0;
+        int size = 1;
+        while (pos < data.length) {
+            if (size % 3 == 0) {
+                out.write(data[pos++]);
+            } else {
+                final int count = Math.min(size, data.length - pos);
+                out.write(data, pos, count);
+                pos += count;
+            }
+            size = size * 2 % (3 * BLOCK_SIZE) + 1;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Builds Huffman trees from a table of frequencies. A leaf is created for
+ * every value with a non zero frequency, in order of value, and the two
+ * lowest frequency trees are combined until one tree remains. Ties are broken
+ * first in first out so the same frequencies always produce the same tree.
+ * <P>
+ * When the leaves already arrive sorted by frequency the tree is built in
+ * linear time with two queues, one for leaves and one for combined trees,
+ * otherwise a heap based <code>PriorityQueue</code> is used. Both produce
+ * exactly the same tree.
+ */
+public class HuffTreeBuilder {
+
+    // All methods are static.
+    private HuffTreeBuilder() {
+    }
+
+    /**
+     * Build the Huffman tree for the given frequencies.
+     *
+     * @param freqs the frequency of every value, indexed by value
+     * @return the root of the Huffman tree, null if every frequency is zero
+     */
+    public static TreeNode buildTree(int[] freqs) {
+        TreeNode[] leaves = new TreeNode[freqs.length];
+        int numLeaves = 0;
+        boolean sorted = true;
+        for (int k = 0; k < freqs.length; k++) {
+            if (freqs[k] > 0) {
+                leaves[numLeaves] = new TreeNode(k, freqs[k]);
+                if (numLeaves > 0 && leaves[numLeaves - 1].getFrequency() > freqs[k]) {
+                    sorted = false;
+                }
+                numLeaves++;
+            }
+        }
+        if (sorted) {
+            return buildTreeFromSorted(leaves, numLeaves);
+        }
+        return buildTreeWithQueue(leaves, numLeaves);
+    }
+
+    /**
+     * Build a Huffman tree with a priority queue.
+     *
+     * @param leaves    the leaf nodes in the order they are added to the queue
+     * @param numLeaves the number of leaves in the array that are used
+     * @return the root of the Huffman tree, null if there are no leaves
+     */
+    public static TreeNode buildTreeWithQueue(TreeNode[] leaves, int numLeaves) {
+        PriorityQueue<TreeNode> huffTreeQ = new PriorityQueue<>();
+        for (int k = 0; k < numLeaves; k++) {
+            huffTreeQ.enqueue(leaves[k]);
+        }
+        while (huffTreeQ.size() > 1) {
+            TreeNode left = huffTreeQ.dequeue();
+            TreeNode right = huffTreeQ.dequeue();
+            huffTreeQ.enqueue(new TreeNode(left, left.getFrequency() + right.getFrequency(), right));
+        }
+        return huffTreeQ.dequeue();
+    }
+
+    /**
+     * Build a Huffman tree in linear time from leaves sorted by frequency.
+     * Combined trees are created in order of frequency so they form a second
+     * sorted queue. On a tie the leaf is taken first, which matches a
+     * priority queue where all the leaves were added before any combined tree.
+     * <br>
+     * pre: the frequencies of leaves[0] to leaves[numLeaves - 1] never decrease
+     *
+     * @param leaves    the leaf nodes sorted by frequency
+     * @param numLeaves the number of leaves in the array that are used
+     * @return the root of the Huffman tree, null if there are no leaves
+     */
+    public static TreeNode buildTreeFromSorted(TreeNode[] leaves, int numLeaves) {
+        if (numLeaves == 0) {
+            return null;
+        }
+        TreeNode[] combined = new TreeNode[Math.max(1, numLeaves - 1)];
+        int leafFront = 0;
+        int combinedFront = 0;
+        int combinedBack = 0;
+        for (int k = 1; k < numLeaves; k++) {
+            TreeNode left;
+            if (takeLeaf(leaves, leafFront, numLeaves, combined, combinedFront, combinedBack)) {
+                left = leaves[leafFront++];
+            } else {
+                left = combined[combinedFront++];
+            }
+            TreeNode right;
+            if (takeLeaf(leaves, leafFront, numLeaves, combined, combinedFront, combinedBack)) {
+                right = leaves[leafFront++];
+            } else {
+                right = combined[combinedFront++];
+            }
+            combined[combinedBack++] = new TreeNode(left, left.getFrequency() + right.getFrequency(), right);
+        }
+        return numLeaves == 1 ? leaves[0] : combined[combinedBack - 1];
+    }
+
+    // Return true if the next smallest tree is the front of the leaf queue.
+    private static boolean takeLeaf(TreeNode[] leaves, int leafFront, int numLeaves,
+            TreeNode[] combined, int combinedFront, int combinedBack) {
+        if (leafFront == numLeaves) {
+            return false;
+        }
+        if (combinedFront == combinedBack) {
+            return true;
+        }
+        return leaves[leafFront].getFrequency() <= combined[combinedFront].getFrequency();
+    }
+}
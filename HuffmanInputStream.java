@@ -0,0 +1,134 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream filter that uncompresses STORE_BLOCKS data as it is read,
+ * the way <code>GZIPInputStream</code> does, such as the data written by
+ * <code>HuffmanOutputStream</code>. Data is decoded a block at a time, so
+ * the bytes of a block can be read as soon as the block has arrived, long
+ * before the rest of the data has.
+ */
+public class HuffmanInputStream extends FilterInputStream implements IHuffConstants {
+
+    private byte[] block;
+    private int blockPos;
+    private int blockLength;
+    private boolean ended;
+    // Holds the bytes of an int as it is read
+    private final byte[] intBytes = new byte[BITS_PER_INT / BITS_PER_WORD];
+
+    /**
+     * Create a stream that reads the header from in at once.
+     * @param in the stream the compressed data is read from
+     * @throws IOException if the header can't be read or is not the
+     * STORE_BLOCKS format
+     */
+    public HuffmanInputStream(InputStream in) throws IOException {
+        super(in);
+        if (readInt() != MAGIC_NUMBER) {
+            throw new IOException("Invalid magic number, data is not compressed");
+        }
+        int headerType = readInt();
+        if (headerType != STORE_BLOCKS) {
+            throw new IOException("Header format " + headerType + " can't be read as a stream");
+        }
+        int blockSize = readInt();
+        if (blockSize < 1) {
+            throw new IOException("invalid block size " + blockSize);
+        }
+        block = new byte[blockSize];
+    }
+
+    public int read() throws IOException {
+        if (blockPos == blockLength && !nextBlock()) {
+            return -1;
+        }
+        return block[blockPos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (blockPos == blockLength && !nextBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, blockLength - blockPos);
+        System.arraycopy(block, blockPos, b, off, count);
+        blockPos += count;
+        return count;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (blockPos < blockLength || nextBlock())) {
+            int count = (int) Math.min(n - skipped, blockLength - blockPos);
+            blockPos += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    /**
+     * Return the number of decoded bytes that can be read without reading
+     * the underlying stream.
+     * @return the bytes left in the current block
+     */
+    public int available() {
+        return blockLength - blockPos;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void mark(int readlimit) {
+    }
+
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    // Read and decode the next block, return false at the end of the data.
+    private boolean nextBlock() throws IOException {
+        if (ended) {
+            return false;
+        }
+        int length = readInt();
+        if (length == 0) {
+            ended = true;
+            return false;
+        }
+        int payloadLength = readInt();
+        if (length < 0 || length > block.length || payloadLength < 1) {
+            throw new IOException("invalid block lengths " + length + " " + payloadLength);
+        }
+        byte[] payload = new byte[payloadLength];
+        readFully(payload);
+        BlockHuffCodec.decodeBlock(payload, block, 0, length);
+        blockPos = 0;
+        blockLength = length;
+        return true;
+    }
+
+    private int readInt() throws IOException {
+        readFully(intBytes);
+        return ((intBytes[0] & 0xff) << 24) | ((intBytes[1] & 0xff) << 16) | ((intBytes[2] & 0xff) << 8)
+                | (intBytes[3] & 0xff);
+    }
+
+    private void readFully(byte[] dest) throws IOException {
+        int length = 0;
+        while (length < dest.length) {
+            int numRead = in.read(dest, length, dest.length - length);
+            if (numRead == -1) {
+                throw new IOException("unexpected end of block data");
+            }
+            length += numRead;
+        }
+    }
+}
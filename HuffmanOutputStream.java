@@ -0,0 +1,140 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream filter that compresses the data written to it, the way
+ * <code>GZIPOutputStream</code> does, so Huffman coding can be dropped into an
+ * existing stream pipeline. The data is written in the STORE_BLOCKS format
+ * (see <code>BlockHuffCodec</code>), so anything that uncompresses files
+ * can read it, and <code>HuffmanInputStream</code> can read it as it arrives.
+ * <P>
+ * Bytes are kept in a block until it is full, then the block is coded and
+ * written to the underlying stream. <code>flush</code> codes the bytes kept
+ * so far as a shorter block, so everything written before a flush can be
+ * read by the other end, at some cost in compression if done often.
+ * <code>finish</code> or <code>close</code> must be called or the end of the
+ * data is not written.
+ */
+public class HuffmanOutputStream extends FilterOutputStream implements IHuffConstants {
+
+    private byte[] block;
+    private int blockLength;
+    private boolean finished;
+
+    /**
+     * Create a stream with the default block size that writes the header
+     * to out at once.
+     * @param out the stream the compressed data is written to
+     * @throws IOException if an error occurs writing the header
+     */
+    public HuffmanOutputStream(OutputStream out) throws IOException {
+        this(out, BlockHuffCodec.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a stream that writes the header to out at once.
+     * @param out the stream the compressed data is written to
+     * @param blockSize the most bytes coded together, at least 1
+     * @throws IOException if an error occurs writing the header
+     */
+    public HuffmanOutputStream(OutputStream out, int blockSize) throws IOException {
+        super(out);
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be at least 1");
+        }
+        block = new byte[blockSize];
+        writeInt(MAGIC_NUMBER);
+        writeInt(STORE_BLOCKS);
+        writeInt(blockSize);
+    }
+
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (blockLength == block.length) {
+            writeBlock();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            if (blockLength == block.length) {
+                writeBlock();
+            }
+            int count = Math.min(len, block.length - blockLength);
+            System.arraycopy(b, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Code the bytes written since the last block as a block of their own
+     * and flush the underlying stream.
+     * @throws IOException if an error occurs writing the block
+     */
+    public void flush() throws IOException {
+        if (!finished) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the last block and the end of the data without closing the
+     * underlying stream. Nothing can be written afterwards.
+     * @throws IOException if an error occurs writing the data
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        writeBlock();
+        // An empty block marks the end
+        writeInt(0);
+        finished = true;
+    }
+
+    /**
+     * Write the end of the data and close the underlying stream.
+     * @throws IOException if an error occurs writing or closing
+     */
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Code the kept bytes, if any, and write their frame.
+    private void writeBlock() throws IOException {
+        if (blockLength == 0) {
+            return;
+        }
+        byte[] payload = BlockHuffCodec.encodeBlock(block, 0, blockLength);
+        writeInt(blockLength);
+        writeInt(payload.length);
+        out.write(payload);
+        blockLength = 0;
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("write after finish");
+        }
+    }
+}
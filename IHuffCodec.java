@@ -0,0 +1,38 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A way of coding a whole stream that a HuffProcessor can use for header
+ * formats other than the single tree formats. The processor writes and
+ * checks the magic number and the header format constant, the codec writes
+ * and reads everything that follows them.
+ */
+public interface IHuffCodec extends IHuffConstants {
+
+    /**
+     * Return the header format constant that identifies data coded by this codec.
+     * @return the header format written after the magic number
+     */
+    public int getHeaderFormat();
+
+    /**
+     * Code all of in and write the result to out. The input is read once
+     * and in is not closed.
+     * @param in is the data to code (NOT a BitInputStream)
+     * @param out is where the coded bits are written
+     * @return the number of bits written to out
+     * @throws IOException if an error occurs reading in or writing out
+     */
+    public int encode(InputStream in, BitOutputStream out) throws IOException;
+
+    /**
+     * Decode data written by <code>encode</code> and write the original data to out.
+     * @param in is positioned just after the header format constant
+     * @param out is where the original data is written
+     * @return the number of bits written to out
+     * @throws IOException if the coded data is not valid or an error occurs
+     * reading in or writing out
+     */
+    public int decode(BitInputStream in, OutputStream out) throws IOException;
+}
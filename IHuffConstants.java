@@ -58,6 +58,82 @@ public interface IHuffConstants {
      * A value in files compressed with a HuffProcessor indicating
      * the code values are stored in a custom format. Something
      * besides Standard Count Format or Standard Tree Format.
+     * The codes are canonical Huffman codes and only the length of the
+     * code for each value is stored, see <code>CanonicalCode</code>.
      */      
     public static final int STORE_CUSTOM = MAGIC_NUMBER | 4;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is split into blocks that each have their own code,
+     * see <code>BlockHuffCodec</code>.
+     */
+    public static final int STORE_BLOCKS = MAGIC_NUMBER | 5;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is coded with an adaptive Huffman code that is updated
+     * after every value, so there is no header and the input is read once,
+     * see <code>AdaptiveHuffCodec</code>.
+     */
+    public static final int STORE_ADAPTIVE = MAGIC_NUMBER | 6;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * every byte is coded with a code chosen by the byte before it,
+     * see <code>Order1HuffCodec</code>.
+     */
+    public static final int STORE_ORDER1 = MAGIC_NUMBER | 7;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is coded with a trained model that is not stored in the
+     * file, only its id is, see <code>ModelHuffCodec</code>.
+     */
+    public static final int STORE_MODEL = MAGIC_NUMBER | 8;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is split into blocks whose codes are dealt into four
+     * streams that can be decoded together,
+     * see <code>InterleavedHuffCodec</code>.
+     */
+    public static final int STORE_INTERLEAVED = MAGIC_NUMBER | 9;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is split into blocks coded with table-based asymmetric
+     * numeral systems instead of Huffman codes, see <code>FseCodec</code>.
+     */
+    public static final int STORE_FSE = MAGIC_NUMBER | 10;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is coded with a range coder and an adaptive model, so there
+     * is no header and the input is read once, see <code>RangeCodec</code>.
+     */
+    public static final int STORE_RANGE = MAGIC_NUMBER | 11;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * repeated strings are replaced by LZ77 matches and the literals and
+     * matches are Huffman coded like deflate, see <code>LzHuffCodec</code>.
+     */
+    public static final int STORE_LZ77 = MAGIC_NUMBER | 12;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is coded in blocks where runs of a repeated byte can be
+     * replaced by run values in the same Huffman code, see
+     * <code>RleHuffCodec</code>.
+     */
+    public static final int STORE_RLE = MAGIC_NUMBER | 13;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is coded in blocks like bzip2, with the Burrows-Wheeler
+     * transform, move-to-front and Huffman codes, see
+     * <code>BwtHuffCodec</code>.
+     */
+    public static final int STORE_BWT = MAGIC_NUMBER | 14;
 }
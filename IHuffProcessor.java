@@ -1,6 +1,9 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * The interface for the model that can be attached
@@ -57,6 +60,26 @@ public interface IHuffProcessor extends IHuffConstants {
     public int compress(InputStream in, OutputStream out, boolean force) throws IOException;
 
 
+    /**
+     * Compresses input to output reading the input only once. Does the work of
+     * <code>preprocessCompress</code> and <code>compress</code> in one call, so
+     * it works on streams that can't be read twice such as pipes and sockets.
+     * The output is always written, as if <code>compress</code> was called
+     * with force set to true.
+     * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param out is bound to a file/stream to which bits are written
+     * for the compressed file (not a BitOutputStream)
+     * @param headerFormat a constant from IHuffProcessor that determines what kind of
+     * header to use, standard count format, standard tree format, or
+     * possibly some format added in the future.
+     * @return the number of bits written, the same number <code>compress</code>
+     * returns for the same input.
+     * @throws IOException if an error occurs while reading from the input file or
+     * writing to the output file.
+     */
+    public int compress(InputStream in, OutputStream out, int headerFormat) throws IOException;
+
+
     /**
      * Uncompress a previously compressed stream in, writing the
      * uncompressed bits/data to out.
@@ -68,4 +91,60 @@ public interface IHuffProcessor extends IHuffConstants {
      */
     public int uncompress(InputStream in, OutputStream out) throws IOException;
 
+
+    /**
+     * Compresses the bytes of src from its position to its limit into dst
+     * starting at its position. Heap and direct buffers are read and written
+     * in place. The positions of both buffers are moved past the bytes
+     * read and written. The output is always written, as if
+     * <code>compress</code> was called with force set to true.
+     * @param src holds the data being compressed
+     * @param dst is where the compressed data is written
+     * @param headerFormat a constant from IHuffProcessor that determines what kind of
+     * header to use
+     * @return the number of bits written
+     * @throws IOException if the data can't be compressed with headerFormat
+     * @throws java.nio.BufferOverflowException if the compressed data doesn't fit in dst
+     */
+    public int compress(ByteBuffer src, ByteBuffer dst, int headerFormat) throws IOException;
+
+
+    /**
+     * Uncompresses the compressed data in src, starting at its position,
+     * into dst starting at its position. Heap and direct buffers are read and
+     * written in place. The position of dst is moved past the bytes written.
+     * @param src holds the previously compressed data
+     * @param dst is where the uncompressed data is written
+     * @return the number of bits written
+     * @throws IOException if src does not hold valid compressed data
+     * @throws java.nio.BufferOverflowException if the uncompressed data doesn't fit in dst
+     */
+    public int uncompress(ByteBuffer src, ByteBuffer dst) throws IOException;
+
+
+    /**
+     * Compresses everything read from src to dst reading src only once,
+     * like <code>compress(InputStream, OutputStream, int)</code>. Both
+     * channels are closed when done, as the streams are.
+     * @param src is the channel being compressed
+     * @param dst is the channel the compressed data is written to
+     * @param headerFormat a constant from IHuffProcessor that determines what kind of
+     * header to use
+     * @return the number of bits written
+     * @throws IOException if an error occurs while reading from src or writing to dst
+     */
+    public int compress(ReadableByteChannel src, WritableByteChannel dst, int headerFormat) throws IOException;
+
+
+    /**
+     * Uncompresses everything read from src to dst, like
+     * <code>uncompress(InputStream, OutputStream)</code>. Both channels are
+     * closed when done, as the streams are.
+     * @param src is the channel holding the previously compressed data
+     * @param dst is the channel the uncompressed data is written to
+     * @return the number of bits written
+     * @throws IOException if an error occurs while reading from src or writing to dst
+     */
+    public int uncompress(ReadableByteChannel src, WritableByteChannel dst) throws IOException;
+
 }
@@ -0,0 +1,284 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Codes a stream in blocks whose codes are dealt round robin into four
+ * separate bit streams, so the decoder can decode four codes at a time.
+ * With a single stream where each code starts depends on the length of the
+ * code before it, so decoding is one long chain of dependent steps. The
+ * four streams don't depend on each other and the processor can work on
+ * all four chains at once.
+ * <P>
+ * After the header format the block size is stored as an int. Then each
+ * block is stored as the number of original bytes in the block (an int),
+ * the number of bytes in its payload (an int) and the payload. A block with
+ * zero original bytes ends the stream. A payload starts with the code
+ * lengths in <code>CanonicalCode</code> form, padded to a byte boundary,
+ * followed by the number of bytes in each of the four streams (four ints)
+ * and then the streams. Byte k of the block is coded in stream k % 4.
+ */
+public class InterleavedHuffCodec implements IHuffCodec {
+
+    /**
+     * The number of original bytes in each block unless another size is given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    // Number of interleaved streams
+    private static final int NUM_STREAMS = 4;
+
+    // The longest code, so each code is found with one lookup in a single
+    // table and four codes fit in a refilled window
+    private static final int MAX_CODE_LENGTH = 12;
+    private static final int TABLE_MASK = (1 << MAX_CODE_LENGTH) - 1;
+
+    // Table entries hold the value above the length of its code
+    private static final int LENGTH_BITS = 4;
+    private static final int LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+
+    // A window is refilled a byte at a time while it holds no more than this
+    private static final int REFILL_BITS = 64 - BITS_PER_WORD;
+
+    private static final int BYTES_PER_INT = BITS_PER_INT / BITS_PER_WORD;
+
+    private final int blockSize;
+
+    /**
+     * Create a codec with the default block size.
+     */
+    public InterleavedHuffCodec() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a codec that splits its input into blocks of blockSize bytes.
+     * @param blockSize the number of original bytes in each block, at least 1
+     */
+    public InterleavedHuffCodec(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be at least 1");
+        }
+        this.blockSize = blockSize;
+    }
+
+    public int getHeaderFormat() {
+        return STORE_INTERLEAVED;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        out.writeBits(BITS_PER_INT, blockSize);
+        int bitsWritten = BITS_PER_INT;
+        byte[] block = new byte[blockSize];
+        int length = BlockHuffCodec.readBlock(in, block);
+        while (length > 0) {
+            bitsWritten += BlockHuffCodec.writeBlock(out, length, encodeBlock(block, length));
+            length = BlockHuffCodec.readBlock(in, block);
+        }
+        // An empty block marks the end
+        out.writeBits(BITS_PER_INT, 0);
+        return bitsWritten + BITS_PER_INT;
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        int storedBlockSize = BlockHuffCodec.readBlockSize(in);
+        byte[] block = new byte[storedBlockSize];
+        int bitsWritten = 0;
+        int length = BlockHuffCodec.readInt(in);
+        while (length != 0) {
+            decodeBlock(BlockHuffCodec.readPayload(in, length, storedBlockSize), block, length);
+            out.write(block, 0, length);
+            bitsWritten += length * BITS_PER_WORD;
+            length = BlockHuffCodec.readInt(in);
+        }
+        return bitsWritten;
+    }
+
+    /*
+     * Code one block and return its payload.
+     */
+    private static byte[] encodeBlock(byte[] block, int length) {
+        int[] freqs = new int[ALPH_SIZE];
+        FrequencyCounter.count(block, 0, length, freqs);
+        int[] lengths = CanonicalCode.limitedLengths(freqs, MAX_CODE_LENGTH);
+        int[] codes = CanonicalCode.assignCodes(lengths);
+        ByteArrayOutputStream[] bytes = new ByteArrayOutputStream[NUM_STREAMS];
+        BitOutputStream[] streams = new BitOutputStream[NUM_STREAMS];
+        for (int s = 0; s < NUM_STREAMS; s++) {
+            bytes[s] = new ByteArrayOutputStream(length / NUM_STREAMS + 16);
+            streams[s] = new BitOutputStream(bytes[s]);
+        }
+        for (int k = 0; k < length; k++) {
+            int value = block[k] & 0xff;
+            streams[k % NUM_STREAMS].writeBits(lengths[value], codes[value]);
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        BitOutputStream payloadBits = new BitOutputStream(payload);
+        CanonicalCode.writeLengths(payloadBits, lengths);
+        for (int s = 0; s < NUM_STREAMS; s++) {
+            streams[s].flush();
+        }
+        // Pad the code lengths so the stream lengths start on a byte boundary
+        payloadBits.flush();
+        for (int s = 0; s < NUM_STREAMS; s++) {
+            payloadBits.writeBits(BITS_PER_INT, bytes[s].size());
+        }
+        for (int s = 0; s < NUM_STREAMS; s++) {
+            payloadBits.write(bytes[s].toByteArray(), 0, bytes[s].size());
+        }
+        payloadBits.flush();
+        return payload.toByteArray();
+    }
+
+    /*
+     * Decode the payload of one block into the first length bytes of dest.
+     */
+    private static void decodeBlock(byte[] payload, byte[] dest, int length) throws IOException {
+        BitInputStream header = new BitInputStream(new ByteArrayInputStream(payload));
+        int[] lengths = CanonicalCode.readLengths(header, ALPH_SIZE);
+        if (CanonicalCode.maxLength(lengths) > MAX_CODE_LENGTH) {
+            throw new IOException("code too long for an interleaved block");
+        }
+        int[] table = buildTable(lengths);
+        int pos = (CanonicalCode.headerBits(lengths) + BITS_PER_WORD - 1) / BITS_PER_WORD;
+        int[] starts = new int[NUM_STREAMS + 1];
+        starts[0] = pos + NUM_STREAMS * BYTES_PER_INT;
+        if (starts[0] > payload.length) {
+            throw new IOException("interleaved block is too short");
+        }
+        for (int s = 0; s < NUM_STREAMS; s++) {
+            long streamLength = getInt(payload, pos + s * BYTES_PER_INT) & 0xffffffffL;
+            if (starts[s] + streamLength > payload.length) {
+                throw new IOException("interleaved stream runs past its block");
+            }
+            starts[s + 1] = starts[s] + (int) streamLength;
+        }
+        decodeStreams(payload, starts, table, dest, length);
+    }
+
+    /*
+     * Decode the four streams that start at starts[0..3] of payload into
+     * dest, four codes from each stream per refill.
+     */
+    private static void decodeStreams(byte[] payload, int[] starts, int[] table, byte[] dest, int length)
+            throws IOException {
+        int limit = payload.length;
+        int pos0 = starts[0];
+        int pos1 = starts[1];
+        int pos2 = starts[2];
+        int pos3 = starts[3];
+        long bits0 = 0;
+        long bits1 = 0;
+        long bits2 = 0;
+        long bits3 = 0;
+        int count0 = 0;
+        int count1 = 0;
+        int count2 = 0;
+        int count3 = 0;
+        int k = 0;
+        // Sixteen bytes per round, four from each stream
+        int fastEnd = length - NUM_STREAMS * NUM_STREAMS;
+        while (k <= fastEnd) {
+            while (count0 <= REFILL_BITS) {
+                bits0 = (bits0 << BITS_PER_WORD) | (pos0 < limit ? payload[pos0] & 0xff : 0);
+                pos0++;
+                count0 += BITS_PER_WORD;
+            }
+            while (count1 <= REFILL_BITS) {
+                bits1 = (bits1 << BITS_PER_WORD) | (pos1 < limit ? payload[pos1] & 0xff : 0);
+                pos1++;
+                count1 += BITS_PER_WORD;
+            }
+            while (count2 <= REFILL_BITS) {
+                bits2 = (bits2 << BITS_PER_WORD) | (pos2 < limit ? payload[pos2] & 0xff : 0);
+                pos2++;
+                count2 += BITS_PER_WORD;
+            }
+            while (count3 <= REFILL_BITS) {
+                bits3 = (bits3 << BITS_PER_WORD) | (pos3 < limit ? payload[pos3] & 0xff : 0);
+                pos3++;
+                count3 += BITS_PER_WORD;
+            }
+            for (int j = 0; j < NUM_STREAMS; j++) {
+                int entry0 = table[(int) (bits0 >>> (count0 - MAX_CODE_LENGTH)) & TABLE_MASK];
+                int entry1 = table[(int) (bits1 >>> (count1 - MAX_CODE_LENGTH)) & TABLE_MASK];
+                int entry2 = table[(int) (bits2 >>> (count2 - MAX_CODE_LENGTH)) & TABLE_MASK];
+                int entry3 = table[(int) (bits3 >>> (count3 - MAX_CODE_LENGTH)) & TABLE_MASK];
+                count0 -= entry0 & LENGTH_MASK;
+                count1 -= entry1 & LENGTH_MASK;
+                count2 -= entry2 & LENGTH_MASK;
+                count3 -= entry3 & LENGTH_MASK;
+                dest[k] = (byte) (entry0 >>> LENGTH_BITS);
+                dest[k + 1] = (byte) (entry1 >>> LENGTH_BITS);
+                dest[k + 2] = (byte) (entry2 >>> LENGTH_BITS);
+                dest[k + 3] = (byte) (entry3 >>> LENGTH_BITS);
+                k += NUM_STREAMS;
+            }
+        }
+        // The last few bytes one at a time, in stream order
+        long[] bits = { bits0, bits1, bits2, bits3 };
+        int[] counts = { count0, count1, count2, count3 };
+        int[] positions = { pos0, pos1, pos2, pos3 };
+        for (; k < length; k++) {
+            int s = k % NUM_STREAMS;
+            while (counts[s] <= REFILL_BITS) {
+                bits[s] = (bits[s] << BITS_PER_WORD) | (positions[s] < limit ? payload[positions[s]] & 0xff : 0);
+                positions[s]++;
+                counts[s] += BITS_PER_WORD;
+            }
+            int entry = table[(int) (bits[s] >>> (counts[s] - MAX_CODE_LENGTH)) & TABLE_MASK];
+            counts[s] -= entry & LENGTH_MASK;
+            dest[k] = (byte) (entry >>> LENGTH_BITS);
+        }
+        for (int s = 0; s < NUM_STREAMS; s++) {
+            // Bits used beyond the end of a stream were not codes of this stream
+            long bitsUsed = (long) (positions[s] - starts[s]) * BITS_PER_WORD - counts[s];
+            if (bitsUsed > (long) (starts[s + 1] - starts[s]) * BITS_PER_WORD) {
+                throw new IOException("interleaved stream " + s + " ended in the middle of a code");
+            }
+        }
+    }
+
+    /*
+     * Build the table that maps the next MAX_CODE_LENGTH bits to the value
+     * whose code they start with and the length of the code. The decoder
+     * doesn't check entries, so every entry must be filled: the code must
+     * be complete, except that the 1 bit code written for a block of a
+     * single value fills the table with that value.
+     */
+    private static int[] buildTable(int[] lengths) throws IOException {
+        int[] codes = CanonicalCode.assignCodes(lengths);
+        int[] table = new int[1 << MAX_CODE_LENGTH];
+        int filled = 0;
+        int numValues = 0;
+        int entry = 0;
+        for (int value = 0; value < lengths.length; value++) {
+            int length = lengths[value];
+            if (length > 0) {
+                int first = codes[value] << (MAX_CODE_LENGTH - length);
+                int last = first + (1 << (MAX_CODE_LENGTH - length));
+                if (last > table.length) {
+                    throw new IOException("invalid code lengths");
+                }
+                entry = (value << LENGTH_BITS) | length;
+                Arrays.fill(table, first, last, entry);
+                filled += last - first;
+                numValues++;
+            }
+        }
+        if (numValues == 1 && (entry & LENGTH_MASK) == 1) {
+            Arrays.fill(table, entry);
+        } else if (filled < table.length) {
+            throw new IOException("incomplete code lengths");
+        }
+        return table;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+}
@@ -0,0 +1,401 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Codes a stream the way deflate does: an LZ77 stage replaces strings seen
+ * in the last WINDOW_SIZE bytes with a length and distance back to the
+ * earlier copy, and the literals, lengths and distances are Huffman coded.
+ * Text with many repeated words and markup gets much smaller than with an
+ * order-0 code alone.
+ * <P>
+ * Matches are found with hash chains: the three bytes at each position are
+ * hashed and every position is linked to the last position with the same
+ * hash. The level, from 1 to 9, sets how many links are followed and
+ * whether a match is put off for a longer one starting at the next byte,
+ * trading speed for size like the levels of deflate. Every table the
+ * match finder uses is allocated once per stream.
+ * <P>
+ * Literals and lengths share one alphabet and distances have another, both
+ * those of deflate: values 0 to 255 are literals and values 257 to 285 are
+ * lengths, followed by extra bits, as are the 30 distance values. After the
+ * header format the block size is stored as an int. Each block is stored
+ * as the number of original bytes in the block (an int), the code lengths
+ * of the two alphabets in <code>CanonicalCode</code> form and the codes of
+ * the block. A block with zero original bytes ends the stream. Matches
+ * never cross the end of a block but may reach back into earlier blocks.
+ */
+public class LzHuffCodec implements IHuffCodec {
+
+    /**
+     * The level used unless another level is given.
+     */
+    public static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * The number of bytes back a match can start.
+     */
+    public static final int WINDOW_SIZE = 1 << 15;
+
+    /**
+     * The number of original bytes in each block, a multiple of the window
+     * so the chains keep their indexes when the window slides.
+     */
+    public static final int BLOCK_SIZE = 1 << 20;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 258;
+
+    private static final int HASH_BITS = 15;
+    private static final int HASH_MASK = (1 << HASH_BITS) - 1;
+    private static final int HASH_SHIFT = 5;
+    private static final int NIL = -1;
+
+    // For each level the most links followed, the length that ends a
+    // search and the length below which a match is put off for a longer
+    // one at the next byte, 0 for never
+    private static final int[] MAX_CHAIN = { 0, 4, 8, 32, 16, 32, 128, 256, 1024, 4096 };
+    private static final int[] NICE_LENGTH = { 0, 8, 16, 32, 16, 32, 128, 128, 258, 258 };
+    private static final int[] LAZY_LENGTH = { 0, 0, 0, 0, 4, 16, 16, 32, 128, 258 };
+
+    // The alphabets and the extra bits of deflate
+    private static final int NUM_LITERAL_LENGTHS = 286;
+    private static final int NUM_DISTANCES = 30;
+    private static final int FIRST_LENGTH = 257;
+    private static final int MAX_CODE_LENGTH = 15;
+    private static final int[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195,
+        227, 258
+    };
+    private static final int[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    private static final int[] DISTANCE_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073,
+        4097, 6145, 8193, 12289, 16385, 24577
+    };
+    private static final int[] DISTANCE_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+
+    // The length value of every length, and the distance value of every
+    // distance up to 256 followed by every 128 distances after that
+    private static final int[] LENGTH_CODE = new int[MAX_MATCH + 1];
+    private static final int[] DISTANCE_CODE = new int[512];
+    static {
+        for (int code = 0; code < LENGTH_BASE.length; code++) {
+            for (int k = 0; k < 1 << LENGTH_EXTRA[code] && LENGTH_BASE[code] + k <= MAX_MATCH; k++) {
+                LENGTH_CODE[LENGTH_BASE[code] + k] = code;
+            }
+        }
+        for (int code = 0; code < DISTANCE_BASE.length; code++) {
+            for (int k = 0; k < 1 << DISTANCE_EXTRA[code]; k++) {
+                int distance = DISTANCE_BASE[code] + k - 1;
+                DISTANCE_CODE[distance < 256 ? distance : 256 + (distance >>> 7)] = code;
+            }
+        }
+    }
+
+    // Tokens hold a literal, or a length above a distance
+    private static final int LENGTH_SHIFT = 16;
+    private static final int DISTANCE_MASK = (1 << LENGTH_SHIFT) - 1;
+
+    private final int level;
+
+    // The match finder's state, the bytes of the window and the block, the
+    // last position of every hash and the position before each position
+    // with the same hash
+    private byte[] window;
+    private int[] head;
+    private int[] prev;
+    private int[] tokens;
+    private int numTokens;
+    private int[] literalFreqs;
+    private int[] distanceFreqs;
+    private int matchLength;
+    private int matchDistance;
+
+    /**
+     * Create a codec with the default level.
+     */
+    public LzHuffCodec() {
+        this(DEFAULT_LEVEL);
+    }
+
+    /**
+     * Create a codec.
+     * @param level from 1, fastest, to 9, smallest
+     */
+    public LzHuffCodec(int level) {
+        if (level < 1 || level >= MAX_CHAIN.length) {
+            throw new IllegalArgumentException("level must be from 1 to " + (MAX_CHAIN.length - 1));
+        }
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getHeaderFormat() {
+        return STORE_LZ77;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        window = new byte[WINDOW_SIZE + BLOCK_SIZE];
+        head = new int[1 << HASH_BITS];
+        prev = new int[WINDOW_SIZE];
+        tokens = new int[BLOCK_SIZE];
+        literalFreqs = new int[NUM_LITERAL_LENGTHS];
+        distanceFreqs = new int[NUM_DISTANCES];
+        Arrays.fill(head, NIL);
+        out.writeBits(BITS_PER_INT, BLOCK_SIZE);
+        int bitsWritten = BITS_PER_INT;
+        int start = 0;
+        int length = BlockHuffCodec.readBlock(in, window, start, BLOCK_SIZE);
+        while (length > 0) {
+            findMatches(start, start + length);
+            bitsWritten += writeBlock(out, length);
+            if (length < BLOCK_SIZE) {
+                break;
+            }
+            start = slide(start + length);
+            length = BlockHuffCodec.readBlock(in, window, start, BLOCK_SIZE);
+        }
+        // An empty block marks the end
+        out.writeBits(BITS_PER_INT, 0);
+        return bitsWritten + BITS_PER_INT;
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        int blockSize = BlockHuffCodec.readBlockSize(in);
+        byte[] history = new byte[WINDOW_SIZE + blockSize];
+        int bitsWritten = 0;
+        int start = 0;
+        int length = BlockHuffCodec.readInt(in);
+        while (length != 0) {
+            if (length < 0 || length > blockSize) {
+                throw new IOException("invalid block length " + length);
+            }
+            decodeBlock(in, history, start, start + length);
+            out.write(history, start, length);
+            bitsWritten += length * BITS_PER_WORD;
+            start += length;
+            if (start > WINDOW_SIZE) {
+                // Keep the last window for matches in the next block
+                System.arraycopy(history, start - WINDOW_SIZE, history, 0, WINDOW_SIZE);
+                start = WINDOW_SIZE;
+            }
+            length = BlockHuffCodec.readInt(in);
+        }
+        return bitsWritten;
+    }
+
+    /*
+     * Turn the bytes of the window from start to end into tokens and count
+     * the values of their codes.
+     */
+    private void findMatches(int start, int end) {
+        numTokens = 0;
+        Arrays.fill(literalFreqs, 0);
+        Arrays.fill(distanceFreqs, 0);
+        int lazyLength = LAZY_LENGTH[level];
+        int pos = start;
+        boolean found = false;
+        while (pos < end) {
+            if (!found) {
+                longestMatch(pos, end);
+            }
+            found = false;
+            if (matchLength < MIN_MATCH) {
+                addLiteral(window[pos] & 0xff);
+                pos++;
+                continue;
+            }
+            int length = matchLength;
+            int distance = matchDistance;
+            if (length < lazyLength && pos + 1 < end) {
+                // A longer match at the next byte is worth a literal
+                longestMatch(pos + 1, end);
+                if (matchLength > length) {
+                    addLiteral(window[pos] & 0xff);
+                    pos++;
+                    found = true;
+                    continue;
+                }
+                addMatch(length, distance);
+                insertAll(pos + 2, pos + length, end);
+            } else {
+                addMatch(length, distance);
+                insertAll(pos + 1, pos + length, end);
+            }
+            pos += length;
+        }
+    }
+
+    /*
+     * Add pos to its hash chain and find the longest match for the bytes at
+     * pos among the positions on the chain, setting matchLength and
+     * matchDistance. matchLength is 0 if pos is too close to end.
+     */
+    private void longestMatch(int pos, int end) {
+        matchLength = 0;
+        if (pos + MIN_MATCH > end) {
+            return;
+        }
+        int candidate = insert(pos);
+        int maxLength = Math.min(MAX_MATCH, end - pos);
+        int niceLength = Math.min(NICE_LENGTH[level], maxLength);
+        int limit = Math.max(pos - WINDOW_SIZE, NIL);
+        int bestLength = MIN_MATCH - 1;
+        byte[] data = window;
+        for (int chain = MAX_CHAIN[level]; candidate > limit && chain > 0; chain--) {
+            // Check the byte that would make the match longer first
+            if (data[candidate + bestLength] == data[pos + bestLength] && data[candidate] == data[pos]) {
+                int length = 1;
+                while (length < maxLength && data[candidate + length] == data[pos + length]) {
+                    length++;
+                }
+                if (length > bestLength) {
+                    bestLength = length;
+                    matchDistance = pos - candidate;
+                    if (length >= niceLength) {
+                        break;
+                    }
+                }
+            }
+            candidate = prev[candidate & WINDOW_MASK];
+        }
+        if (bestLength >= MIN_MATCH) {
+            matchLength = bestLength;
+        }
+    }
+
+    // Add pos to its hash chain and return the position before it.
+    private int insert(int pos) {
+        int hash = (((window[pos] & 0xff) << (2 * HASH_SHIFT)) ^ ((window[pos + 1] & 0xff) << HASH_SHIFT)
+                ^ (window[pos + 2] & 0xff)) & HASH_MASK;
+        int before = head[hash];
+        prev[pos & WINDOW_MASK] = before;
+        head[hash] = pos;
+        return before;
+    }
+
+    // Add the positions from first up to last to their hash chains.
+    private void insertAll(int first, int last, int end) {
+        last = Math.min(last, end - MIN_MATCH + 1);
+        for (int pos = first; pos < last; pos++) {
+            insert(pos);
+        }
+    }
+
+    private void addLiteral(int value) {
+        tokens[numTokens++] = value;
+        literalFreqs[value]++;
+    }
+
+    private void addMatch(int length, int distance) {
+        tokens[numTokens++] = (length << LENGTH_SHIFT) | distance;
+        literalFreqs[FIRST_LENGTH + LENGTH_CODE[length]]++;
+        distanceFreqs[distanceCode(distance)]++;
+    }
+
+    private static int distanceCode(int distance) {
+        return distance <= 256 ? DISTANCE_CODE[distance - 1] : DISTANCE_CODE[256 + ((distance - 1) >>> 7)];
+    }
+
+    /*
+     * Move the last WINDOW_SIZE bytes to the front of the window and move
+     * the chains with them, dropping positions that fell out. Return where
+     * the next block starts.
+     */
+    private int slide(int end) {
+        int shift = end - WINDOW_SIZE;
+        System.arraycopy(window, shift, window, 0, WINDOW_SIZE);
+        for (int k = 0; k < head.length; k++) {
+            head[k] = head[k] >= shift ? head[k] - shift : NIL;
+        }
+        for (int k = 0; k < prev.length; k++) {
+            prev[k] = prev[k] >= shift ? prev[k] - shift : NIL;
+        }
+        return WINDOW_SIZE;
+    }
+
+    /*
+     * Write the tokens of one block of length bytes and return the number
+     * of bits written.
+     */
+    private int writeBlock(BitOutputStream out, int length) {
+        int[] literalLengths = CanonicalCode.limitedLengths(literalFreqs, MAX_CODE_LENGTH);
+        int[] distanceLengths = CanonicalCode.limitedLengths(distanceFreqs, MAX_CODE_LENGTH);
+        int[] literalCodes = CanonicalCode.assignCodes(literalLengths);
+        int[] distanceCodes = CanonicalCode.assignCodes(distanceLengths);
+        out.writeBits(BITS_PER_INT, length);
+        int bitsWritten = BITS_PER_INT + CanonicalCode.writeLengths(out, literalLengths)
+                + CanonicalCode.writeLengths(out, distanceLengths);
+        for (int k = 0; k < numTokens; k++) {
+            int token = tokens[k];
+            if (token < ALPH_SIZE) {
+                out.writeBits(literalLengths[token], literalCodes[token]);
+                bitsWritten += literalLengths[token];
+            } else {
+                int matchLen = token >>> LENGTH_SHIFT;
+                int distance = token & DISTANCE_MASK;
+                int lengthCode = LENGTH_CODE[matchLen];
+                int value = FIRST_LENGTH + lengthCode;
+                out.writeBits(literalLengths[value], literalCodes[value]);
+                out.writeBits(LENGTH_EXTRA[lengthCode], matchLen - LENGTH_BASE[lengthCode]);
+                int distanceCode = distanceCode(distance);
+                out.writeBits(distanceLengths[distanceCode], distanceCodes[distanceCode]);
+                out.writeBits(DISTANCE_EXTRA[distanceCode], distance - DISTANCE_BASE[distanceCode]);
+                bitsWritten += literalLengths[value] + LENGTH_EXTRA[lengthCode]
+                        + distanceLengths[distanceCode] + DISTANCE_EXTRA[distanceCode];
+            }
+        }
+        return bitsWritten;
+    }
+
+    /*
+     * Decode one block into history from start up to end. The bytes before
+     * start are the earlier blocks matches can reach back into.
+     */
+    private static void decodeBlock(BitInputStream in, byte[] history, int start, int end) throws IOException {
+        int[] literalLengths = CanonicalCode.readLengths(in, NUM_LITERAL_LENGTHS);
+        int[] distanceLengths = CanonicalCode.readLengths(in, NUM_DISTANCES);
+        HuffDecodeTable literals = new HuffDecodeTable(CanonicalCode.assignCodes(literalLengths), literalLengths);
+        HuffDecodeTable distances = new HuffDecodeTable(CanonicalCode.assignCodes(distanceLengths),
+                distanceLengths);
+        int pos = start;
+        while (pos < end) {
+            int value = literals.decodeValue(in);
+            if (value < ALPH_SIZE) {
+                history[pos++] = (byte) value;
+                continue;
+            }
+            int lengthCode = value - FIRST_LENGTH;
+            if (lengthCode < 0 || lengthCode >= LENGTH_BASE.length) {
+                throw new IOException("invalid length value " + value);
+            }
+            int length = LENGTH_BASE[lengthCode] + readBits(in, LENGTH_EXTRA[lengthCode]);
+            int distanceCode = distances.decodeValue(in);
+            int distance = DISTANCE_BASE[distanceCode] + readBits(in, DISTANCE_EXTRA[distanceCode]);
+            if (distance > pos || length > end - pos) {
+                throw new IOException("match of " + length + " bytes " + distance + " back does not fit");
+            }
+            // Copy a byte at a time, a match may overlap the bytes it makes
+            for (int from = pos - distance; length > 0; length--) {
+                history[pos++] = history[from++];
+            }
+        }
+    }
+
+    private static int readBits(BitInputStream in, int howManyBits) throws IOException {
+        int value = in.readBits(howManyBits);
+        if (value == -1) {
+            throw new IOException("unexpected end of LZ77 data");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file by mapping it into memory a window at a time, so the bytes
+ * are read straight from the mapped pages without a copy of the whole file.
+ * Only one window is referenced at a time, so files of any size can be
+ * read, not just files under the 2 GB limit of a single MappedByteBuffer.
+ * <P>
+ * A window that is done with, including the last one once the stream is
+ * closed, stays mapped until it is garbage collected. Some systems, such as
+ * Windows, can't delete or replace a file that is mapped, so on those the
+ * stream should be created with <code>unmapWindows</code> set, which unmaps
+ * every window as soon as it is done with (see <code>MappedWindows</code>).
+ */
+public class MappedFileInputStream extends InputStream {
+
+    /**
+     * The number of bytes mapped at a time unless another size is given.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 26;
+
+    // Windows that aren't unmapped stay mapped until they are garbage
+    // collected, so tiny windows could run out of mappings on large files
+    private static final int MIN_WINDOW_SIZE = 1 << 12;
+
+    private final RandomAccessFile myFile;
+    private final FileChannel myChannel;
+    private final long myLength;
+    private final int myWindowSize;
+    private final boolean myUnmapWindows;
+    // The mapped window and the offset in the file where it starts
+    private MappedByteBuffer myWindow;
+    private long myWindowStart;
+    private boolean myClosed;
+
+    /**
+     * Open a file for reading with the default window size.
+     * @param file is the file that will be read
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedFileInputStream(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Open a file for reading.
+     * @param file is the file that will be read
+     * @param windowSize is the number of bytes mapped at a time, at least 4 KB
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedFileInputStream(File file, int windowSize) throws IOException {
+        this(file, windowSize, false);
+    }
+
+    /**
+     * Open a file for reading.
+     * @param file is the file that will be read
+     * @param windowSize is the number of bytes mapped at a time, at least 4 KB
+     * @param unmapWindows is true to unmap every window as soon as it is
+     * done with rather than when it is garbage collected
+     * @throws IOException if the file cannot be opened or unmapWindows is
+     * set and this JVM can't unmap windows
+     */
+    public MappedFileInputStream(File file, int windowSize, boolean unmapWindows) throws IOException {
+        if (windowSize < MIN_WINDOW_SIZE) {
+            throw new IllegalArgumentException("window size must be at least " + MIN_WINDOW_SIZE);
+        }
+        if (unmapWindows && !MappedWindows.canUnmap()) {
+            throw new IOException("this JVM can't unmap windows");
+        }
+        myFile = new RandomAccessFile(file, "r");
+        myChannel = myFile.getChannel();
+        myLength = myChannel.size();
+        myWindowSize = windowSize;
+        myUnmapWindows = unmapWindows;
+        map(0);
+    }
+
+    /**
+     * Return the channel of the file, for callers that read parts of the
+     * file in other ways. Reading through the channel does not move this stream.
+     * @return the channel of the file
+     */
+    public FileChannel getChannel() {
+        return myChannel;
+    }
+
+    /**
+     * Return the offset in the file of the next byte read.
+     * @return the offset of the next byte
+     */
+    public long getPosition() {
+        if (myWindow == null) {
+            return myWindowStart;
+        }
+        return myWindowStart + myWindow.position();
+    }
+
+    /**
+     * Return the number of bytes in the file.
+     * @return the length of the file
+     */
+    public long length() {
+        return myLength;
+    }
+
+    public int read() throws IOException {
+        ensureOpen();
+        if (!myWindow.hasRemaining() && !nextWindow()) {
+            return -1;
+        }
+        return myWindow.get() & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!myWindow.hasRemaining() && !nextWindow()) {
+            return -1;
+        }
+        int count = Math.min(len, myWindow.remaining());
+        myWindow.get(b, off, count);
+        return count;
+    }
+
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        long target = Math.min(myLength, getPosition() + Math.max(0, n));
+        long skipped = target - getPosition();
+        if (target < myWindowStart + myWindow.limit()) {
+            myWindow.position((int) (target - myWindowStart));
+        } else {
+            map(target);
+        }
+        return skipped;
+    }
+
+    public int available() throws IOException {
+        ensureOpen();
+        return (int) Math.min(Integer.MAX_VALUE, myLength - getPosition());
+    }
+
+    /**
+     * Release the window and close the file.
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        if (myClosed) {
+            return;
+        }
+        myClosed = true;
+        try {
+            release();
+        } finally {
+            myFile.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (myClosed) {
+            throw new IOException("stream is closed");
+        }
+        if (myWindow == null) {
+            // The last mapping failed, try again where it left off
+            map(myWindowStart);
+        }
+    }
+
+    // Map the next window, return false at the end of the file.
+    private boolean nextWindow() throws IOException {
+        long next = myWindowStart + myWindow.limit();
+        if (next >= myLength) {
+            return false;
+        }
+        map(next);
+        return true;
+    }
+
+    private void map(long start) throws IOException {
+        release();
+        // Set first so the position is right if the mapping fails
+        myWindowStart = start;
+        myWindow = myChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(myWindowSize, myLength - start));
+    }
+
+    // Drop the window, and unmap it if asked to, keeping the position.
+    private void release() throws IOException {
+        MappedByteBuffer window = myWindow;
+        if (window == null) {
+            return;
+        }
+        myWindowStart += window.position();
+        myWindow = null;
+        if (myUnmapWindows) {
+            MappedWindows.unmap(window);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a file by mapping it into memory a window at a time, so every
+ * write is a store into the mapped pages rather than a call to the operating
+ * system. The file grows a window at a time and is cut back to the number of
+ * bytes written when the stream is closed. Only one window is referenced at
+ * a time, so files of any size can be written.
+ * <P>
+ * A write to a mapped page that the disk has no room for is not an
+ * <code>IOException</code>, it can take down the whole program, so nothing
+ * writes through this stream unless asked to. Files are normally written
+ * with a <code>BufferedOutputStream</code> over a
+ * <code>FileOutputStream</code>.
+ * <P>
+ * A window that is done with stays mapped until it is garbage collected.
+ * Some systems, such as Windows, can't cut back a file that is mapped, so
+ * on those the stream must be created with <code>unmapWindows</code> set,
+ * which unmaps every window as soon as it is done with (see
+ * <code>MappedWindows</code>).
+ */
+public class MappedFileOutputStream extends OutputStream {
+
+    /**
+     * The number of bytes mapped at a time unless another size is given.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 24;
+
+    // Windows that aren't unmapped stay mapped until they are garbage
+    // collected, so tiny windows could run out of mappings on large files
+    private static final int MIN_WINDOW_SIZE = 1 << 12;
+
+    private final RandomAccessFile myFile;
+    private final FileChannel myChannel;
+    private final int myWindowSize;
+    private final boolean myUnmapWindows;
+    // The mapped window and the offset in the file where it starts
+    private MappedByteBuffer myWindow;
+    private long myWindowStart;
+    private boolean myClosed;
+
+    /**
+     * Create or replace a file for writing with the default window size.
+     * @param file is the file that will be written
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedFileOutputStream(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create or replace a file for writing.
+     * @param file is the file that will be written
+     * @param windowSize is the number of bytes mapped at a time, at least 4 KB
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedFileOutputStream(File file, int windowSize) throws IOException {
+        this(file, windowSize, false);
+    }
+
+    /**
+     * Create or replace a file for writing.
+     * @param file is the file that will be written
+     * @param windowSize is the number of bytes mapped at a time, at least 4 KB
+     * @param unmapWindows is true to unmap every window as soon as it is
+     * done with rather than when it is garbage collected
+     * @throws IOException if the file cannot be opened or unmapWindows is
+     * set and this JVM can't unmap windows
+     */
+    public MappedFileOutputStream(File file, int windowSize, boolean unmapWindows) throws IOException {
+        if (windowSize < MIN_WINDOW_SIZE) {
+            throw new IllegalArgumentException("window size must be at least " + MIN_WINDOW_SIZE);
+        }
+        if (unmapWindows && !MappedWindows.canUnmap()) {
+            throw new IOException("this JVM can't unmap windows");
+        }
+        myFile = new RandomAccessFile(file, "rw");
+        myChannel = myFile.getChannel();
+        myChannel.truncate(0);
+        myWindowSize = windowSize;
+        myUnmapWindows = unmapWindows;
+        map(0);
+    }
+
+    /**
+     * Return the number of bytes written so far.
+     * @return the offset in the file of the next byte written
+     */
+    public long getPosition() {
+        if (myWindow == null) {
+            return myWindowStart;
+        }
+        return myWindowStart + myWindow.position();
+    }
+
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (!myWindow.hasRemaining()) {
+            map(getPosition());
+        }
+        myWindow.put((byte) b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            if (!myWindow.hasRemaining()) {
+                map(getPosition());
+            }
+            int count = Math.min(len, myWindow.remaining());
+            myWindow.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Release the window, cut the file back to the bytes written and close it.
+     * @throws IOException if the file cannot be cut back or closed
+     */
+    public void close() throws IOException {
+        if (myClosed) {
+            return;
+        }
+        myClosed = true;
+        try {
+            release();
+            myChannel.truncate(myWindowStart);
+        } finally {
+            myFile.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (myClosed) {
+            throw new IOException("stream is closed");
+        }
+        if (myWindow == null) {
+            // The last mapping failed, try again where it left off
+            map(myWindowStart);
+        }
+    }
+
+    private void map(long start) throws IOException {
+        release();
+        // Set first so the position is right if the mapping fails
+        myWindowStart = start;
+        myWindow = myChannel.map(FileChannel.MapMode.READ_WRITE, start, myWindowSize);
+    }
+
+    // Drop the window, and unmap it if asked to, keeping the position.
+    private void release() throws IOException {
+        MappedByteBuffer window = myWindow;
+        if (window == null) {
+            return;
+        }
+        myWindowStart += window.position();
+        myWindow = null;
+        if (myUnmapWindows) {
+            MappedWindows.unmap(window);
+        }
+    }
+}
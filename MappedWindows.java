@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Unmaps the windows of <code>MappedFileInputStream</code> and
+ * <code>MappedFileOutputStream</code> for streams created with unmapping
+ * turned on. Java has no public way to unmap a MappedByteBuffer, it stays
+ * mapped until it is garbage collected, and some systems, such as Windows,
+ * can't cut back or delete a file while it is mapped. Unmapping goes
+ * through the JDK's internal <code>Unsafe.invokeCleaner</code>, which is why
+ * streams only do it when asked to. A window must never be touched after it
+ * is unmapped, doing so crashes the JVM.
+ */
+final class MappedWindows {
+
+    private MappedWindows() {
+    }
+
+    /**
+     * Return true if this JVM lets windows be unmapped.
+     * @return true if <code>unmap</code> can be used
+     */
+    static boolean canUnmap() {
+        return Cleaner.INVOKE_CLEANER != null;
+    }
+
+    /**
+     * Unmap a window at once. The caller must drop every reference to it first.
+     * @param window the window to unmap
+     * @throws IOException if the window can't be unmapped
+     */
+    static void unmap(MappedByteBuffer window) throws IOException {
+        if (!canUnmap()) {
+            throw new IOException("this JVM can't unmap a window");
+        }
+        try {
+            Cleaner.INVOKE_CLEANER.invoke(Cleaner.UNSAFE, window);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("could not unmap the window", e);
+        }
+    }
+
+    /*
+     * Looks up invokeCleaner the first time it is needed, so streams that
+     * don't unmap never touch Unsafe.
+     */
+    private static final class Cleaner {
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = theUnsafe.get(null);
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                unsafe = null;
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codes a stream with the codes of a trained <code>HuffModel</code>, so
+ * nothing about the data is stored and small files can still get smaller.
+ * After the header format only the id of the model (an int) is stored,
+ * followed by the codes of the values and of PSEUDO_EOF. The decoder finds
+ * the model by its id among the models loaded in the JVM.
+ */
+public class ModelHuffCodec implements IHuffCodec {
+
+    // Number of bytes read from the input at a time
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final HuffModel model;
+
+    /**
+     * Create a codec that compresses with the default model.
+     */
+    public ModelHuffCodec() {
+        this(null);
+    }
+
+    /**
+     * Create a codec that compresses with a model.
+     * @param model the model to compress with, null for the default model
+     */
+    public ModelHuffCodec(HuffModel model) {
+        this.model = model;
+    }
+
+    public int getHeaderFormat() {
+        return STORE_MODEL;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        HuffModel coder = model == null ? HuffModel.getDefault() : model;
+        int[] codes = coder.getCodes();
+        int[] lengths = coder.getCodeLengths();
+        out.writeBits(BITS_PER_INT, coder.getId());
+        int bitsWritten = BITS_PER_INT;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int numRead = in.read(buffer);
+        while (numRead != -1) {
+            for (int k = 0; k < numRead; k++) {
+                int value = buffer[k] & 0xff;
+                out.writeBits(lengths[value], codes[value]);
+                bitsWritten += lengths[value];
+            }
+            numRead = in.read(buffer);
+        }
+        out.writeBits(lengths[PSEUDO_EOF], codes[PSEUDO_EOF]);
+        return bitsWritten + lengths[PSEUDO_EOF];
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        // Read the id in halves, an id of -1 can't be told from the end of in
+        int high = in.readBits(BITS_PER_INT / 2);
+        int low = in.readBits(BITS_PER_INT / 2);
+        if (high == -1 || low == -1) {
+            throw new IOException("unexpected end of model data");
+        }
+        int id = (high << (BITS_PER_INT / 2)) | low;
+        HuffModel coder = HuffModel.forId(id);
+        if (coder == null) {
+            throw new IOException(String.format("model %08x is not loaded", id));
+        }
+        return coder.getDecodeTable().decode(in, out, PSEUDO_EOF) * BITS_PER_WORD;
+    }
+}
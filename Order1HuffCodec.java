@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Codes a stream with order-1 context modelling: every byte is coded with a
+ * canonical Huffman code chosen by the byte before it. Text, where the next
+ * charachter depends a great deal on the last one, comes out much smaller
+ * than with a single code. Contexts that appear too rarely to pay for a code
+ * of their own fall back to an order-0 code shared by the whole block.
+ * <P>
+ * The input is coded in blocks so only one block is held in memory. After
+ * the header format the block size is stored as an int. Each block starts
+ * with the number of bytes in it (an int), followed by the order-0 code
+ * lengths in <code>CanonicalCode</code> form and then, for each of the
+ * ALPH_SIZE contexts, one bit that is 1 if the context has its own code,
+ * followed by its code lengths. The codes for the bytes of the block come
+ * next. A block with zero bytes ends the stream. The first byte of the stream
+ * is coded in the context of byte 0, later blocks continue from the last
+ * byte of the block before.
+ * <P>
+ * The codes of the contexts are built in parallel on a ForkJoinPool, the
+ * common pool unless another is given, as are the decoding tables.
+ */
+public class Order1HuffCodec implements IHuffCodec {
+
+    /**
+     * The number of bytes in each block unless another size is given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 22;
+
+    // The longest code, so each decoding table is a single small table
+    private static final int MAX_CODE_LENGTH = 12;
+
+    // Number of contexts whose codes are built by one task
+    private static final int CONTEXTS_PER_TASK = 16;
+
+    private final int blockSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a codec with the default block size.
+     */
+    public Order1HuffCodec() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a codec that codes its input in blocks of blockSize bytes.
+     * @param blockSize the number of bytes in each block, at least 1
+     */
+    public Order1HuffCodec(int blockSize) {
+        this(blockSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a codec that codes its input in blocks of blockSize bytes and
+     * builds its codes on the given pool.
+     * @param blockSize the number of bytes in each block, at least 1
+     * @param pool the pool the codes and decoding tables are built on
+     */
+    public Order1HuffCodec(int blockSize, ForkJoinPool pool) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be at least 1");
+        }
+        this.blockSize = blockSize;
+        this.pool = pool;
+    }
+
+    public int getHeaderFormat() {
+        return STORE_ORDER1;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        out.writeBits(BITS_PER_INT, blockSize);
+        int bitsWritten = BITS_PER_INT;
+        byte[] block = new byte[blockSize];
+        int context = 0;
+        int length = BlockHuffCodec.readBlock(in, block);
+        while (length > 0) {
+            bitsWritten += encodeBlock(block, length, context, out);
+            context = block[length - 1] & 0xff;
+            length = BlockHuffCodec.readBlock(in, block);
+        }
+        // An empty block marks the end
+        out.writeBits(BITS_PER_INT, 0);
+        return bitsWritten + BITS_PER_INT;
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        int storedBlockSize = BlockHuffCodec.readBlockSize(in);
+        int bitsWritten = 0;
+        int context = 0;
+        int length = BlockHuffCodec.readInt(in);
+        while (length != 0) {
+            if (length < 0 || length > storedBlockSize) {
+                throw new IOException("invalid block length " + length);
+            }
+            context = decodeBlock(in, out, length, context);
+            bitsWritten += length * BITS_PER_WORD;
+            length = BlockHuffCodec.readInt(in);
+        }
+        return bitsWritten;
+    }
+
+    /*
+     * Code one block and return the number of bits written. context is the
+     * byte before the block.
+     */
+    private int encodeBlock(byte[] block, int length, int context, BitOutputStream out)
+            throws IOException {
+        int[][] freqs = new int[ALPH_SIZE][ALPH_SIZE];
+        int[] order0Freqs = new int[ALPH_SIZE];
+        int previous = context;
+        for (int k = 0; k < length; k++) {
+            int value = block[k] & 0xff;
+            freqs[previous][value]++;
+            order0Freqs[value]++;
+            previous = value;
+        }
+        int[] order0Lengths = CanonicalCode.limitedLengths(order0Freqs, MAX_CODE_LENGTH);
+        int[][] lengths = buildContextLengths(freqs, order0Lengths);
+
+        out.writeBits(BITS_PER_INT, length);
+        int bitsWritten = BITS_PER_INT + CanonicalCode.writeLengths(out, order0Lengths);
+        int[] order0Codes = CanonicalCode.assignCodes(order0Lengths);
+        int[][] codes = new int[ALPH_SIZE][];
+        for (int ctx = 0; ctx < ALPH_SIZE; ctx++) {
+            if (lengths[ctx] == null) {
+                out.writeBits(1, 0);
+                lengths[ctx] = order0Lengths;
+                codes[ctx] = order0Codes;
+            } else {
+                out.writeBits(1, 1);
+                bitsWritten += CanonicalCode.writeLengths(out, lengths[ctx]);
+                codes[ctx] = CanonicalCode.assignCodes(lengths[ctx]);
+            }
+            bitsWritten++;
+        }
+        previous = context;
+        for (int k = 0; k < length; k++) {
+            int value = block[k] & 0xff;
+            out.writeBits(lengths[previous][value], codes[previous][value]);
+            bitsWritten += lengths[previous][value];
+            previous = value;
+        }
+        return bitsWritten;
+    }
+
+    /*
+     * Build the code lengths of every context in parallel. A context gets
+     * null if coding it with the order-0 code is no bigger than storing and
+     * using a code of its own.
+     */
+    private int[][] buildContextLengths(int[][] freqs, int[] order0Lengths) throws IOException {
+        List<Callable<Void>> builders = new ArrayList<>();
+        int[][] lengths = new int[ALPH_SIZE][];
+        for (int first = 0; first < ALPH_SIZE; first += CONTEXTS_PER_TASK) {
+            int start = first;
+            builders.add(() -> {
+                for (int ctx = start; ctx < start + CONTEXTS_PER_TASK; ctx++) {
+                    lengths[ctx] = contextLengths(freqs[ctx], order0Lengths);
+                }
+                return null;
+            });
+        }
+        BlockHuffCodec.runAll(pool, builders, "building codes");
+        return lengths;
+    }
+
+    // Return the code lengths for one context, null to use the order-0 code.
+    private static int[] contextLengths(int[] freqs, int[] order0Lengths) {
+        long order0Bits = 0;
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            order0Bits += (long) freqs[value] * order0Lengths[value];
+        }
+        if (order0Bits == 0) {
+            return null;
+        }
+        int[] lengths = CanonicalCode.limitedLengths(freqs, MAX_CODE_LENGTH);
+        long ownBits = CanonicalCode.headerBits(lengths);
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            ownBits += (long) freqs[value] * lengths[value];
+        }
+        return ownBits < order0Bits ? lengths : null;
+    }
+
+    /*
+     * Decode one block of length bytes to out and return its last byte, the
+     * context of the next block.
+     */
+    private int decodeBlock(BitInputStream in, OutputStream out, int length, int context)
+            throws IOException {
+        int[] order0Lengths = CanonicalCode.readLengths(in, ALPH_SIZE);
+        int[][] lengths = new int[ALPH_SIZE][];
+        for (int ctx = 0; ctx < ALPH_SIZE; ctx++) {
+            if (BlockHuffCodec.readBits(in, 1) == 1) {
+                lengths[ctx] = CanonicalCode.readLengths(in, ALPH_SIZE);
+            }
+        }
+        HuffDecodeTable order0 = new HuffDecodeTable(CanonicalCode.assignCodes(order0Lengths), order0Lengths);
+        HuffDecodeTable[] tables = new HuffDecodeTable[ALPH_SIZE];
+        List<Callable<Void>> builders = new ArrayList<>();
+        for (int first = 0; first < ALPH_SIZE; first += CONTEXTS_PER_TASK) {
+            int start = first;
+            builders.add(() -> {
+                for (int ctx = start; ctx < start + CONTEXTS_PER_TASK; ctx++) {
+                    tables[ctx] = lengths[ctx] == null ? order0
+                            : new HuffDecodeTable(CanonicalCode.assignCodes(lengths[ctx]), lengths[ctx]);
+                }
+                return null;
+            });
+        }
+        BlockHuffCodec.runAll(pool, builders, "building codes");
+        int previous = context;
+        for (int k = 0; k < length; k++) {
+            previous = tables[previous].decodeValue(in);
+            out.write(previous);
+        }
+        return previous;
+    }
+}
@@ -0,0 +1,479 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compresses one large input on many threads. The input is split into
+ * chunks and the chunks are counted in parallel on a ForkJoinPool. The
+ * counts are merged to build a single set of codes, then the chunks are coded
+ * in parallel and stitched together in order at the bit level.
+ * <P>
+ * Counting a chunk also tells how many bits its codes take, so every chunk
+ * knows where in the output it starts before it is coded, and the stitching
+ * is just copying bytes. The output does not depend on the number of threads
+ * or the chunk size and is exactly what <code>SimpleHuffProcessor</code>
+ * writes for the same input and header format. The STORE_BLOCKS format is
+ * coded a block per task, since its blocks are already independent. Formats
+ * whose codec must see the input in order, such as STORE_ADAPTIVE, are
+ * coded on one thread.
+ * <P>
+ * Chunks are coded a window at a time so only a few chunks per thread are
+ * held in memory, whatever the size of the input.
+ */
+public class ParallelHuffCompressor implements IHuffConstants {
+
+    /**
+     * The number of original bytes in each chunk unless another size is set.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    // Limits on the chunk size. Coded chunks must fit in an array.
+    private static final int MIN_CHUNK_SIZE = 1 << 12;
+    private static final int MAX_CHUNK_SIZE = 1 << 26;
+
+    // Chunks coded at once for every thread before they are written out
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int maxCodeLength = CanonicalCode.MAX_CODE_LENGTH;
+    private int indexInterval;
+
+    /**
+     * Create a compressor that runs on the common ForkJoinPool.
+     */
+    public ParallelHuffCompressor() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a compressor that runs on the given pool. The pool is not shut
+     * down by the compressor.
+     * @param pool the pool the chunks are counted and coded on
+     */
+    public ParallelHuffCompressor(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Set the number of original bytes in each chunk. The chunk size changes
+     * how the work is split, never the output.
+     * @param numBytes the chunk size, between 4 KB and 64 MB
+     */
+    public void setChunkSize(int numBytes) {
+        if (numBytes < MIN_CHUNK_SIZE || numBytes > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be between " + MIN_CHUNK_SIZE
+                    + " and " + MAX_CHUNK_SIZE);
+        }
+        this.chunkSize = numBytes;
+    }
+
+    /**
+     * Set the longest Huffman code allowed, as in
+     * <code>SimpleHuffProcessor.setMaxCodeLength</code>.
+     * @param maxLength the longest code allowed
+     */
+    public void setMaxCodeLength(int maxLength) {
+        SimpleHuffProcessor.checkMaxCodeLength(maxLength);
+        this.maxCodeLength = maxLength;
+    }
+
+    /**
+     * Set how often an entry is added to the index trailer, as in
+     * <code>SimpleHuffProcessor.setIndexInterval</code>.
+     * @param numSymbols the number of values between entries, 0 for no index
+     */
+    public void setIndexInterval(int numSymbols) {
+        SimpleHuffProcessor.checkIndexInterval(numSymbols);
+        this.indexInterval = numSymbols;
+    }
+
+    /**
+     * Compress a file to out, which is closed when done.
+     * @param in the file to compress
+     * @param out is bound to a file/stream to which bits are written
+     * for the compressed file (not a BitOutputStream)
+     * @param headerFormat a constant from IHuffProcessor that determines what
+     * kind of header to use
+     * @return the number of bits written
+     * @throws IOException if an error occurs reading in or writing out, or
+     * the counts of the file don't fit the header format
+     */
+    public long compress(File in, OutputStream out, int headerFormat) throws IOException {
+        try (FileInputStream fileIn = new FileInputStream(in)) {
+            FileChannel channel = fileIn.getChannel();
+            return compress(channel.size(), (position, dest, length) -> readFully(channel, position, dest, length),
+                    out, headerFormat);
+        }
+    }
+
+    /**
+     * Compress an array to out, which is closed when done.
+     * @param data the bytes to compress
+     * @param out is bound to a file/stream to which bits are written
+     * for the compressed file (not a BitOutputStream)
+     * @param headerFormat a constant from IHuffProcessor that determines what
+     * kind of header to use
+     * @return the number of bits written
+     * @throws IOException if an error occurs writing out
+     */
+    public long compress(byte[] data, OutputStream out, int headerFormat) throws IOException {
+        return compress(data.length, (position, dest, length) -> System.arraycopy(data, (int) position, dest, 0, length),
+                out, headerFormat);
+    }
+
+    /*
+     * Copies part of the input into an array. Called from many threads at once.
+     */
+    private interface ChunkReader {
+        void read(long position, byte[] dest, int length) throws IOException;
+    }
+
+    private long compress(long size, ChunkReader reader, OutputStream out, int headerFormat) throws IOException {
+        try {
+            if (headerFormat == STORE_BLOCKS) {
+                return compressBlocks(size, reader, out);
+            }
+            IHuffCodec codec = SimpleHuffProcessor.codecFor(headerFormat, pool);
+            if (codec != null) {
+                return compressWithCodec(size, reader, out, codec);
+            }
+            return compressSingleTree(size, reader, out, headerFormat);
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+     * Count, build one set of codes and code for the single tree formats.
+     */
+    private long compressSingleTree(long size, ChunkReader reader, OutputStream out, int headerFormat)
+            throws IOException {
+        int numChunks = numChunks(size, chunkSize);
+        // Count every chunk
+        List<Callable<int[]>> counters = new ArrayList<>();
+        for (int k = 0; k < numChunks; k++) {
+            long position = (long) k * chunkSize;
+            int length = chunkLength(size, position, chunkSize);
+            counters.add(() -> {
+                byte[] chunk = new byte[length];
+                reader.read(position, chunk, length);
+                int[] counts = new int[ALPH_SIZE];
+                FrequencyCounter.count(chunk, 0, length, counts);
+                return counts;
+            });
+        }
+        List<int[]> chunkCounts = runAll(counters);
+        long[] totals = new long[ALPH_SIZE];
+        for (int[] counts : chunkCounts) {
+            for (int k = 0; k < ALPH_SIZE; k++) {
+                totals[k] += counts[k];
+            }
+        }
+        // Every chunk fills in the index entries that fall inside it
+        long[] indexOffsets = new long[indexInterval > 0 ? HuffIndex.numEntries(size, indexInterval) : 0];
+        SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        huffer.setMaxCodeLength(maxCodeLength);
+        huffer.preprocessCounts(treeCounts(totals, headerFormat), headerFormat);
+        int[] lengths = huffer.getHuffCodeLengths();
+        long[] codes = new long[ALPH_SIZE + 1];
+        for (int k = 0; k <= ALPH_SIZE; k++) {
+            codes[k] = huffer.getHuffCodes()[k] & 0xffffffffL;
+        }
+
+        BitStitcher stitcher = new BitStitcher(out);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        BitOutputStream headerStream = new BitOutputStream(header);
+        int headerBits = huffer.writeHeader(headerStream);
+        headerStream.flush();
+        stitcher.append(header.toByteArray(), headerBits);
+
+        // Code a window of chunks at a time, each starting where the last ends
+        int window = Math.max(1, pool.getParallelism() * CHUNKS_PER_THREAD);
+        for (int first = 0; first < numChunks; first += window) {
+            List<Callable<byte[]>> coders = new ArrayList<>();
+            long startBit = stitcher.getBitsWritten();
+            for (int k = first; k < Math.min(numChunks, first + window); k++) {
+                long position = (long) k * chunkSize;
+                int length = chunkLength(size, position, chunkSize);
+                long chunkStartBit = startBit;
+                int[] counts = chunkCounts.get(k);
+                coders.add(() -> {
+                    byte[] chunk = new byte[length];
+                    reader.read(position, chunk, length);
+                    byte[] coded = encodeChunk(chunk, length, codes, lengths, chunkStartBit,
+                            codedBits(counts, lengths), false);
+                    if (indexInterval > 0) {
+                        indexChunk(chunk, length, lengths, position, chunkStartBit, indexOffsets);
+                    }
+                    return coded;
+                });
+                startBit += codedBits(counts, lengths);
+            }
+            List<byte[]> coded = runAll(coders);
+            for (int k = first; k < first + coded.size(); k++) {
+                stitcher.append(coded.get(k - first), codedBits(chunkCounts.get(k), lengths));
+            }
+        }
+        // Finish with the code for PSEUDO_EOF
+        stitcher.append(encodeChunk(new byte[0], 0, codes, lengths, stitcher.getBitsWritten(),
+                lengths[PSEUDO_EOF], true), lengths[PSEUDO_EOF]);
+        long bitsWritten = stitcher.getBitsWritten();
+        stitcher.finish();
+        if (indexInterval > 0) {
+            long[] originalOffsets = new long[indexOffsets.length];
+            for (int k = 0; k < originalOffsets.length; k++) {
+                originalOffsets[k] = (long) k * indexInterval;
+            }
+            ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+            BitOutputStream trailerStream = new BitOutputStream(trailer);
+            long trailerBits = new HuffIndex(size, indexOffsets, originalOffsets).write(trailerStream);
+            trailerStream.flush();
+            stitcher.append(trailer.toByteArray(), trailerBits);
+            bitsWritten = stitcher.getBitsWritten();
+        }
+        return bitsWritten;
+    }
+
+    /*
+     * Code a format whose codec has to see the input in order, such as
+     * STORE_ADAPTIVE, on one thread. Chunks are read one at a time.
+     */
+    private long compressWithCodec(long size, ChunkReader reader, OutputStream out, IHuffCodec codec)
+            throws IOException {
+        InputStream chunks = new InputStream() {
+            private byte[] chunk = new byte[(int) Math.min(size, chunkSize)];
+            private long start;
+            private int pos;
+            private int length;
+
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (pos == length) {
+                    start += length;
+                    if (start >= size) {
+                        return -1;
+                    }
+                    length = chunkLength(size, start, chunkSize);
+                    reader.read(start, chunk, length);
+                    pos = 0;
+                }
+                int count = Math.min(len, length - pos);
+                System.arraycopy(chunk, pos, b, off, count);
+                pos += count;
+                return count;
+            }
+        };
+        BitOutputStream bits = new BitOutputStream(out);
+        bits.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        bits.writeBits(BITS_PER_INT, codec.getHeaderFormat());
+        long bitsWritten = BITS_PER_INT * 2 + (long) codec.encode(chunks, bits);
+        bits.flush();
+        return bitsWritten;
+    }
+
+    /*
+     * Code every block of the STORE_BLOCKS format on its own task. Blocks
+     * are byte aligned so their frames are written as they are.
+     */
+    private long compressBlocks(long size, ChunkReader reader, OutputStream out) throws IOException {
+        int blockSize = BlockHuffCodec.DEFAULT_BLOCK_SIZE;
+        int numBlocks = numChunks(size, blockSize);
+        writeInt(out, MAGIC_NUMBER);
+        writeInt(out, STORE_BLOCKS);
+        writeInt(out, blockSize);
+        long bitsWritten = BITS_PER_INT * 3;
+        int window = Math.max(1, pool.getParallelism() * CHUNKS_PER_THREAD);
+        for (int first = 0; first < numBlocks; first += window) {
+            List<Callable<byte[]>> coders = new ArrayList<>();
+            for (int k = first; k < Math.min(numBlocks, first + window); k++) {
+                long position = (long) k * blockSize;
+                int length = chunkLength(size, position, blockSize);
+                coders.add(() -> {
+                    byte[] block = new byte[length];
+                    reader.read(position, block, length);
+                    return BlockHuffCodec.encodeBlock(block, 0, length);
+                });
+            }
+            List<byte[]> payloads = runAll(coders);
+            for (int k = first; k < first + payloads.size(); k++) {
+                byte[] payload = payloads.get(k - first);
+                writeInt(out, chunkLength(size, (long) k * blockSize, blockSize));
+                writeInt(out, payload.length);
+                out.write(payload);
+                bitsWritten += BITS_PER_INT * 2 + (long) payload.length * BITS_PER_WORD;
+            }
+        }
+        // An empty block marks the end
+        writeInt(out, 0);
+        return bitsWritten + BITS_PER_INT;
+    }
+
+    /*
+     * Returns the counts the codes are built from. Counts that don't fit in an
+     * int are scaled down for the tree and custom formats, keeping every value
+     * that appears. The count format stores exact counts so they must fit.
+     */
+    private static int[] treeCounts(long[] totals, int headerFormat) throws IOException {
+        long total = 0;
+        for (long count : totals) {
+            total += count;
+        }
+        int shift = 0;
+        while ((total >> shift) + ALPH_SIZE + 1 >= Integer.MAX_VALUE) {
+            shift++;
+        }
+        if (shift > 0 && headerFormat == STORE_COUNTS) {
+            throw new IOException("File is too large for the count header format, use the tree or custom format");
+        }
+        int[] counts = new int[ALPH_SIZE];
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            counts[k] = totals[k] == 0 ? 0 : (int) Math.max(1, totals[k] >> shift);
+        }
+        return counts;
+    }
+
+    // Returns the number of bits the codes of a chunk with the given counts take.
+    private static long codedBits(int[] counts, int[] lengths) {
+        long bits = 0;
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            bits += (long) counts[k] * lengths[k];
+        }
+        return bits;
+    }
+
+    /*
+     * Record the bit offset of every value of a chunk that has an index entry.
+     */
+    private void indexChunk(byte[] chunk, int length, int[] lengths, long position, long startBit,
+            long[] indexOffsets) {
+        int entry = (int) ((position + indexInterval - 1) / indexInterval);
+        int next = (int) ((long) entry * indexInterval - position);
+        long bitOffset = startBit;
+        for (int k = 0; k < length; k++) {
+            if (k == next) {
+                indexOffsets[entry++] = bitOffset;
+                next += indexInterval;
+            }
+            bitOffset += lengths[chunk[k] & 0xff];
+        }
+    }
+
+    /*
+     * Code a chunk into an array that starts with the byte holding startBit.
+     * The bits before startBit in that byte are left as zeros for the end of
+     * the previous chunk.
+     */
+    private static byte[] encodeChunk(byte[] chunk, int length, long[] codes, int[] lengths, long startBit,
+            long numBits, boolean addEof) {
+        int shift = (int) (startBit % BITS_PER_WORD);
+        byte[] result = new byte[(int) ((shift + numBits + BITS_PER_WORD - 1) / BITS_PER_WORD)];
+        int pos = 0;
+        long bits = 0;
+        int numBuffered = shift;
+        for (int k = 0; k < length; k++) {
+            int value = chunk[k] & 0xff;
+            bits = (bits << lengths[value]) | codes[value];
+            numBuffered += lengths[value];
+            while (numBuffered >= BITS_PER_WORD) {
+                numBuffered -= BITS_PER_WORD;
+                result[pos++] = (byte) (bits >>> numBuffered);
+            }
+        }
+        if (addEof) {
+            bits = (bits << lengths[PSEUDO_EOF]) | codes[PSEUDO_EOF];
+            numBuffered += lengths[PSEUDO_EOF];
+            while (numBuffered >= BITS_PER_WORD) {
+                numBuffered -= BITS_PER_WORD;
+                result[pos++] = (byte) (bits >>> numBuffered);
+            }
+        }
+        if (numBuffered > 0) {
+            result[pos] = (byte) (bits << (BITS_PER_WORD - numBuffered));
+        }
+        return result;
+    }
+
+    /*
+     * Writes pieces of coded data to a stream one after another, where every
+     * piece begins inside the last byte of the piece before it.
+     */
+    private static class BitStitcher {
+        private final OutputStream out;
+        private int partialByte;
+        private long bitsWritten;
+
+        BitStitcher(OutputStream out) {
+            this.out = out;
+        }
+
+        // Write numBits bits of piece, which starts with room for the bits of partialByte
+        void append(byte[] piece, long numBits) throws IOException {
+            if (numBits == 0) {
+                return;
+            }
+            int numPartial = (int) (bitsWritten % BITS_PER_WORD);
+            long end = numPartial + numBits;
+            piece[0] |= (byte) partialByte;
+            int wholeBytes = (int) (end / BITS_PER_WORD);
+            out.write(piece, 0, wholeBytes);
+            partialByte = end % BITS_PER_WORD == 0 ? 0 : piece[wholeBytes] & 0xff;
+            bitsWritten += numBits;
+        }
+
+        // Write the last partial byte, padded with zeros to a byte boundary
+        void finish() throws IOException {
+            if (bitsWritten % BITS_PER_WORD != 0) {
+                out.write(partialByte);
+                bitsWritten += BITS_PER_WORD - bitsWritten % BITS_PER_WORD;
+                partialByte = 0;
+            }
+        }
+
+        long getBitsWritten() {
+            return bitsWritten;
+        }
+    }
+
+    // Run the tasks on the pool and return their results in order.
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        return BlockHuffCodec.runAll(pool, tasks, "compressing");
+    }
+
+    private static int numChunks(long size, int chunkSize) {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    private static int chunkLength(long size, long position, int chunkSize) {
+        return (int) Math.min(chunkSize, size - position);
+    }
+
+    private static void readFully(FileChannel channel, long position, byte[] dest, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dest, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("file ended early at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
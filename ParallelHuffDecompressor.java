@@ -0,0 +1,288 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Uncompresses a file on many threads. Files written with an index trailer
+ * (see <code>HuffIndex</code>) are split at the index entries. Every range is
+ * decoded on its own task straight into its place in an output that is sized
+ * before decoding starts. STORE_BLOCKS files need no index because the
+ * blocks can be found from their lengths, so they are decoded a block per
+ * task. Other files are uncompressed by <code>SimpleHuffProcessor</code> on
+ * one thread.
+ */
+public class ParallelHuffDecompressor implements IHuffConstants {
+
+    // Bytes read from the start of a file to read the header
+    private static final int HEADER_READ_SIZE = 1 << 12;
+
+    // Bytes in the lengths that frame a STORE_BLOCKS block
+    private static final int BLOCK_FRAME_BYTES = 8;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a decompressor that runs on the common ForkJoinPool.
+     */
+    public ParallelHuffDecompressor() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a decompressor that runs on the given pool. The pool is not shut
+     * down by the decompressor.
+     * @param pool the pool ranges are decoded on
+     */
+    public ParallelHuffDecompressor(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Uncompress a file into another file.
+     * @param in the compressed file
+     * @param out the file the original data is written to
+     * @return the number of bits written
+     * @throws IOException if in is not a valid compressed file or an error
+     * occurs reading or writing
+     */
+    public long uncompress(File in, File out) throws IOException {
+        long bitsWritten;
+        try (FileInputStream fileIn = new FileInputStream(in);
+                RandomAccessFile fileOut = new RandomAccessFile(out, "rw")) {
+            FileChannel inChannel = fileIn.getChannel();
+            FileChannel outChannel = fileOut.getChannel();
+            Output output = new Output() {
+                public void setLength(long length) throws IOException {
+                    fileOut.setLength(length);
+                }
+
+                public void write(long position, byte[] data, int length) throws IOException {
+                    ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+                    while (buffer.hasRemaining()) {
+                        outChannel.write(buffer, position + buffer.position());
+                    }
+                }
+            };
+            bitsWritten = uncompress(inChannel.size(),
+                    (position, dest, length) -> readFully(inChannel, position, dest, length), output);
+        }
+        if (bitsWritten < 0) {
+            // No index, uncompress on this thread once out is no longer open
+            SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+            huffer.setPool(pool);
+            bitsWritten = huffer.uncompress(new BufferedInputStream(new FileInputStream(in)),
+                    new BufferedOutputStream(new FileOutputStream(out)));
+        }
+        return bitsWritten;
+    }
+
+    /**
+     * Uncompress an array to out, which is closed when done. The original
+     * data must fit in an array.
+     * @param compressed the compressed data
+     * @param out is bound to a file/stream to which the original data is written
+     * @return the number of bits written
+     * @throws IOException if compressed is not valid or an error occurs writing out
+     */
+    public long uncompress(byte[] compressed, OutputStream out) throws IOException {
+        byte[][] original = new byte[1][];
+        Output output = new Output() {
+            public void setLength(long length) throws IOException {
+                if (length > Integer.MAX_VALUE - BITS_PER_WORD) {
+                    throw new IOException("Original data is too large for an array");
+                }
+                original[0] = new byte[(int) length];
+            }
+
+            public void write(long position, byte[] data, int length) {
+                System.arraycopy(data, 0, original[0], (int) position, length);
+            }
+        };
+        long bitsWritten = uncompress(compressed.length,
+                (position, dest, length) -> System.arraycopy(compressed, (int) position, dest, 0, length), output);
+        if (bitsWritten < 0) {
+            // No index, uncompress on this thread
+            SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+            huffer.setPool(pool);
+            return huffer.uncompress(new ByteArrayInputStream(compressed), out);
+        }
+        out.write(original[0]);
+        out.close();
+        return bitsWritten;
+    }
+
+    /*
+     * Copies part of the compressed data into an array. Called from many
+     * threads at once.
+     */
+    private interface RangeReader {
+        void read(long position, byte[] dest, int length) throws IOException;
+    }
+
+    /*
+     * Where the original data goes. Ranges are written from many threads at once.
+     */
+    private interface Output {
+        void setLength(long length) throws IOException;
+
+        void write(long position, byte[] data, int length) throws IOException;
+    }
+
+    /*
+     * Uncompress in parallel if the format allows it. Returns the number of
+     * bits written or -1 if the file has to be uncompressed on one thread.
+     */
+    private long uncompress(long size, RangeReader reader, Output output) throws IOException {
+        byte[] start = new byte[(int) Math.min(size, HEADER_READ_SIZE)];
+        reader.read(0, start, start.length);
+        BitInputStream header = new BitInputStream(new ByteArrayInputStream(start));
+        if (header.readBits(BITS_PER_INT) != MAGIC_NUMBER) {
+            throw new IOException("Invalid magic number file cant be uncompressed!");
+        }
+        int headerType = header.readBits(BITS_PER_INT);
+        if (headerType == STORE_BLOCKS) {
+            return uncompressBlocks(size, reader, output);
+        }
+        if (SimpleHuffProcessor.codecFor(headerType) != null) {
+            // Coded in order, such as STORE_ADAPTIVE
+            return -1;
+        }
+        HuffDecodeTable codes = new SimpleHuffProcessor().readCodes(headerType, header);
+        if (codes == null) {
+            throw new IOException("Unknown header format " + headerType);
+        }
+        // Look for an index trailer at the end of the file
+        if (size < HuffIndex.TRAILER_END_BYTES) {
+            return -1;
+        }
+        byte[] end = new byte[HuffIndex.TRAILER_END_BYTES];
+        reader.read(size - end.length, end, end.length);
+        int trailerLength = HuffIndex.trailerLength(end);
+        if (trailerLength < 0 || trailerLength > size) {
+            return -1;
+        }
+        long trailerStart = size - trailerLength;
+        byte[] trailer = new byte[trailerLength];
+        reader.read(trailerStart, trailer, trailerLength);
+        HuffIndex index = HuffIndex.read(trailer, trailerStart);
+
+        output.setLength(index.getOriginalLength());
+        List<Callable<Void>> decoders = new ArrayList<>();
+        for (int k = 0; k < index.getNumEntries(); k++) {
+            int entry = k;
+            decoders.add(() -> {
+                decodeRange(index, entry, trailerStart, codes, reader, output);
+                return null;
+            });
+        }
+        runAll(decoders);
+        return index.getOriginalLength() * BITS_PER_WORD;
+    }
+
+    /*
+     * Decode the values of one index entry and write them to output. Every
+     * entry but the last must end where the next one starts and the last
+     * must be followed by PSEUDO_EOF, so a damaged index is an error rather
+     * than wrong output.
+     */
+    private static void decodeRange(HuffIndex index, int entry, long trailerStart, HuffDecodeTable codes,
+            RangeReader reader, Output output) throws IOException {
+        long bitOffset = index.getBitOffset(entry);
+        boolean last = entry + 1 == index.getNumEntries();
+        long endByte = last ? trailerStart : (index.getBitOffset(entry + 1) + BITS_PER_WORD - 1) / BITS_PER_WORD;
+        long startByte = bitOffset / BITS_PER_WORD;
+        long count = index.getOriginalCount(entry);
+        if (endByte - startByte > Integer.MAX_VALUE || count > Integer.MAX_VALUE) {
+            throw new IOException("index entry " + entry + " covers too much data");
+        }
+        byte[] coded = new byte[(int) (endByte - startByte)];
+        reader.read(startByte, coded, coded.length);
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(coded));
+        in.skipBits((int) (bitOffset % BITS_PER_WORD));
+        byte[] original = new byte[(int) count];
+        codes.decode(in, original, 0, original.length);
+        if (last && codes.decodeValue(in) != PSEUDO_EOF) {
+            throw new IOException("PSEUDO_EOF is missing after the last value");
+        }
+        if (!last && in.skipBits(Integer.MAX_VALUE) != endByte * BITS_PER_WORD - index.getBitOffset(entry + 1)) {
+            throw new IOException("index entry " + entry + " does not end where entry " + (entry + 1) + " starts");
+        }
+        output.write(index.getOriginalOffset(entry), original, original.length);
+    }
+
+    /*
+     * Find every block from the lengths that frame it, then decode the blocks
+     * in parallel.
+     */
+    private long uncompressBlocks(long size, RangeReader reader, Output output) throws IOException {
+        // Skip the magic number, header format and block size
+        long position = BITS_PER_INT * 3 / BITS_PER_WORD;
+        int blockSize = readInt(reader, size, position - BITS_PER_INT / BITS_PER_WORD);
+        if (blockSize < 1) {
+            throw new IOException("invalid block size " + blockSize);
+        }
+        List<long[]> blocks = new ArrayList<>();
+        long originalLength = 0;
+        int length = readInt(reader, size, position);
+        while (length != 0) {
+            int payloadLength = readInt(reader, size, position + BITS_PER_INT / BITS_PER_WORD);
+            if (length < 0 || length > blockSize || payloadLength < 1
+                    || position + BLOCK_FRAME_BYTES + payloadLength > size) {
+                throw new IOException("invalid block lengths " + length + " " + payloadLength);
+            }
+            blocks.add(new long[] { position + BLOCK_FRAME_BYTES, payloadLength, originalLength, length });
+            originalLength += length;
+            position += BLOCK_FRAME_BYTES + payloadLength;
+            length = readInt(reader, size, position);
+        }
+        output.setLength(originalLength);
+        List<Callable<Void>> decoders = new ArrayList<>();
+        for (long[] block : blocks) {
+            decoders.add(() -> {
+                byte[] payload = new byte[(int) block[1]];
+                reader.read(block[0], payload, payload.length);
+                byte[] original = new byte[(int) block[3]];
+                BlockHuffCodec.decodeBlock(payload, original, 0, original.length);
+                output.write(block[2], original, original.length);
+                return null;
+            });
+        }
+        runAll(decoders);
+        return originalLength * BITS_PER_WORD;
+    }
+
+    // Run the tasks on the pool and wait for all of them.
+    private void runAll(List<Callable<Void>> tasks) throws IOException {
+        BlockHuffCodec.runAll(pool, tasks, "uncompressing");
+    }
+
+    private static int readInt(RangeReader reader, long size, long position) throws IOException {
+        if (position + BITS_PER_INT / BITS_PER_WORD > size) {
+            throw new IOException("unexpected end of block data");
+        }
+        byte[] bytes = new byte[BITS_PER_INT / BITS_PER_WORD];
+        reader.read(position, bytes, bytes.length);
+        return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    private static void readFully(FileChannel channel, long position, byte[] dest, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dest, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("file ended early at " + (position + buffer.position()));
+            }
+        }
+    }
+}
@@ -1,50 +1,111 @@
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 
+/**
+ * A priority queue backed by an array based binary heap. Elements that
+ * compare as equal leave the queue in the order they were added (first in
+ * first out), which keeps the Huffman trees built with it identical to the
+ * ones built by the original list based queue.
+ */
 public class PriorityQueue<E extends Comparable<? super E>>{
     // Instance variables
-    private LinkedList<E> list;
+    private E[] heap;
+    // The order each element in heap was added in, used to break ties
+    private long[] order;
     private int size;
+    private long nextOrder;
 
+    private static final int INITIAL_CAPACITY = 16;
+
+    @SuppressWarnings("unchecked")
     public PriorityQueue() {
-        this.list = new LinkedList<>();
+        this.heap = (E[]) new Comparable<?>[INITIAL_CAPACITY];
+        this.order = new long[INITIAL_CAPACITY];
         this.size = 0;
     }
 
     public boolean enqueue(E data) {
-        // If the list is empty it does not matter where we add
-        if (size == 0) {
-            list.add(data);
-            size++;
-            return true;
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+            order = Arrays.copyOf(order, size * 2);
         }
-
-        int index = 0;
-        Iterator<E> i = list.iterator();
-        while (i.hasNext() && i.next().compareTo(data) <= 0) {
-            index++;
+        // Sift the new element up from the bottom of the heap
+        int index = size;
+        long dataOrder = nextOrder++;
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (compare(heap[parent], order[parent], data, dataOrder) <= 0) {
+                break;
+            }
+            heap[index] = heap[parent];
+            order[index] = order[parent];
+            index = parent;
         }
-        list.add(index, data);
+        heap[index] = data;
+        order[index] = dataOrder;
         size++;
         return true;
     }
 
     public E dequeue() {
-        // Return null if list is empty
+        // Return null if heap is empty
         if (size == 0) {
             return null;
         }
+        E result = heap[0];
         this.size--;
-        return list.removeFirst();
-
+        E last = heap[size];
+        long lastOrder = order[size];
+        heap[size] = null;
+        // Sift the last element down from the top of the heap
+        int index = 0;
+        int child = 1;
+        while (child < size) {
+            if (child + 1 < size && compare(heap[child + 1], order[child + 1], heap[child], order[child]) < 0) {
+                child++;
+            }
+            if (compare(last, lastOrder, heap[child], order[child]) <= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            order[index] = order[child];
+            index = child;
+            child = 2 * index + 1;
+        }
+        if (size > 0) {
+            heap[index] = last;
+            order[index] = lastOrder;
+        }
+        return result;
     }
 
     public int size() {
         return this.size;
     }
 
+    // Compare by priority first and by the order elements were added second.
+    private int compare(E first, long firstOrder, E second, long secondOrder) {
+        int result = first.compareTo(second);
+        if (result == 0) {
+            result = Long.compare(firstOrder, secondOrder);
+        }
+        return result;
+    }
+
     @Override
     public String toString() {
-        return list.toString();
+        // Show the elements in the order they would be dequeued
+        Integer[] positions = new Integer[size];
+        for (int k = 0; k < size; k++) {
+            positions[k] = k;
+        }
+        Arrays.sort(positions, (a, b) -> compare(heap[a], order[a], heap[b], order[b]));
+        StringBuilder result = new StringBuilder("[");
+        for (int k = 0; k < size; k++) {
+            if (k > 0) {
+                result.append(", ");
+            }
+            result.append(heap[positions[k]]);
+        }
+        return result.append("]").toString();
     }
 }
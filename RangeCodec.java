@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codes a stream with a range coder and an adaptive order-0 model, for
+ * when size matters more than speed. Like arithmetic coding, a range coder
+ * spends fractions of a bit on each value, and since the model learns the
+ * counts as it goes the input is read once and no table is stored.
+ * <P>
+ * The model starts with a count of 1 for every value and PSEUDO_EOF and
+ * adds INCREMENT to the count of every value coded, halving the counts
+ * when their total passes MAX_TOTAL. Cumulative counts are kept in a
+ * Fenwick tree, so coding a value takes time logarithmic in the alphabet.
+ * <P>
+ * The coder is the carry propagating range coder used by LZMA: a 32-bit
+ * range, a low end with a carry bit and a cached byte that the carry can
+ * still change. Only integer arithmetic is used, so the output is the same
+ * on every JVM. Nothing is stored after the header format except the
+ * bytes of the coder, the stream ends with PSEUDO_EOF.
+ */
+public class RangeCodec implements IHuffCodec {
+
+    // The model: counts of the values and PSEUDO_EOF
+    private static final int NUM_VALUES = ALPH_SIZE + 1;
+    private static final int INCREMENT = 24;
+    private static final int MAX_TOTAL = 1 << 16;
+
+    // The range is kept between 2^24 and 2^32
+    private static final long TOP = 1L << 24;
+    private static final long RANGE_MASK = 0xffffffffL;
+    private static final int FLUSH_BYTES = 5;
+
+    // Number of bytes read from the input at a time
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Counts and the Fenwick tree of cumulative counts, indexed from 1
+    private int[] counts;
+    private int[] tree;
+    private int total;
+    // The largest power of two no bigger than NUM_VALUES, where searching
+    // the tree starts
+    private int topBit;
+
+    // The encoder's state
+    private long low;
+    private long range;
+    private int cache;
+    private long cacheSize;
+    private int bytesWritten;
+
+    // The decoder's state
+    private long code;
+
+    public int getHeaderFormat() {
+        return STORE_RANGE;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        initializeModel();
+        low = 0;
+        range = RANGE_MASK;
+        cache = 0;
+        cacheSize = 1;
+        bytesWritten = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int numRead = in.read(buffer);
+        while (numRead != -1) {
+            for (int k = 0; k < numRead; k++) {
+                encodeValue(buffer[k] & 0xff, out);
+            }
+            numRead = in.read(buffer);
+        }
+        encodeValue(PSEUDO_EOF, out);
+        for (int k = 0; k < FLUSH_BYTES; k++) {
+            shiftLow(out);
+        }
+        return bytesWritten * BITS_PER_WORD;
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        initializeModel();
+        range = RANGE_MASK;
+        code = 0;
+        for (int k = 0; k < FLUSH_BYTES; k++) {
+            code = ((code << BITS_PER_WORD) | readByte(in)) & RANGE_MASK;
+        }
+        int bitsWritten = 0;
+        int value = decodeValue(in);
+        while (value != PSEUDO_EOF) {
+            out.write(value);
+            bitsWritten += BITS_PER_WORD;
+            value = decodeValue(in);
+        }
+        return bitsWritten;
+    }
+
+    private void encodeValue(int value, BitOutputStream out) {
+        long r = range / total;
+        low += r * cumulative(value);
+        range = r * counts[value];
+        while (range < TOP) {
+            range <<= BITS_PER_WORD;
+            shiftLow(out);
+        }
+        update(value);
+    }
+
+    private int decodeValue(BitInputStream in) throws IOException {
+        long r = range / total;
+        int target = (int) Math.min(code / r, total - 1);
+        int value = find(target);
+        code -= r * cumulative(value);
+        range = r * counts[value];
+        while (range < TOP) {
+            range <<= BITS_PER_WORD;
+            code = ((code << BITS_PER_WORD) | readByte(in)) & RANGE_MASK;
+        }
+        update(value);
+        return value;
+    }
+
+    /*
+     * Write the top byte of low once no carry can change it. A run of 0xff
+     * bytes is held back as cacheSize, since a carry turns them all to 0
+     * and adds one to the cached byte before them.
+     */
+    private void shiftLow(BitOutputStream out) {
+        if (low < 0xff000000L || low > RANGE_MASK) {
+            int carry = (int) (low >>> BITS_PER_INT);
+            int held = cache;
+            do {
+                out.write((held + carry) & 0xff);
+                bytesWritten++;
+                held = 0xff;
+            } while (--cacheSize != 0);
+            cache = (int) (low >>> 24) & 0xff;
+        }
+        cacheSize++;
+        low = (low & 0x00ffffffL) << BITS_PER_WORD;
+    }
+
+    private void initializeModel() {
+        counts = new int[NUM_VALUES];
+        tree = new int[NUM_VALUES + 1];
+        topBit = Integer.highestOneBit(NUM_VALUES);
+        for (int value = 0; value < NUM_VALUES; value++) {
+            counts[value] = 1;
+        }
+        rebuildTree();
+    }
+
+    // Count value and halve the counts if their total got too big.
+    private void update(int value) {
+        counts[value] += INCREMENT;
+        total += INCREMENT;
+        for (int k = value + 1; k <= NUM_VALUES; k += k & -k) {
+            tree[k] += INCREMENT;
+        }
+        if (total > MAX_TOTAL) {
+            for (int v = 0; v < NUM_VALUES; v++) {
+                counts[v] = (counts[v] + 1) >>> 1;
+            }
+            rebuildTree();
+        }
+    }
+
+    private void rebuildTree() {
+        total = 0;
+        for (int k = 1; k <= NUM_VALUES; k++) {
+            tree[k] = counts[k - 1];
+            total += counts[k - 1];
+        }
+        for (int k = 1; k <= NUM_VALUES; k++) {
+            int parent = k + (k & -k);
+            if (parent <= NUM_VALUES) {
+                tree[parent] += tree[k];
+            }
+        }
+    }
+
+    // Return the sum of the counts of the values before value.
+    private int cumulative(int value) {
+        int sum = 0;
+        for (int k = value; k > 0; k -= k & -k) {
+            sum += tree[k];
+        }
+        return sum;
+    }
+
+    // Return the value whose counts hold target, the value before which
+    // the counts add up to no more than target.
+    private int find(int target) {
+        int pos = 0;
+        for (int step = topBit; step > 0; step >>>= 1) {
+            if (pos + step <= NUM_VALUES && tree[pos + step] <= target) {
+                pos += step;
+                target -= tree[pos];
+            }
+        }
+        return pos;
+    }
+
+    private static int readByte(BitInputStream in) throws IOException {
+        int value = in.readBits(BITS_PER_WORD);
+        if (value == -1) {
+            throw new IOException("unexpected end of range coded data");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codes a stream in blocks where runs of a repeated byte can be replaced
+ * by run values coded with the same Huffman code as the bytes. A Huffman
+ * code spends at least one bit on every byte, so a file of long runs of a
+ * few values, such as <code>allWASD</code>, gets no smaller than an eighth
+ * of its size. With runs the byte is coded once and a run value tells how
+ * many times it repeats.
+ * <P>
+ * A run of a byte repeated MIN_REPEAT or more times after its first copy
+ * is coded as the byte followed by run value 256 + c and c extra bits,
+ * where the number of repeats minus MIN_REPEAT - 1 is 2^c plus the extra
+ * bits. Longer runs than the largest run value are split.
+ * <P>
+ * Whether a block uses run values is decided by a quick scan that samples
+ * how often a byte is the same as the one before it. Blocks with few runs
+ * are coded with an ordinary code for the bytes alone.
+ * <P>
+ * After the header format the block size is stored as an int. Each block
+ * is stored as the number of original bytes in the block (an int), a bit
+ * that is 1 if the block uses run values, the code lengths in
+ * <code>CanonicalCode</code> form, for the bytes and the run values or for
+ * the bytes alone, and the codes. A block with zero original bytes ends
+ * the stream. Runs don't cross the end of a block.
+ */
+public class RleHuffCodec implements IHuffCodec {
+
+    /**
+     * The number of original bytes in each block unless another size is given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /**
+     * The fraction of sampled bytes that must repeat the byte before them
+     * for a block to use run values.
+     */
+    public static final double RUN_RATIO = 0.25;
+
+    // The fewest repeats coded as a run, fewer are coded as bytes
+    private static final int MIN_REPEAT = 3;
+    private static final int NUM_RUN_VALUES = 16;
+    private static final int FIRST_RUN = ALPH_SIZE;
+    private static final int MAX_REPEAT = MIN_REPEAT - 2 + (1 << NUM_RUN_VALUES);
+
+    // Every SCAN_STRIDE-th byte is checked by the quick scan
+    private static final int SCAN_STRIDE = 7;
+
+    private static final int MAX_CODE_LENGTH = 15;
+
+    private final int blockSize;
+
+    /**
+     * Create a codec with the default block size.
+     */
+    public RleHuffCodec() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a codec that splits its input into blocks of blockSize bytes.
+     * @param blockSize the number of original bytes in each block, at least 1
+     */
+    public RleHuffCodec(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be at least 1");
+        }
+        this.blockSize = blockSize;
+    }
+
+    public int getHeaderFormat() {
+        return STORE_RLE;
+    }
+
+    public int encode(InputStream in, BitOutputStream out) throws IOException {
+        out.writeBits(BITS_PER_INT, blockSize);
+        int bitsWritten = BITS_PER_INT;
+        byte[] block = new byte[blockSize];
+        int[] symbols = new int[blockSize];
+        int length = BlockHuffCodec.readBlock(in, block);
+        while (length > 0) {
+            bitsWritten += encodeBlock(block, length, symbols, out);
+            length = BlockHuffCodec.readBlock(in, block);
+        }
+        // An empty block marks the end
+        out.writeBits(BITS_PER_INT, 0);
+        return bitsWritten + BITS_PER_INT;
+    }
+
+    public int decode(BitInputStream in, OutputStream out) throws IOException {
+        int storedBlockSize = BlockHuffCodec.readBlockSize(in);
+        byte[] block = new byte[storedBlockSize];
+        int bitsWritten = 0;
+        int length = BlockHuffCodec.readInt(in);
+        while (length != 0) {
+            if (length < 0 || length > storedBlockSize) {
+                throw new IOException("invalid block length " + length);
+            }
+            decodeBlock(in, block, length);
+            out.write(block, 0, length);
+            bitsWritten += length * BITS_PER_WORD;
+            length = BlockHuffCodec.readInt(in);
+        }
+        return bitsWritten;
+    }
+
+    /**
+     * Return true if a quick scan of part of an array finds enough bytes
+     * that repeat the byte before them for run values to pay off.
+     * @param data the array holding the bytes
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     * @return true if at least RUN_RATIO of the sampled bytes repeat the
+     * byte before them
+     */
+    public static boolean hasRuns(byte[] data, int offset, int length) {
+        int sampled = 0;
+        int repeats = 0;
+        for (int k = offset + 1; k < offset + length; k += SCAN_STRIDE) {
+            sampled++;
+            if (data[k] == data[k - 1]) {
+                repeats++;
+            }
+        }
+        return sampled > 0 && repeats >= RUN_RATIO * sampled;
+    }
+
+    /*
+     * Code one block and return the number of bits written. symbols holds
+     * the values of the block, bytes and run values with their extra bits.
+     */
+    private static int encodeBlock(byte[] block, int length, int[] symbols, BitOutputStream out) {
+        boolean runs = hasRuns(block, 0, length);
+        int[] freqs = new int[runs ? ALPH_SIZE + NUM_RUN_VALUES : ALPH_SIZE];
+        int numSymbols = 0;
+        int k = 0;
+        while (k < length) {
+            int value = block[k] & 0xff;
+            symbols[numSymbols++] = value;
+            freqs[value]++;
+            k++;
+            if (runs) {
+                int end = k;
+                int limit = Math.min(length, k + MAX_REPEAT);
+                while (end < limit && block[end] == block[k - 1]) {
+                    end++;
+                }
+                int repeats = end - k;
+                if (repeats >= MIN_REPEAT) {
+                    int extra = repeats - MIN_REPEAT + 1;
+                    int code = 31 - Integer.numberOfLeadingZeros(extra);
+                    // The run value above its extra bits
+                    symbols[numSymbols++] = ((FIRST_RUN + code) << NUM_RUN_VALUES) | (extra - (1 << code));
+                    freqs[FIRST_RUN + code]++;
+                    k = end;
+                }
+            }
+        }
+        int[] lengths = CanonicalCode.limitedLengths(freqs, MAX_CODE_LENGTH);
+        int[] codes = CanonicalCode.assignCodes(lengths);
+        out.writeBits(BITS_PER_INT, length);
+        out.writeBits(1, runs ? 1 : 0);
+        int bitsWritten = BITS_PER_INT + 1 + CanonicalCode.writeLengths(out, lengths);
+        for (int j = 0; j < numSymbols; j++) {
+            int symbol = symbols[j];
+            if (symbol < ALPH_SIZE) {
+                out.writeBits(lengths[symbol], codes[symbol]);
+                bitsWritten += lengths[symbol];
+            } else {
+                int value = symbol >>> NUM_RUN_VALUES;
+                int code = value - FIRST_RUN;
+                out.writeBits(lengths[value], codes[value]);
+                out.writeBits(code, symbol & ((1 << NUM_RUN_VALUES) - 1));
+                bitsWritten += lengths[value] + code;
+            }
+        }
+        return bitsWritten;
+    }
+
+    /*
+     * Decode one block of length bytes into dest.
+     */
+    private static void decodeBlock(BitInputStream in, byte[] dest, int length) throws IOException {
+        boolean runs = BlockHuffCodec.readBits(in, 1) == 1;
+        int[] lengths = CanonicalCode.readLengths(in, runs ? ALPH_SIZE + NUM_RUN_VALUES : ALPH_SIZE);
+        HuffDecodeTable table = new HuffDecodeTable(CanonicalCode.assignCodes(lengths), lengths);
+        if (!runs) {
+            table.decode(in, dest, 0, length);
+            return;
+        }
+        int pos = 0;
+        while (pos < length) {
+            int value = table.decodeValue(in);
+            if (value < ALPH_SIZE) {
+                dest[pos++] = (byte) value;
+                continue;
+            }
+            int code = value - FIRST_RUN;
+            int repeats = (1 << code) + BlockHuffCodec.readBits(in, code) + MIN_REPEAT - 1;
+            if (pos == 0 || repeats > length - pos) {
+                throw new IOException("run of " + repeats + " does not fit the block");
+            }
+            byte repeated = dest[pos - 1];
+            for (int end = pos + repeats; pos < end; pos++) {
+                dest[pos] = repeated;
+            }
+        }
+    }
+}
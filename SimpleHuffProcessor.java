@@ -15,12 +15,24 @@
  *  email address:
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 public class SimpleHuffProcessor implements IHuffProcessor {
 
@@ -28,12 +40,29 @@ public class SimpleHuffProcessor implements IHuffProcessor {
     private int header;
     private TreeNode huffTreeRoot;
     private int[] freqs;
-    private Map<Integer, String> huffCodes;
+    private int[] huffCodes;
+    private int[] huffCodeLengths;
     private int writtenBitNum;
     private int headerTreeSize;
 
     private int uncompSize;
     private int compSize;
+    private int maxCodeLength = CanonicalCode.MAX_CODE_LENGTH;
+    private HuffCodeCache codeCache;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int lzLevel = LzHuffCodec.DEFAULT_LEVEL;
+
+    private int singlePassMemoryLimit = DEFAULT_SINGLE_PASS_MEMORY_LIMIT;
+
+    // Charachters between entries of the index trailer, 0 for no index
+    private int indexInterval;
+    private long[] indexOffsets;
+
+    // Number of bytes read from the original file at a time when compressing
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    // Bytes a single pass compress keeps in memory before using a temp file
+    private static final int DEFAULT_SINGLE_PASS_MEMORY_LIMIT = 64 << 20;
 
     /**
      * Preprocess data so that compression is possible ---
@@ -56,47 +85,291 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      * @throws IOException if an error occurs while reading from the input file.
      */
     public int preprocessCompress(InputStream in, int headerFormat) throws IOException {
+        this.header = headerFormat;
+        IHuffCodec codec = compressCodecFor(headerFormat);
+        if (codec != null) {
+            return preprocessWithCodec(codec, in);
+        }
+        // Count every charachter, files are mapped and counted in parallel
+        this.freqs = FrequencyCounter.count(in, this.pool);
+        return buildCodes(headerFormat);
+    }
+
+    /*
+     * Helper method that returns the codec that handles a header format, or
+     * null if the header format is one of the single tree formats.
+     * 
+     * @param headerFormat the header type
+     * 
+     * @return a new codec for the header format or null
+     */
+    static IHuffCodec codecFor(int headerFormat) {
+        return codecFor(headerFormat, ForkJoinPool.commonPool());
+    }
+
+    /*
+     * Helper method that returns the codec that handles a header format,
+     * running any parallel work on the given pool, or null if the header
+     * format is one of the single tree formats.
+     * 
+     * @param headerFormat the header type
+     * 
+     * @param pool the pool the codec runs its tasks on
+     * 
+     * @return a new codec for the header format or null
+     */
+    static IHuffCodec codecFor(int headerFormat, ForkJoinPool pool) {
+        if (headerFormat == STORE_BLOCKS) {
+            return new BlockHuffCodec();
+        } else if (headerFormat == STORE_ADAPTIVE) {
+            return new AdaptiveHuffCodec();
+        } else if (headerFormat == STORE_ORDER1) {
+            return new Order1HuffCodec(Order1HuffCodec.DEFAULT_BLOCK_SIZE, pool);
+        } else if (headerFormat == STORE_MODEL) {
+            return new ModelHuffCodec();
+        } else if (headerFormat == STORE_INTERLEAVED) {
+            return new InterleavedHuffCodec();
+        } else if (headerFormat == STORE_FSE) {
+            return new FseCodec();
+        } else if (headerFormat == STORE_RANGE) {
+            return new RangeCodec();
+        } else if (headerFormat == STORE_LZ77) {
+            return new LzHuffCodec();
+        } else if (headerFormat == STORE_RLE) {
+            return new RleHuffCodec();
+        } else if (headerFormat == STORE_BWT) {
+            return new BwtHuffCodec(BwtHuffCodec.DEFAULT_BLOCK_SIZE, pool);
+        }
+        return null;
+    }
+
+    /*
+     * Helper method that returns the codec compress uses for a header format,
+     * set up with this processor's settings, or null if the header format is
+     * one of the single tree formats.
+     * 
+     * @param headerFormat the header type
+     * 
+     * @return a new codec for the header format or null
+     */
+    private IHuffCodec compressCodecFor(int headerFormat) {
+        if (headerFormat == STORE_LZ77) {
+            return new LzHuffCodec(this.lzLevel);
+        }
+        return codecFor(headerFormat, this.pool);
+    }
+
+    /*
+     * Helper method that preprocesses for a header format handled by a codec.
+     * Codecs decide how to code as they go, so the only way to know the size
+     * of the compressed file is to compress it. The coded bits are only
+     * counted, compress codes the file again rather than holding it in memory.
+     * 
+     * @param codec the codec for the header format
+     * 
+     * @param in the stream to compress
+     * 
+     * @return the number of bits compressing will save
+     */
+    private int preprocessWithCodec(IHuffCodec codec, InputStream in) throws IOException {
+        CountingInputStream counted = new CountingInputStream(in);
+        this.compSize = compressWithCodec(codec, counted, OutputStream.nullOutputStream());
+        this.uncompSize = (int) (counted.getCount() * BITS_PER_WORD);
+        return this.uncompSize - this.compSize;
+    }
+
+    /*
+     * Helper method that writes the magic number and header format of a
+     * codec, then lets the codec code the data.
+     * 
+     * @param codec the codec for the header format
+     * 
+     * @param in the stream to compress
+     * 
+     * @param out the stream to write the compressed data to, closed when done
+     * 
+     * @return the number of bits written
+     */
+    private int compressWithCodec(IHuffCodec codec, InputStream in, OutputStream out) throws IOException {
+        BitOutputStream outStream = new BitOutputStream(out);
+        outStream.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        outStream.writeBits(BITS_PER_INT, codec.getHeaderFormat());
+        int bitsWritten = BITS_PER_INT * 2 + codec.encode(in, outStream);
+        outStream.close();
+        return bitsWritten;
+    }
+
+    /*
+     * Helper method that builds the huffman tree and codes from freqs, or
+     * takes them from the code cache, and calculates the size of the
+     * compressed file.
+     * 
+     * @param headerFormat the header type
+     * 
+     * @return the number of bits compressing will save
+     */
+    private int buildCodes(int headerFormat) throws IOException {
         this.compSize = 0;
         this.uncompSize = 0;
-        this.header = headerFormat;
-        BitInputStream inStream = new BitInputStream(in);
-        // Map to store ascii value of char and its freqs
-        HashMap<Integer, Integer> freqMap = createFreqMap(inStream);
-        TreeNode huffmanTreeRoot = getHuffmanTreeRoot(freqMap);
+        // The count format's decoder builds the tree from the counts, so only
+        // the formats that store the code can use a code built for other counts
+        boolean useCache = this.codeCache != null
+                && (headerFormat == STORE_TREE || headerFormat == STORE_CUSTOM);
+        int[] treeFreqs = null;
+        if (useCache) {
+            treeFreqs = Arrays.copyOf(this.freqs, ALPH_SIZE + 1);
+            treeFreqs[PSEUDO_EOF] = 1;
+            int[] cachedLengths = this.codeCache.lookup(treeFreqs, this.maxCodeLength, headerFormat);
+            if (cachedLengths != null) {
+                this.uncompSize = (int) (countSymbols() * BITS_PER_WORD);
+                this.huffCodeLengths = cachedLengths.clone();
+                this.huffCodes = CanonicalCode.assignCodes(this.huffCodeLengths);
+                this.huffTreeRoot = CanonicalCode.buildTree(this.huffCodes, this.huffCodeLengths);
+                calcCompFileSize(headerFormat, this.huffTreeRoot);
+                return uncompSize - compSize;
+            }
+        }
+        TreeNode huffmanTreeRoot = getHuffmanTreeRoot(this.freqs);
         this.huffTreeRoot = huffmanTreeRoot;
         // Generate Huffman codes from the tree root
-        Map<Integer, String> huffCodes = generateHuffCode(this.huffTreeRoot, "");
+        this.huffCodes = new int[ALPH_SIZE + 1];
+        this.huffCodeLengths = new int[ALPH_SIZE + 1];
+        generateHuffCode(this.huffTreeRoot, 0, 0);
+        if (CanonicalCode.maxLength(this.huffCodeLengths) > this.maxCodeLength) {
+            if (headerFormat == STORE_COUNTS) {
+                // The decoder rebuilds the tree from the counts so it can't be changed
+                if (CanonicalCode.maxLength(this.huffCodeLengths) > CanonicalCode.MAX_CODE_LENGTH) {
+                    throw new IOException("Huffman codes are longer than " + CanonicalCode.MAX_CODE_LENGTH
+                            + " bits, use the tree or custom header format");
+                }
+            } else {
+                limitCodeLengths();
+            }
+        }
+        if (headerFormat == STORE_CUSTOM) {
+            // Only the code lengths are stored so the codes must be canonical
+            this.huffCodeLengths = CanonicalCode.codeLengths(this.huffTreeRoot, ALPH_SIZE + 1);
+            this.huffCodes = CanonicalCode.assignCodes(this.huffCodeLengths);
+        }
+        if (useCache) {
+            this.codeCache.store(treeFreqs, this.huffCodeLengths, this.maxCodeLength);
+        }
 
-        this.huffCodes = huffCodes;
-        calcCompFileSize(headerFormat, freqMap, huffmanTreeRoot, huffCodes);
+        calcCompFileSize(headerFormat, this.huffTreeRoot);
         return uncompSize - compSize;
     }
 
+    /**
+     * Set a cache of codes that buildCodes looks in before building a new
+     * code, and adds the codes it builds to. Processors compressing many
+     * files with nearly the same counts can share one cache. The cache is not
+     * used for the STORE_COUNTS format, where the decoder builds the code
+     * from the counts. There is no cache by default.
+     * 
+     * @param cache the cache to use, null for no cache
+     */
+    public void setCodeCache(HuffCodeCache cache) {
+        this.codeCache = cache;
+    }
+
+    /**
+     * Return the cache of codes set with <code>setCodeCache</code>.
+     * 
+     * @return the cache of codes, null if there is none
+     */
+    public HuffCodeCache getCodeCache() {
+        return this.codeCache;
+    }
+
+    /**
+     * Set the ForkJoinPool that parallel work runs on: counting large files
+     * and the STORE_ORDER1 and STORE_BWT formats. The common pool is used
+     * by default.
+     * 
+     * @param pool the pool to run parallel work on
+     */
+    public void setPool(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool can't be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Set how hard the STORE_LZ77 format looks for matches, from 1, the
+     * fastest, to 9, the smallest output. The default is level 6.
+     * 
+     * @param level the level of LZ77 compression, from 1 to 9
+     */
+    public void setLzLevel(int level) {
+        if (level < 1 || level > 9) {
+            throw new IllegalArgumentException("LZ77 level must be between 1 and 9");
+        }
+        this.lzLevel = level;
+    }
+
+    /**
+     * Return the level of LZ77 compression set with <code>setLzLevel</code>.
+     * 
+     * @return the level of LZ77 compression
+     */
+    public int getLzLevel() {
+        return this.lzLevel;
+    }
+
+    /**
+     * Set the longest Huffman code compress may use. Codes are limited with
+     * the package-merge algorithm, which gives the smallest output possible
+     * under the limit. Smaller limits bound the size of decoding tables.
+     * The limit does not apply to the STORE_COUNTS format because the
+     * decoder rebuilds the tree from the counts. The default is 32 bits.
+     * 
+     * @param maxLength the longest code allowed, between 9 and 32 so every
+     *                  charachter and PSEUDO_EOF can be given a code
+     */
+    public void setMaxCodeLength(int maxLength) {
+        checkMaxCodeLength(maxLength);
+        this.maxCodeLength = maxLength;
+    }
+
+    /*
+     * Throws an IllegalArgumentException unless maxLength is a limit
+     * setMaxCodeLength accepts. Shared with ParallelHuffCompressor.
+     */
+    static void checkMaxCodeLength(int maxLength) {
+        if (maxLength < CanonicalCode.bitsNeeded(ALPH_SIZE) || maxLength > CanonicalCode.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Max code length must be between "
+                    + CanonicalCode.bitsNeeded(ALPH_SIZE) + " and " + CanonicalCode.MAX_CODE_LENGTH);
+        }
+    }
+
+    /*
+     * Helper method that replaces the huff codes with the best codes no longer
+     * than maxCodeLength bits. The codes are canonical and the tree is rebuilt
+     * from them so it can be written for STORE_TREE.
+     */
+    private void limitCodeLengths() {
+        int[] treeFreqs = Arrays.copyOf(this.freqs, ALPH_SIZE + 1);
+        treeFreqs[PSEUDO_EOF] = 1;
+        this.huffCodeLengths = CanonicalCode.limitedLengths(treeFreqs, this.maxCodeLength);
+        this.huffCodes = CanonicalCode.assignCodes(this.huffCodeLengths);
+        this.huffTreeRoot = CanonicalCode.buildTree(this.huffCodes, this.huffCodeLengths);
+    }
+
     /*
      * Helper method that calculates what the size of the compressed file will be
      * 
      * @param headerFormat the header type
      * 
-     * @param freqMap a map of ascii values and corresponding freqs
-     * 
      * @param huffmanTreeRoot the root of the huffman tree
-     * 
-     * @param huffCodes a map of ascii values and corresponding hufff codes
      */
-    private void calcCompFileSize(int headerFormat, HashMap<Integer, Integer> freqMap,
-            TreeNode huffmanTreeRoot, Map<Integer, String> huffCodes) {
-        // loop through all charachters
-        for (Integer asciiVal : huffCodes.keySet()) {
-            int codeLength = huffCodes.get(asciiVal).length();
-            if (asciiVal == PSEUDO_EOF) {
-                // Add the length of the PSUEDO_EOF
-                this.compSize += codeLength;
-            } else {
-                // Add the length of each huff code multiplied by its freq in the file
-                int codeFreq = freqMap.get(asciiVal);
-                this.compSize += codeLength * codeFreq;
-            }
+    private void calcCompFileSize(int headerFormat, TreeNode huffmanTreeRoot) {
+        // Add the length of each huff code multiplied by its freq in the file
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            this.compSize += this.huffCodeLengths[k] * this.freqs[k];
         }
+        // Add the length of the PSUEDO_EOF
+        this.compSize += this.huffCodeLengths[PSEUDO_EOF];
         // Account for magic number and header type and header data
         this.compSize += BITS_PER_INT * 2;
         if (headerFormat == STORE_COUNTS) {
@@ -104,39 +377,45 @@ public class SimpleHuffProcessor implements IHuffProcessor {
         } else if (headerFormat == STORE_TREE) {
             updateHeaderInfoForTree(huffmanTreeRoot);
             this.compSize += BITS_PER_INT;
+        } else if (headerFormat == STORE_CUSTOM) {
+            this.compSize += CanonicalCode.headerBits(this.huffCodeLengths);
+        }
+        if (this.indexInterval > 0) {
+            // The index starts on the byte after PSEUDO_EOF
+            this.compSize += (BITS_PER_WORD - this.compSize % BITS_PER_WORD) % BITS_PER_WORD;
+            this.compSize += HuffIndex.trailerBits(HuffIndex.numEntries(countSymbols(), this.indexInterval));
+        }
+    }
+
+    /*
+     * Helper method that returns the number of charachters in the file, the
+     * sum of freqs.
+     */
+    private long countSymbols() {
+        long numSymbols = 0;
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            numSymbols += this.freqs[k];
         }
+        return numSymbols;
     }
 
     /*
-     * Helper method that creates a huffman tree from a frequency map
+     * Helper method that creates a huffman tree from the frequencies of the
+     * charachters. Leaves are added in order of ascii value followed by
+     * PSEUDO_EOF, the same order uncompStoreCount uses to rebuild the tree.
      * 
-     * @param freqMap a map of ascii values and their frequency in the file
+     * @param charFreqs the frequency of every ascii value in the file
      * 
      * @return the root of the new huffman tree
      */
-    private TreeNode getHuffmanTreeRoot(HashMap<Integer, Integer> freqMap) {
-        // Create empty priority queue
-        PriorityQueue<TreeNode> huffTreeQ = new PriorityQueue<>();
-        // Creates and adds a TreeNode for each char in freqMap
-        for (Integer asciiVal : freqMap.keySet()) {
-            int charFreq = freqMap.get(asciiVal);
-            TreeNode charNode = new TreeNode(asciiVal, charFreq);
-            huffTreeQ.enqueue(charNode);
-            uncompSize += charFreq * BITS_PER_WORD; // Calculate uncompressed size
-        }
-        // Add a TreeNode for PSEUDO_EOF
-        huffTreeQ.enqueue(new TreeNode(PSEUDO_EOF, 1));
-
-        // Build Huffman tree
-        while (huffTreeQ.size() > 1) {
-            TreeNode left = huffTreeQ.dequeue();
-            TreeNode right = huffTreeQ.dequeue();
-            TreeNode combined = new TreeNode(left, left.getFrequency() + right.getFrequency(), right);
-            huffTreeQ.enqueue(combined);
+    private TreeNode getHuffmanTreeRoot(int[] charFreqs) {
+        int[] treeFreqs = Arrays.copyOf(charFreqs, ALPH_SIZE + 1);
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            uncompSize += charFreqs[k] * BITS_PER_WORD; // Calculate uncompressed size
         }
-        // The remaining node is the root of the Huffman Tree
-        TreeNode huffmanTreeRoot = huffTreeQ.dequeue();
-        return huffmanTreeRoot;
+        // Add PSEUDO_EOF, it appears once
+        treeFreqs[PSEUDO_EOF] = 1;
+        return HuffTreeBuilder.buildTree(treeFreqs);
     }
 
     /*
@@ -162,56 +441,32 @@ public class SimpleHuffProcessor implements IHuffProcessor {
         }
     }
 
-    /*
-     * Helper method that creates a frequency mapping of ascii vals and their
-     * frequency
-     * in the file
-     * 
-     * @param inStream the BitInputStream than contains our files data
-     * 
-     * @return the a map of all the freqs for every charachter in the file
-     */
-    private HashMap<Integer, Integer> createFreqMap(BitInputStream inStream) throws IOException {
-        // HashMap to store ascii values and freqs
-        HashMap<Integer, Integer> freqMap = new HashMap<>();
-        // Map of char freqs to be sent when STORE_COUNTS
-        this.freqs = new int[ALPH_SIZE];
-        // Read everyvalue and add or update its frequency in the map
-        int curVal = inStream.read();
-        while (curVal != -1) {
-            // String letter = Character.toString((char) curVal);
-            freqMap.put(curVal, freqMap.getOrDefault(curVal, 0) + 1);
-            freqs[curVal]++;
-            curVal = inStream.read();
-        }
-        return freqMap;
-    }
-
     /*
      * A recursive helper method that generates all the huff codes from the hufftree
+     * The bits of each code are stored in huffCodes and the number of bits in
+     * huffCodeLengths, both indexed by ascii value.
      * 
      * @param curNode starts at the root and becomes the node we are traversing
      * 
-     * @param curPath is the current path while we traverse to the leaf nodes
+     * @param curCode the bits of the path to curNode
      * 
-     * @return a map of ascii values and their respective huffman codes
+     * @param curLength the number of bits in the path to curNode
      */
-    private Map<Integer, String> generateHuffCode(TreeNode curNode, String curPath) {
-        Map<Integer, String> huffMap = new HashMap<>();
+    private void generateHuffCode(TreeNode curNode, int curCode, int curLength) {
         if (curNode.isLeaf()) {
-            // If it's a leaf node, put the ASCII value and its path in the map
-            huffMap.put(curNode.getValue(), curPath);
+            // If it's a leaf node, store the path to it as the code for its ascii value
+            this.huffCodes[curNode.getValue()] = curCode;
+            this.huffCodeLengths[curNode.getValue()] = curLength;
         } else {
-            // Recursively generate codes for left subtree, appending "0" to the path
+            // Recursively generate codes for left subtree, appending 0 to the path
             if (curNode.getLeft() != null) {
-                huffMap.putAll(generateHuffCode(curNode.getLeft(), curPath + "0"));
+                generateHuffCode(curNode.getLeft(), curCode << 1, curLength + 1);
             }
-            // Recursively generate codes for right subtree, appending "1" to the path
+            // Recursively generate codes for right subtree, appending 1 to the path
             if (curNode.getRight() != null) {
-                huffMap.putAll(generateHuffCode(curNode.getRight(), curPath + "1"));
+                generateHuffCode(curNode.getRight(), (curCode << 1) | 1, curLength + 1);
             }
         }
-        return huffMap;
     }
 
     /**
@@ -233,16 +488,39 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      *                     writing to the output file.
      */
     public int compress(InputStream in, OutputStream out, boolean force) throws IOException {
-        BitInputStream inStream = new BitInputStream(in);
         BitOutputStream outStream = new BitOutputStream(out);
 
         if (!force && this.compSize >= this.uncompSize) {
-            inStream.close();
+            in.close();
             outStream.close();
-            myViewer.showError("Cannot compress file as compressed will be larger than original");
+            showError("Cannot compress file as compressed will be larger than original");
             return 0;
         }
         this.writtenBitNum = 0;
+        IHuffCodec codec = compressCodecFor(this.header);
+        if (codec != null) {
+            // Codecs code the data as they read it
+            this.writtenBitNum = compressWithCodec(codec, in, out);
+            in.close();
+            showMessage("Wrote: " + this.writtenBitNum);
+            return this.writtenBitNum;
+        }
+        writeHeader(outStream);
+        writeOutDataCompressed(in, outStream);
+        finishCompress(in, outStream);
+        return this.writtenBitNum;
+    }
+
+    /*
+     * Helper method that writes out the magic number, the header type and the
+     * header data for the current header format.
+     * 
+     * @param outStream the BitOutputStream we are writing to
+     * 
+     * @return the number of bits written
+     */
+    int writeHeader(BitOutputStream outStream) {
+        int bitsBefore = this.writtenBitNum;
         // Write out the magic number
         outStream.writeBits(BITS_PER_INT, MAGIC_NUMBER);
         this.writtenBitNum += BITS_PER_INT;
@@ -251,57 +529,266 @@ public class SimpleHuffProcessor implements IHuffProcessor {
             handleStoreCounts(outStream);
         } else if (this.header == STORE_TREE) {
             handleStoreTree(outStream);
+        } else if (this.header == STORE_CUSTOM) {
+            handleStoreCustom(outStream);
+        }
+        return this.writtenBitNum - bitsBefore;
+    }
+
+    /*
+     * Helper method for compressors that count the file themselves, such as
+     * ParallelHuffCompressor. Builds the codes for the given counts the same
+     * way preprocessCompress does.
+     * 
+     * @param counts the frequency of every charachter, indexed by ascii value
+     * 
+     * @param headerFormat one of the single tree header types
+     * 
+     * @return the number of bits compressing will save
+     */
+    int preprocessCounts(int[] counts, int headerFormat) throws IOException {
+        if (codecFor(headerFormat) != null) {
+            throw new IOException("Header format " + headerFormat + " does not use a single tree");
+        }
+        this.header = headerFormat;
+        this.freqs = Arrays.copyOf(counts, ALPH_SIZE);
+        return buildCodes(headerFormat);
+    }
+
+    /*
+     * Returns the huff code of every value, indexed by ascii value and
+     * PSEUDO_EOF. Valid after preprocessing.
+     */
+    int[] getHuffCodes() {
+        return this.huffCodes;
+    }
+
+    /*
+     * Returns the number of bits in the huff code of every value, indexed by
+     * ascii value and PSEUDO_EOF. Valid after preprocessing.
+     */
+    int[] getHuffCodeLengths() {
+        return this.huffCodeLengths;
+    }
+
+    /**
+     * Compresses input to output reading the input only once, without a
+     * call to <code>preprocessCompress</code>. The input is counted as it is
+     * read and kept so it can be coded once the codes are known. Up to the
+     * single pass memory limit it is kept in memory, past that in a temporary
+     * file that is deleted when compression is done. The output is the same
+     * as <code>preprocessCompress</code> followed by <code>compress</code>
+     * with force set to true.
+     * 
+     * @param in           is the stream being compressed (NOT a BitInputStream)
+     * @param out          is bound to a file/stream to which bits are written
+     *                     for the compressed file (not a BitOutputStream)
+     * @param headerFormat a constant from IHuffProcessor that determines what
+     *                     kind of header to use
+     * @return the number of bits written.
+     * @throws IOException if an error occurs while reading from the input file or
+     *                     writing to the output file.
+     */
+    public int compress(InputStream in, OutputStream out, int headerFormat) throws IOException {
+        this.header = headerFormat;
+        IHuffCodec codec = compressCodecFor(headerFormat);
+        if (codec != null) {
+            // Codecs code the data as they read it
+            this.writtenBitNum = compressWithCodec(codec, in, out);
+            in.close();
+            showMessage("Wrote: " + this.writtenBitNum);
+            return this.writtenBitNum;
+        }
+        this.freqs = new int[ALPH_SIZE];
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        byte[] held = new byte[Math.min(READ_BUFFER_SIZE, this.singlePassMemoryLimit)];
+        int heldSize = 0;
+        File spillFile = null;
+        OutputStream spill = null;
+        try {
+            int numRead = in.read(buffer);
+            while (numRead != -1) {
+                FrequencyCounter.count(buffer, 0, numRead, this.freqs);
+                if (spill == null && heldSize + numRead > this.singlePassMemoryLimit) {
+                    // Too big to keep in memory, move what we have to a temp file
+                    spillFile = File.createTempFile("huff", ".tmp");
+                    spillFile.deleteOnExit();
+                    spill = new BufferedOutputStream(new FileOutputStream(spillFile));
+                    spill.write(held, 0, heldSize);
+                    held = null;
+                }
+                if (spill != null) {
+                    spill.write(buffer, 0, numRead);
+                } else {
+                    if (heldSize + numRead > held.length) {
+                        // Grow by doubling, but never past the limit
+                        int newLength = Math.max(held.length * 2, heldSize + numRead);
+                        held = Arrays.copyOf(held, Math.min(newLength, this.singlePassMemoryLimit));
+                    }
+                    System.arraycopy(buffer, 0, held, heldSize, numRead);
+                    heldSize += numRead;
+                }
+                numRead = in.read(buffer);
+            }
+            in.close();
+            buildCodes(headerFormat);
+            // Code the data we kept
+            InputStream kept;
+            if (spill != null) {
+                spill.close();
+                kept = new BufferedInputStream(new FileInputStream(spillFile), READ_BUFFER_SIZE);
+            } else {
+                kept = new ByteArrayInputStream(held, 0, heldSize);
+            }
+            return compress(kept, out, true);
+        } finally {
+            if (spill != null) {
+                spill.close();
+            }
+            if (spillFile != null) {
+                spillFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Set how many bytes of input the single pass <code>compress</code> keeps
+     * in memory. Larger inputs are kept in a temporary file instead.
+     * 
+     * @param numBytes the most bytes to keep in memory, at least 0
+     */
+    public void setSinglePassMemoryLimit(int numBytes) {
+        if (numBytes < 0) {
+            throw new IllegalArgumentException("Memory limit can't be negative");
+        }
+        this.singlePassMemoryLimit = numBytes;
+    }
+
+    /**
+     * Set how often compress records where a code starts in an index trailer
+     * after PSEUDO_EOF, so ParallelHuffDecompressor can decode parts of the
+     * file at the same time. Readers that don't use the index stop at
+     * PSEUDO_EOF and never see it. There is no index by default. The index
+     * is only written for the single tree header formats, STORE_BLOCKS
+     * blocks can already be found from their lengths.
+     * 
+     * @param numSymbols the number of charachters between entries, 0 for no index
+     */
+    public void setIndexInterval(int numSymbols) {
+        checkIndexInterval(numSymbols);
+        this.indexInterval = numSymbols;
+    }
+
+    /*
+     * Throws an IllegalArgumentException unless numSymbols is an interval
+     * setIndexInterval accepts. Shared with ParallelHuffCompressor.
+     */
+    static void checkIndexInterval(int numSymbols) {
+        if (numSymbols < 0) {
+            throw new IllegalArgumentException("Index interval can't be negative");
         }
-        writeOutDataCompressed(inStream, outStream);
-        finishCompress(inStream, outStream);
-        return this.writtenBitNum;
     }
 
     /*
      * A helper method that writes out the end of file code and closes the streams
      * 
-     * @param inStream the BitInputStream to close
+     * @param in the InputStream to close
      * 
      * @param outStream the BitOutputStream to close
      */
-    private void finishCompress(BitInputStream inStream, BitOutputStream outStream) {
-        // Write PSUEDO_EOF
-        String eofStr = huffCodes.get(PSEUDO_EOF);
-        int eofBitNum = eofStr.length();
-        int eofVal = Integer.parseInt(eofStr, 2);
-
+    private void finishCompress(InputStream in, BitOutputStream outStream) throws IOException {
         // Write out the PSUEDO_EOF huff code
-        outStream.writeBits(eofBitNum, eofVal);
+        int eofBitNum = this.huffCodeLengths[PSEUDO_EOF];
+        outStream.writeBits(eofBitNum, this.huffCodes[PSEUDO_EOF]);
         this.writtenBitNum += eofBitNum;
+        if (this.indexInterval > 0) {
+            // Pad to a byte boundary and write out the index trailer
+            int padding = (BITS_PER_WORD - this.writtenBitNum % BITS_PER_WORD) % BITS_PER_WORD;
+            outStream.writeBits(padding, 0);
+            this.writtenBitNum += padding;
+            long[] originalOffsets = new long[this.indexOffsets.length];
+            for (int k = 0; k < originalOffsets.length; k++) {
+                originalOffsets[k] = (long) k * this.indexInterval;
+            }
+            HuffIndex index = new HuffIndex(countSymbols(), this.indexOffsets, originalOffsets);
+            this.writtenBitNum += (int) index.write(outStream);
+        }
 
-        myViewer.showMessage("Wrote: " + this.writtenBitNum);
+        showMessage("Wrote: " + this.writtenBitNum);
         outStream.close();
-        inStream.close();
+        in.close();
     }
 
     /*
      * A helper method that compares each charachter in the original file to its
      * huff code
-     * and writes the huff code
+     * and writes the huff code. The file is read a buffer at a time and
+     * the codes are looked up by ascii value so nothing is created per charachter.
      * 
-     * @param inStream the BitInputStream we are reading from
+     * @param in the InputStream we are reading from
+     * 
+     * @param outStream the BitOutputStream we are writing with
+     */
+    private void writeOutDataCompressed(InputStream in, BitOutputStream outStream) throws IOException {
+        int[] codes = this.huffCodes;
+        int[] codeLengths = this.huffCodeLengths;
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        if (this.indexInterval > 0) {
+            writeOutDataIndexed(in, outStream, buffer);
+            return;
+        }
+        int bitsWritten = 0;
+        int numRead = in.read(buffer);
+        while (numRead != -1) {
+            for (int k = 0; k < numRead; k++) {
+                // Write out the huffcode for the charachter
+                int curVal = buffer[k] & 0xff;
+                int bitNum = codeLengths[curVal];
+                outStream.writeBits(bitNum, codes[curVal]);
+                bitsWritten += bitNum;
+            }
+            // Read the next chunk of charachters
+            numRead = in.read(buffer);
+        }
+        this.writtenBitNum += bitsWritten;
+    }
+
+    /*
+     * A helper method that writes the huff codes like writeOutDataCompressed
+     * and records the bit offset of every indexInterval-th charachter for the
+     * index trailer.
+     * 
+     * @param in the InputStream we are reading from
      * 
      * @param outStream the BitOutputStream we are writing with
+     * 
+     * @param buffer the array to read charachters into
      */
-    private void writeOutDataCompressed(BitInputStream inStream, BitOutputStream outStream) throws IOException {
-        // Write out data coded with the huffman codes
-        int curVal = inStream.read();
-        while (curVal != -1) {
-            String huffStr = huffCodes.get(curVal);
-            int bitNum = huffStr.length();
-            // Turn the huffman code string to and int
-            int huffVal = Integer.parseInt(huffStr, 2);
-            // Write out the huffcode
-            outStream.writeBits(bitNum, huffVal);
-            this.writtenBitNum += bitNum;
-            // Iterate to the next charachter
-            curVal = inStream.read();
+    private void writeOutDataIndexed(InputStream in, BitOutputStream outStream, byte[] buffer)
+            throws IOException {
+        int[] codes = this.huffCodes;
+        int[] codeLengths = this.huffCodeLengths;
+        this.indexOffsets = new long[HuffIndex.numEntries(countSymbols(), this.indexInterval)];
+        long bitOffset = this.writtenBitNum;
+        int numIndexed = 0;
+        // Charachters left before the next one in the index
+        int untilIndexed = 0;
+        int numRead = in.read(buffer);
+        while (numRead != -1) {
+            for (int k = 0; k < numRead; k++) {
+                if (untilIndexed == 0) {
+                    this.indexOffsets[numIndexed++] = bitOffset;
+                    untilIndexed = this.indexInterval;
+                }
+                untilIndexed--;
+                int curVal = buffer[k] & 0xff;
+                int bitNum = codeLengths[curVal];
+                outStream.writeBits(bitNum, codes[curVal]);
+                bitOffset += bitNum;
+            }
+            numRead = in.read(buffer);
         }
+        this.writtenBitNum = (int) bitOffset;
     }
 
     /*
@@ -324,6 +811,21 @@ public class SimpleHuffProcessor implements IHuffProcessor {
         writeTreeForSTF(this.huffTreeRoot, outStream);
     }
 
+    /*
+     * A helper method that writes out the header and header data when the header
+     * type is STORE_CUSTOM. The header is the length of the canonical code for
+     * every charachter, stored by CanonicalCode in its compact form.
+     * 
+     * @param outStream the BitOutputStream we are writing from
+     */
+    private void handleStoreCustom(BitOutputStream outStream) {
+        // Write out the header type
+        outStream.writeBits(BITS_PER_INT, STORE_CUSTOM);
+        this.writtenBitNum += BITS_PER_INT;
+        // Write out the code lengths
+        this.writtenBitNum += CanonicalCode.writeLengths(outStream, this.huffCodeLengths);
+    }
+
     /*
      * A helper method that writes out the header and header data when the header
      * type
@@ -357,7 +859,7 @@ public class SimpleHuffProcessor implements IHuffProcessor {
         }
         if (curNode.isLeaf()) {
             size[0] += 1;
-            size[0] += BITS_PER_INT;
+            size[0] += BITS_PER_WORD + 1;
         } else {
             size[0] += 1;
             calcTreeSize(curNode.getLeft(), size);
@@ -415,19 +917,21 @@ public class SimpleHuffProcessor implements IHuffProcessor {
         checkMagic(inStream, outStream);
         // Read the header type
         int headerType = inStream.readBits(BITS_PER_INT);
-        // Create a arbitrary node to store root
-        TreeNode root = new TreeNode(0, 0);
-        if (headerType == STORE_COUNTS) {
-            root = uncompStoreCount(inStream);
-        } else if (headerType == STORE_TREE) {
-            // Accound for 32 bits for size of tree
-            inStream.readBits(BITS_PER_INT);
-            root = rebuildTree(inStream);
+        int totalBitsWritten;
+        IHuffCodec codec = codecFor(headerType, this.pool);
+        if (codec != null) {
+            // Everything after the header type belongs to the codec
+            totalBitsWritten = codec.decode(inStream, outStream);
+        } else {
+            HuffDecodeTable codes = readCodes(headerType, inStream);
+            if (codes == null) {
+                inStream.close();
+                outStream.close();
+                throw new IOException("Unknown header format " + headerType);
+            }
+            // Decode until PSEUDO_EOF
+            totalBitsWritten = writeUncompData(inStream, outStream, codes);
         }
-        // Get huffcodes with reversed mapping
-        Map<String, Integer> codes = generateHuffCodeBackwards(root, "");
-        // Go through each bit
-        int totalBitsWritten = writeUncompData(inStream, outStream, codes);
 
         outStream.flush();
         outStream.close();
@@ -436,6 +940,131 @@ public class SimpleHuffProcessor implements IHuffProcessor {
         return totalBitsWritten;
     }
 
+    /**
+     * Compresses the bytes of src from its position to its limit into dst
+     * starting at its position. Both buffers are used in place, src is read
+     * once to count and again to code for the two pass header formats.
+     * 
+     * @param src          holds the data being compressed
+     * @param dst          is where the compressed data is written
+     * @param headerFormat a constant from IHuffProcessor that determines what
+     *                     kind of header to use
+     * @return the number of bits written
+     * @throws IOException if the data can't be compressed with headerFormat
+     */
+    public int compress(ByteBuffer src, ByteBuffer dst, int headerFormat) throws IOException {
+        return compressBuffer(src, new ByteBufferOutputStream(dst), headerFormat);
+    }
+
+    /**
+     * Uncompresses the compressed data in src into dst. Both buffers are
+     * used in place.
+     * 
+     * @param src holds the previously compressed data
+     * @param dst is where the uncompressed data is written
+     * @return the number of bits written
+     * @throws IOException if src does not hold valid compressed data
+     */
+    public int uncompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        return uncompress(new ByteBufferInputStream(src), new ByteBufferOutputStream(dst));
+    }
+
+    /**
+     * Compresses everything read from src to dst. A FileChannel is mapped
+     * into memory and compressed in place like a ByteBuffer, other channels
+     * are compressed in a single pass like a stream. Both channels are closed
+     * when done.
+     * 
+     * @param src          is the channel being compressed
+     * @param dst          is the channel the compressed data is written to
+     * @param headerFormat a constant from IHuffProcessor that determines what
+     *                     kind of header to use
+     * @return the number of bits written
+     * @throws IOException if an error occurs while reading from src or writing
+     *                     to dst
+     */
+    public int compress(ReadableByteChannel src, WritableByteChannel dst, int headerFormat) throws IOException {
+        OutputStream out = Channels.newOutputStream(dst);
+        if (src instanceof FileChannel) {
+            FileChannel file = (FileChannel) src;
+            long position = file.position();
+            long size = file.size() - position;
+            if (size <= Integer.MAX_VALUE) {
+                try {
+                    return compressBuffer(file.map(FileChannel.MapMode.READ_ONLY, position, size), out, headerFormat);
+                } finally {
+                    file.close();
+                }
+            }
+        }
+        return compress(Channels.newInputStream(src), out, headerFormat);
+    }
+
+    /**
+     * Uncompresses everything read from src to dst. Both channels are closed
+     * when done.
+     * 
+     * @param src is the channel holding the previously compressed data
+     * @param dst is the channel the uncompressed data is written to
+     * @return the number of bits written
+     * @throws IOException if an error occurs while reading from src or writing
+     *                     to dst
+     */
+    public int uncompress(ReadableByteChannel src, WritableByteChannel dst) throws IOException {
+        return uncompress(Channels.newInputStream(src), Channels.newOutputStream(dst));
+    }
+
+    /*
+     * Helper method that compresses the bytes of a buffer to out and closes
+     * out. The buffer is read in place, a duplicate of it is counted first for
+     * the single tree formats.
+     * 
+     * @param src the buffer to compress, from its position to its limit
+     * 
+     * @param out the stream to write the compressed data to
+     * 
+     * @param headerFormat the header format to compress with
+     * 
+     * @return the number of bits written
+     */
+    private int compressBuffer(ByteBuffer src, OutputStream out, int headerFormat) throws IOException {
+        IHuffCodec codec = compressCodecFor(headerFormat);
+        if (codec != null) {
+            // Codecs code the data as they read it
+            this.header = headerFormat;
+            this.writtenBitNum = compressWithCodec(codec, new ByteBufferInputStream(src), out);
+            showMessage("Wrote: " + this.writtenBitNum);
+            return this.writtenBitNum;
+        }
+        preprocessCompress(new ByteBufferInputStream(src.duplicate()), headerFormat);
+        return compress(new ByteBufferInputStream(src), out, true);
+    }
+
+    /*
+     * A helper method that reads the header data of a single tree header
+     * format and builds the lookup tables that decode whole codes at a time.
+     * 
+     * @param headerType the header type read after the magic number
+     * 
+     * @param inStream the BitInputStream positioned at the header data
+     * 
+     * @return the lookup tables, null if headerType is not a single tree format
+     */
+    HuffDecodeTable readCodes(int headerType, BitInputStream inStream) throws IOException {
+        if (headerType == STORE_COUNTS) {
+            return new HuffDecodeTable(uncompStoreCount(inStream));
+        } else if (headerType == STORE_TREE) {
+            // Accound for 32 bits for size of tree
+            inStream.readBits(BITS_PER_INT);
+            return new HuffDecodeTable(rebuildTree(inStream));
+        } else if (headerType == STORE_CUSTOM) {
+            // Rebuild the canonical codes from their lengths, no tree needed
+            int[] lengths = CanonicalCode.readLengths(inStream, ALPH_SIZE + 1);
+            return new HuffDecodeTable(CanonicalCode.assignCodes(lengths), lengths);
+        }
+        return null;
+    }
+
     /*
      * A helper method that will write out the converted data from huffcode to
      * charachter
@@ -444,37 +1073,15 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      * 
      * @param outStream the ButOutputStream we are writing data from
      * 
-     * @param codes a map of huffcodes to ascii values
+     * @param codes the lookup tables for the huffcodes
      * 
      * @return the number of bits written by the method
      */
     private int writeUncompData(BitInputStream inStream, BitOutputStream outStream,
-            Map<String, Integer> codes) throws IOException {
-        int totalBitsWritten = 0;
-        int bit = inStream.readBits(1);
-        String currentCode = "";
-        boolean shouldContinue = true;
-        while (bit != -1 && shouldContinue) {
-            // Add bit to current code
-            currentCode += Integer.toString(bit);
-            // if the currentCode is a key in the map write out its corresponding charachter
-            if (codes.containsKey(currentCode)) {
-                // Get the value the char(ascii val) or PSUEDO_EOF huff code is mapped to
-                int characterValue = codes.get(currentCode);
-                if (characterValue == PSEUDO_EOF) {
-                    // Stop the loop if we read in the PSUEDO_EOF val
-                    shouldContinue = false;
-                } else {
-                    outStream.write(characterValue);
-                    totalBitsWritten += BITS_PER_WORD;
-                    currentCode = "";
-                }
-            }
-            if (shouldContinue) {
-                bit = inStream.readBits(1);
-            }
-        }
-        return totalBitsWritten;
+            HuffDecodeTable codes) throws IOException {
+        // Every value before PSUEDO_EOF is one charachter of the original file
+        int charsWritten = codes.decode(inStream, outStream, PSEUDO_EOF);
+        return charsWritten * BITS_PER_WORD;
     }
 
     /*
@@ -486,30 +1093,14 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      * @return the root of the huff tree we rebuilt
      */
     private TreeNode uncompStoreCount(BitInputStream inStream) throws IOException {
-        TreeNode root;
         // Rebuild the frequency array from the header if STORE_COUNTS
-        int[] freqsRebuilt = new int[ALPH_SIZE];
+        int[] freqsRebuilt = new int[ALPH_SIZE + 1];
         for (int k = 0; k < ALPH_SIZE; k++) {
             freqsRebuilt[k] = inStream.readBits(BITS_PER_INT);
         }
-        // Construct the Huffman tree from the frequency table
-        PriorityQueue<TreeNode> huffTreeQ = new PriorityQueue<>();
-        for (int i = 0; i < ALPH_SIZE; i++) {
-            if (freqsRebuilt[i] > 0) {
-                huffTreeQ.enqueue(new TreeNode(i, freqsRebuilt[i]));
-            }
-        }
-        // Add a node for PSUEDO_EOF
-        huffTreeQ.enqueue(new TreeNode(PSEUDO_EOF, 1));
-        // Build huffman tree
-        while (huffTreeQ.size() > 1) {
-            TreeNode left = huffTreeQ.dequeue();
-            TreeNode right = huffTreeQ.dequeue();
-            TreeNode combined = new TreeNode(left, left.getFrequency() + right.getFrequency(), right);
-            huffTreeQ.enqueue(combined);
-        }
-        root = huffTreeQ.dequeue();
-        return root;
+        // Add PSUEDO_EOF and construct the Huffman tree from the frequency table
+        freqsRebuilt[PSEUDO_EOF] = 1;
+        return HuffTreeBuilder.buildTree(freqsRebuilt);
     }
 
     /*
@@ -553,32 +1144,6 @@ public class SimpleHuffProcessor implements IHuffProcessor {
         }
     }
 
-    /*
-     * A recursive helper method similar to generateHuffCodes() but mappings are reverse
-     * 
-     * @param curNode the current node we are traversing
-     * @param curPath the current path to the curNode
-     * 
-     * @ return a mapping of huffcodes to ascii values
-     */
-    private Map<String, Integer> generateHuffCodeBackwards(TreeNode curNode, String curPath) {
-        Map<String, Integer> huffMap = new HashMap<>();
-        if (curNode.isLeaf()) {
-            // If it's a leaf node put the ASCII value and its path in the map
-            huffMap.put(curPath, curNode.getValue());
-        } else {
-            // Recursively generate codes for left subtree adding 0 to path
-            if (curNode.getLeft() != null) {
-                huffMap.putAll(generateHuffCodeBackwards(curNode.getLeft(), curPath + "0"));
-            }
-            // Recursively generate codes for right subtree adding 1 to path
-            if (curNode.getRight() != null) {
-                huffMap.putAll(generateHuffCodeBackwards(curNode.getRight(), curPath + "1"));
-            }
-        }
-        return huffMap;
-    }
-
     public void setViewer(IHuffViewer viewer) {
         myViewer = viewer;
     }
@@ -588,4 +1153,57 @@ public class SimpleHuffProcessor implements IHuffProcessor {
             myViewer.update(s);
         }
     }
+
+    private void showMessage(String s) {
+        if (myViewer != null) {
+            myViewer.showMessage(s);
+        }
+    }
+
+    private void showError(String s) {
+        if (myViewer != null) {
+            myViewer.showError(s);
+        }
+    }
+
+    /*
+     * Passes reads through and counts the bytes read, so a codec can be run
+     * over a stream of unknown length.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if (value != -1) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int numRead = in.read(b, off, len);
+            if (numRead > 0) {
+                count += numRead;
+            }
+            return numRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
 }
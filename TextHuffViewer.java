@@ -1,10 +1,9 @@
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Scanner;
 
 /**
@@ -24,6 +23,8 @@ public class TextHuffViewer implements IHuffViewer {
 
     private static String HUFF_SUFFIX = ".hf";
     private static String UNHUFF_SUFFIX = ".unhf";
+    // Bytes buffered before each write to an output file
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
 
     /**
      * Create a text based interface Huffman viewer. After this constructor is
@@ -100,15 +101,37 @@ public class TextHuffViewer implements IHuffViewer {
             System.out.print("Current Header format for compressing: ");
             if (this.myHeaderFormat == IHuffConstants.STORE_COUNTS) {
                 System.out.println("Standard COUNT Format");
-            } else {
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_TREE) {
                 System.out.println("Standard TREE Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_CUSTOM) {
+                System.out.println("Canonical CODE LENGTH Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_BLOCKS) {
+                System.out.println("Independent BLOCKS Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_ADAPTIVE) {
+                System.out.println("ADAPTIVE Code Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_ORDER1) {
+                System.out.println("ORDER-1 Context Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_MODEL) {
+                System.out.println("Trained MODEL Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_INTERLEAVED) {
+                System.out.println("INTERLEAVED Streams Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_FSE) {
+                System.out.println("FSE (tANS) Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_RANGE) {
+                System.out.println("Adaptive RANGE Coder Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_LZ77) {
+                System.out.println("LZ77 Matches Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_RLE) {
+                System.out.println("Run-Length (RLE) Format");
+            } else {
+                System.out.println("Burrows-Wheeler (BWT) Format");
             }
             System.out.println("Current force compression status: " + this.myForce);
             System.out.println();
             System.out.println("OPTIONS");
             System.out.println("1. File operations. ");
             System.out.println("2. Flip Force Compression status.");
-            System.out.println("3. Flip Header format.");
+            System.out.println("3. Change Header format (next of the 13 formats, wrapping around).");
             System.out.println("4. Quit (or any value other than 1, 2, or 3)");
             System.out.println();
             choice = processChoice();
@@ -143,10 +166,34 @@ public class TextHuffViewer implements IHuffViewer {
             } else if (firstCharValue == MenuChoices.FLIP_COMPRESSION_STATUS.ordinal()) {
                 myForce = !myForce;
             } else {
-                // must be a 3, flip the header format
-                myHeaderFormat =
-                        (myHeaderFormat == IHuffConstants.STORE_COUNTS) ? IHuffConstants.STORE_TREE
-                                : IHuffConstants.STORE_COUNTS;
+                // must be a 3, move to the next header format
+                if (myHeaderFormat == IHuffConstants.STORE_COUNTS) {
+                    myHeaderFormat = IHuffConstants.STORE_TREE;
+                } else if (myHeaderFormat == IHuffConstants.STORE_TREE) {
+                    myHeaderFormat = IHuffConstants.STORE_CUSTOM;
+                } else if (myHeaderFormat == IHuffConstants.STORE_CUSTOM) {
+                    myHeaderFormat = IHuffConstants.STORE_BLOCKS;
+                } else if (myHeaderFormat == IHuffConstants.STORE_BLOCKS) {
+                    myHeaderFormat = IHuffConstants.STORE_ADAPTIVE;
+                } else if (myHeaderFormat == IHuffConstants.STORE_ADAPTIVE) {
+                    myHeaderFormat = IHuffConstants.STORE_ORDER1;
+                } else if (myHeaderFormat == IHuffConstants.STORE_ORDER1) {
+                    myHeaderFormat = IHuffConstants.STORE_MODEL;
+                } else if (myHeaderFormat == IHuffConstants.STORE_MODEL) {
+                    myHeaderFormat = IHuffConstants.STORE_INTERLEAVED;
+                } else if (myHeaderFormat == IHuffConstants.STORE_INTERLEAVED) {
+                    myHeaderFormat = IHuffConstants.STORE_FSE;
+                } else if (myHeaderFormat == IHuffConstants.STORE_FSE) {
+                    myHeaderFormat = IHuffConstants.STORE_RANGE;
+                } else if (myHeaderFormat == IHuffConstants.STORE_RANGE) {
+                    myHeaderFormat = IHuffConstants.STORE_LZ77;
+                } else if (myHeaderFormat == IHuffConstants.STORE_LZ77) {
+                    myHeaderFormat = IHuffConstants.STORE_RLE;
+                } else if (myHeaderFormat == IHuffConstants.STORE_RLE) {
+                    myHeaderFormat = IHuffConstants.STORE_BWT;
+                } else {
+                    myHeaderFormat = IHuffConstants.STORE_COUNTS;
+                }
 
             }
         }
@@ -187,7 +234,7 @@ public class TextHuffViewer implements IHuffViewer {
      */
     private void preprocess() {
         showMessage("Begining preprocessing of " + myInputFile + ".");
-        ByteArrayInputStream inputStream = getFastByteReader(myInputFile);
+        InputStream inputStream = getFastByteReader(myInputFile);
         try {
             int saved = myModel.preprocessCompress(inputStream, myHeaderFormat);
             showMessage("save(d): " + saved + " bits");
@@ -199,16 +246,24 @@ public class TextHuffViewer implements IHuffViewer {
 
     // Compress a file based on user input.
     private void compress() {
-        preprocess();
+        // When forced the file is compressed in a single pass. Otherwise
+        // preprocess first to find out if compressing saves any bits.
+        if (!myForce) {
+            preprocess();
+        }
         String newName = myInputFile.getName() + HUFF_SUFFIX;
         newName = setNewFileName("compressed", newName);
         if (newName == null) {
             showError("Trouble with file setting path of output file. Exiting compress.");
         } else {
             try {
-                FileOutputStream out = new FileOutputStream(new File(newName));
-                ByteArrayInputStream inputStream = getFastByteReader(myInputFile);
-                myModel.compress(inputStream, out, myForce);
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(newName), OUTPUT_BUFFER_SIZE);
+                InputStream inputStream = getFastByteReader(myInputFile);
+                if (myForce) {
+                    myModel.compress(inputStream, out, myHeaderFormat);
+                } else {
+                    myModel.compress(inputStream, out, myForce);
+                }
             } catch (IOException e) {
                 showError("Problem while trying to compress file.");
                 e.printStackTrace();
@@ -279,8 +334,8 @@ public class TextHuffViewer implements IHuffViewer {
         }
         uncompressedName = setNewFileName("compressed", uncompressedName);
         try {
-            FileOutputStream out = new FileOutputStream(new File(uncompressedName));
-            ByteArrayInputStream inputStream = getFastByteReader(myInputFile);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(uncompressedName), OUTPUT_BUFFER_SIZE);
+            InputStream inputStream = getFastByteReader(myInputFile);
             myModel.uncompress(inputStream, out);
         } catch (IOException e) {
             showError("Problem while trying to uncompress file.");
@@ -296,18 +351,11 @@ public class TextHuffViewer implements IHuffViewer {
         myInputFile = new File(path);
     }
 
-    // Get a ByteArrayInputStream to read from the given file.
-    private ByteArrayInputStream getFastByteReader(File f) {
+    // Get an InputStream that reads the given file from memory.
+    private InputStream getFastByteReader(File f) {
         try {
-            FileChannel channel = new FileInputStream(f).getChannel();
-            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-            byte[] barray = new byte[buffer.limit()];
-            if (barray.length != channel.size()) {
-                showError(String.format("Reading %s error: lengths differ %d %ld\n", f.getName(),
-                        barray.length, channel.size()));
-            }
-            buffer.get(barray);
-            return new ByteArrayInputStream(barray);
+            // Read straight from the mapped file, without copying it to an array
+            return new MappedFileInputStream(f);
         } catch (IOException e) {
             e.printStackTrace();
         }